@@ -0,0 +1,144 @@
+package org.spovst.swing.layout;
+
+import java.io.Serializable;
+
+/**
+ * The <code>GridSpan</code> class is the constraints object of the
+ * {@link UniformGridLayout}, which specifies the number of the grid
+ * columns and rows a component occupies:
+ * <pre>
+ * container.add(tile, new GridSpan(2, 1));
+ * </pre>
+ * The spanned component is still placed on the uniform grid: its area
+ * covers the specified number of the cells, along with the gaps between
+ * them, and the component is centered within this area. A span wider
+ * than the grid is limited to the number of the grid columns.
+ * <p>
+ * The <code>GridSpan</code> objects are immutable.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public final class GridSpan implements Serializable {
+    /**
+     * Used for serialization.
+     */
+    private static final long serialVersionUID = 3056158426402987754L;
+
+    /**
+     * The maximum number of the columns or the rows of a span.
+     */
+    public static final int MAX_SPAN = 1 << 15;
+
+    /**
+     * The span of a single cell, which is the default one.
+     */
+    public static final GridSpan SINGLE = new GridSpan(1, 1);
+
+    /**
+     * The number of the columns.
+     *
+     * @serial
+     * @see #getColumns()
+     */
+    private final int cols;
+
+    /**
+     * The number of the rows.
+     *
+     * @serial
+     * @see #getRows()
+     */
+    private final int rows;
+
+    /**
+     * Creates a <code>GridSpan</code> of the specified number of the
+     * grid columns and rows.
+     *
+     * @param cols the number of the columns
+     * @param rows the number of the rows
+     *
+     * @throws IllegalArgumentException if the number of the columns or
+     *                                  the rows is not in the range
+     *                                  from one to {@link #MAX_SPAN}
+     */
+    public GridSpan(int cols, int rows) {
+        if (cols < 1 || cols > MAX_SPAN || rows < 1 || rows > MAX_SPAN) {
+            throw new IllegalArgumentException("Illegal span: " + cols + "x" + rows);
+        }
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Gets the number of the grid columns of the span.
+     *
+     * @return the number of the columns
+     */
+    public int getColumns() {
+        return cols;
+    }
+
+    /**
+     * Gets the number of the grid rows of the span.
+     *
+     * @return the number of the rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Encodes the span as a single <code>int</code>, which is zero for
+     * the {@link #SINGLE} span.
+     *
+     * @return the encoded span
+     */
+    int encode() {
+        return (cols - 1) << 16 | (rows - 1);
+    }
+
+    /**
+     * Decodes the number of the columns from an encoded span.
+     *
+     * @param span the encoded span
+     *
+     * @return the number of the columns
+     */
+    static int decodeColumns(int span) {
+        return (span >>> 16) + 1;
+    }
+
+    /**
+     * Decodes the number of the rows from an encoded span.
+     *
+     * @param span the encoded span
+     *
+     * @return the number of the rows
+     */
+    static int decodeRows(int span) {
+        return (span & 0xFFFF) + 1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GridSpan)) {
+            return false;
+        }
+        GridSpan other = (GridSpan) obj;
+        return cols == other.cols && rows == other.rows;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * cols + rows;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[cols=" + cols + ",rows=" + rows + "]";
+    }
+}
@@ -0,0 +1,183 @@
+package org.spovst.swing.layout;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The <code>MappedGridModel</code> class provides the items of a
+ * grid from a memory-mapped file, so that the items are read only
+ * when they are shown.
+ * <p>
+ * The file consists of the header, the fixed-size item records, and
+ * the labels area. The header holds the magic number "UGLM", the
+ * format version, the number of the items, the width and the height
+ * of the grid cell, and the offset of the labels area from the start
+ * of the file. Each item record holds the 64-bit item id, the offset
+ * of the item label within the labels area, the length of the label
+ * in bytes, and the preferred width and height of the item. The labels
+ * are encoded in UTF-8. All the values are big-endian; except for the
+ * item id, they are 32-bit integers.
+ * <p>
+ * The cell size is taken from the header, so the items are not
+ * scanned to calculate it. The file must not be larger than
+ * {@link Integer#MAX_VALUE} bytes.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ * @see UniformGridView
+ */
+public class MappedGridModel {
+    /**
+     * The first four bytes of the file: "UGLM".
+     */
+    private static final int MAGIC = 0x55474C4D;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 6 * 4;
+
+    /**
+     * The size of the item record in bytes.
+     */
+    private static final int RECORD_SIZE = 8 + 4 * 4;
+
+    private final ByteBuffer buffer;
+    private final int itemCount;
+    private final Dimension cellSize;
+    private final int labelsOffset;
+
+    /**
+     * Creates a <code>MappedGridModel</code> that maps the
+     * <code>file</code> into memory.
+     *
+     * @param file the file with the items
+     *
+     * @throws IOException if an I/O error occurs, or the file is not a
+     *                     valid grid model file
+     */
+    public MappedGridModel(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Grid model file is too large: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a grid model file: " + file);
+        }
+        itemCount = buffer.getInt(8);
+        cellSize = new Dimension(buffer.getInt(12), buffer.getInt(16));
+        labelsOffset = buffer.getInt(20);
+        if (itemCount < 0 || labelsOffset < HEADER_SIZE + (long) itemCount * RECORD_SIZE
+                || labelsOffset > buffer.limit()) {
+            throw new IOException("Corrupted grid model file: " + file);
+        }
+    }
+
+    /**
+     * Gets the number of the items.
+     *
+     * @return the number of the items
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Gets the size of the grid cell, as stored in the file header.
+     *
+     * @return the size of the grid cell
+     */
+    public Dimension getCellSize() {
+        return new Dimension(cellSize);
+    }
+
+    /**
+     * Gets the id of the specified item.
+     *
+     * @param index the index of the item
+     *
+     * @return the id of the item
+     */
+    public long getId(int index) {
+        return buffer.getLong(recordOffset(index));
+    }
+
+    /**
+     * Gets the label of the specified item. The label is decoded on
+     * every call and is not cached.
+     *
+     * @param index the index of the item
+     *
+     * @return the label of the item
+     *
+     * @throws IllegalStateException if the label of the item is not
+     *                               within the labels area of the
+     *                               file
+     */
+    public String getLabel(int index) {
+        int record = recordOffset(index);
+        int offset = buffer.getInt(record + 8);
+        int length = buffer.getInt(record + 12);
+        if (offset < 0 || length < 0 || (long) labelsOffset + offset + length > buffer.limit()) {
+            throw new IllegalStateException("Corrupted label of the item " + index + ": offset " + offset
+                    + ", length " + length);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer labels = buffer.duplicate();
+        labels.position(labelsOffset + offset);
+        labels.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the preferred width of the specified item.
+     *
+     * @param index the index of the item
+     *
+     * @return the preferred width of the item
+     */
+    public int getPreferredWidth(int index) {
+        return buffer.getInt(recordOffset(index) + 16);
+    }
+
+    /**
+     * Gets the preferred height of the specified item.
+     *
+     * @param index the index of the item
+     *
+     * @return the preferred height of the item
+     */
+    public int getPreferredHeight(int index) {
+        return buffer.getInt(recordOffset(index) + 20);
+    }
+
+    /**
+     * Returns the offset of the record of the specified item within
+     * the file.
+     *
+     * @param index the index of the item
+     *
+     * @return the offset of the item record
+     *
+     * @throws IndexOutOfBoundsException if there is no such item
+     */
+    private int recordOffset(int index) {
+        if (index < 0 || index >= itemCount) {
+            throw new IndexOutOfBoundsException("Item index: " + index + ", item count: " + itemCount);
+        }
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
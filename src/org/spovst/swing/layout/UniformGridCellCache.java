@@ -0,0 +1,458 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The <code>UniformGridCellCache</code> class keeps the rendered
+ * images of the cells of a container that is managed by the
+ * {@link UniformGridLayout}, so that the cells with expensive painting
+ * are painted only once, and then are copied from the cache, for
+ * example, while scrolling.
+ * <p>
+ * To use the cache, the container should paint its children with the
+ * {@link #paintChildren(Container, Graphics)} method:
+ * <pre>
+ * protected void paintChildren(Graphics g) {
+ *     cellCache.paintChildren(this, g);
+ * }
+ * </pre>
+ * <p>
+ * A cached image is discarded when the size of its cell is changed,
+ * when a bound property of the cell component is changed (for
+ * example, the text of a label), or when a repaint of the cell or of
+ * any of its descendants is requested. To learn about the repaint
+ * requests, the cache installs its own {@link RepaintManager}, unless
+ * the application has installed a custom one; in the latter case only
+ * the repaints which are still pending when the container is painted
+ * are noticed. The cells that are not Swing components, or whose
+ * appearance is changed without a repaint request, should be
+ * invalidated with the {@link #invalidate(Component)} method.
+ * <p>
+ * If the container is managed by the {@link UniformGridLayout}, only
+ * the cells of the rows which cross the painted area are visited.
+ * <p>
+ * The images are compatible with the graphics configuration of the
+ * container, so Java2D could keep them in the video memory, and match
+ * the scale of the graphics they are painted to. The least recently
+ * used images are evicted when their total size exceeds the limit.
+ * The lookups of the cached images are recorded by the flight
+ * recorder, if their event is enabled (see {@link UniformGridEvents}).
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridCellCache {
+    /**
+     * The number of bytes per pixel of a cached image.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * The cached images in the order from the least recently used to
+     * the most recently used.
+     */
+    private final Map<Component, Entry> entries = new LinkedHashMap<Component, Entry>(16, 0.75f, true);
+
+    /**
+     * Discards the image of a cell whose bound property is changed.
+     */
+    private final PropertyChangeListener invalidator = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent e) {
+            invalidate((Component) e.getSource());
+        }
+    };
+
+    /**
+     * The containers whose children are painted by this cache.
+     */
+    private final Set<Container> containers =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Container, Boolean>()));
+
+    /**
+     * The cells whose repaint has been requested since the last
+     * painting. A repaint may be requested on any thread, so the
+     * cells are only collected here, and their images are discarded
+     * when the container is painted.
+     */
+    private final Set<Component> repaintedCells =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>()));
+
+    /**
+     * The cells to be painted, reused between the paintings.
+     */
+    private final List<Component> paintedCells = new ArrayList<Component>();
+
+    private long maxBytes;
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Creates a <code>UniformGridCellCache</code> that keeps at most
+     * <code>maxBytes</code> bytes of the images.
+     *
+     * @param maxBytes the maximum total size of the cached images
+     */
+    public UniformGridCellCache(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    /**
+     * Gets the maximum total size of the cached images in bytes.
+     *
+     * @return the maximum size of the cache
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum total size of the cached images in bytes,
+     * evicting the least recently used images if necessary.
+     *
+     * @param maxBytes the maximum size of the cache
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 0);
+        evict();
+    }
+
+    /**
+     * Gets the total size of the cached images in bytes.
+     *
+     * @return the current size of the cache
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of the cells that have been painted from the
+     * cache.
+     *
+     * @return the number of the cache hits
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of the cells that have been rendered, because
+     * their images were not in the cache.
+     *
+     * @return the number of the cache misses
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetCounters() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * Discards the cached image of the <code>cell</code>, so that it
+     * is rendered again the next time it is painted.
+     *
+     * @param cell the cell whose appearance has been changed
+     */
+    public void invalidate(Component cell) {
+        Entry entry = entries.remove(cell);
+        if (entry != null) {
+            discard(cell, entry);
+        }
+    }
+
+    /**
+     * Discards all the cached images.
+     */
+    public void clear() {
+        for (Iterator<Map.Entry<Component, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Component, Entry> e = it.next();
+            it.remove();
+            discard(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Paints the visible children of the <code>container</code> that
+     * intersect the clip of the graphics <code>g</code>, copying their
+     * images from the cache and rendering the missing ones.
+     *
+     * @param container the container whose children are painted
+     * @param g         the graphics to paint to
+     */
+    public void paintChildren(Container container, Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        double scaleX = 1;
+        double scaleY = 1;
+        if (g instanceof Graphics2D) {
+            AffineTransform transform = ((Graphics2D) g).getTransform();
+            scaleX = transform.getScaleX();
+            scaleY = transform.getScaleY();
+        }
+
+        containers.add(container);
+        RepaintManager manager = CellRepaintManager.install(container, this);
+        // A custom repaint manager does not report the repaints, so look for those not processed yet.
+        RepaintManager unhooked = manager instanceof CellRepaintManager ? null : manager;
+        discardRepaintedCells();
+
+        boolean recorded = UniformGridLayout.FLIGHT_RECORDER && UniformGridEvents.isCacheLookupEnabled();
+        synchronized (container.getTreeLock()) {
+            LayoutManager layout = container.getLayout();
+            if (layout instanceof UniformGridLayout
+                    && ((UniformGridLayout) layout).collectCells(container, clip, paintedCells)) {
+                for (int i = paintedCells.size() - 1; i >= 0; i--) {
+                    Component cell = paintedCells.get(i);
+                    if (cell.getParent() == container) {
+                        paintCell(container, g, cell, clip, scaleX, scaleY, unhooked, recorded);
+                    }
+                }
+                paintedCells.clear();
+            } else {
+                int count = container.getComponentCount();
+                for (int i = count - 1; i >= 0; i--) {
+                    paintCell(container, g, container.getComponent(i), clip, scaleX, scaleY, unhooked, recorded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints the <code>cell</code> if it is visible and intersects
+     * the <code>clip</code>, copying its image from the cache or
+     * rendering it. If <code>recorded</code> is set, the lookup is
+     * reported to the flight recorder.
+     */
+    private void paintCell(Container container, Graphics g, Component cell, Rectangle clip, double scaleX,
+                           double scaleY, RepaintManager unhooked, boolean recorded) {
+        int width = cell.getWidth();
+        int height = cell.getHeight();
+        if (!cell.isVisible() || width <= 0 || height <= 0
+                || (clip != null && !clip.intersects(cell.getX(), cell.getY(), width, height))) {
+            return;
+        }
+
+        int imageWidth = (int) Math.ceil(width * scaleX);
+        int imageHeight = (int) Math.ceil(height * scaleY);
+        Entry entry = entries.get(cell);
+        if (entry != null && (entry.width != width || entry.height != height
+                || entry.image.getWidth() != imageWidth || entry.image.getHeight() != imageHeight
+                || (unhooked != null && cell instanceof JComponent
+                && !unhooked.getDirtyRegion((JComponent) cell).isEmpty()))) {
+            invalidate(cell);
+            entry = null;
+        }
+        if (recorded) {
+            UniformGridEvents.commitCacheLookup(container, UniformGridEvents.CELL_IMAGES, entry != null);
+        }
+        if (entry == null) {
+            missCount++;
+            entry = render(container, cell, width, height, imageWidth, imageHeight, scaleX, scaleY);
+            if (entry == null) {
+                // The image would not fit into the cache at all.
+                paintDirectly(g, cell);
+                return;
+            }
+        } else {
+            hitCount++;
+        }
+        g.drawImage(entry.image, cell.getX(), cell.getY(), width, height, null);
+    }
+
+    /**
+     * Discards the images of the cells whose repaint has been
+     * requested since the last painting.
+     */
+    private void discardRepaintedCells() {
+        Component[] repainted;
+        synchronized (repaintedCells) {
+            if (repaintedCells.isEmpty()) {
+                return;
+            }
+            repainted = repaintedCells.toArray(new Component[repaintedCells.size()]);
+            repaintedCells.clear();
+        }
+        for (Component cell : repainted) {
+            invalidate(cell);
+        }
+    }
+
+    /**
+     * Notes that a repaint of the <code>component</code> has been
+     * requested, if it is a cell of one of the containers painted by
+     * this cache, or a descendant of such a cell.
+     *
+     * @param component the component to be repainted
+     */
+    private void repaintRequested(Component component) {
+        for (Component c = component; c != null; c = c.getParent()) {
+            Container parent = c.getParent();
+            if (parent != null && containers.contains(parent)) {
+                repaintedCells.add(c);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renders the <code>cell</code> into a new image and puts it into
+     * the cache.
+     *
+     * @return the new cache entry, or <code>null</code> if the image
+     *         is larger than the cache
+     */
+    private Entry render(Container container, Component cell, int width, int height, int imageWidth,
+                         int imageHeight, double scaleX, double scaleY) {
+        long size = (long) imageWidth * imageHeight * BYTES_PER_PIXEL;
+        if (size > maxBytes) {
+            return null;
+        }
+
+        GraphicsConfiguration configuration = container.getGraphicsConfiguration();
+        BufferedImage image = configuration != null
+                ? configuration.createCompatibleImage(imageWidth, imageHeight, Transparency.TRANSLUCENT)
+                : new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D ig = image.createGraphics();
+        try {
+            ig.scale(scaleX, scaleY);
+            ig.setClip(0, 0, width, height);
+            cell.paint(ig);
+        } finally {
+            ig.dispose();
+        }
+
+        Entry entry = new Entry(image, width, height, size);
+        entries.put(cell, entry);
+        bytes += size;
+        if (cell instanceof JComponent) {
+            cell.addPropertyChangeListener(invalidator);
+        }
+        evict();
+        return entry;
+    }
+
+    /**
+     * Paints the <code>cell</code> without the cache.
+     */
+    private static void paintDirectly(Graphics g, Component cell) {
+        Graphics cg = g.create(cell.getX(), cell.getY(), cell.getWidth(), cell.getHeight());
+        try {
+            cell.paint(cg);
+        } finally {
+            cg.dispose();
+        }
+    }
+
+    /**
+     * Evicts the least recently used images until the cache fits into
+     * the limit.
+     */
+    private void evict() {
+        for (Iterator<Map.Entry<Component, Entry>> it = entries.entrySet().iterator();
+             bytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<Component, Entry> e = it.next();
+            it.remove();
+            discard(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Releases the image of the removed entry.
+     */
+    private void discard(Component cell, Entry entry) {
+        bytes -= entry.bytes;
+        entry.image.flush();
+        if (cell instanceof JComponent) {
+            cell.removePropertyChangeListener(invalidator);
+        }
+    }
+
+    /**
+     * The <code>CellRepaintManager</code> reports the repaint requests
+     * to the caches, so that they could discard the images of the
+     * repainted cells.
+     * <p>
+     * Note that Swing does not use the per-window buffer strategy
+     * with a subclass of the <code>RepaintManager</code>, painting
+     * through the back buffer instead.
+     */
+    private static class CellRepaintManager extends RepaintManager {
+        /**
+         * The caches that are notified about the repaints.
+         */
+        private final Map<UniformGridCellCache, Boolean> caches = new WeakHashMap<UniformGridCellCache, Boolean>();
+
+        /**
+         * Installs the <code>CellRepaintManager</code> for the
+         * <code>container</code> unless a custom repaint manager is
+         * installed, and registers the <code>cache</code> with it.
+         *
+         * @return the current repaint manager
+         */
+        static RepaintManager install(Container container, UniformGridCellCache cache) {
+            RepaintManager manager = RepaintManager.currentManager(container);
+            if (manager.getClass() == RepaintManager.class) {
+                manager = new CellRepaintManager();
+                RepaintManager.setCurrentManager(manager);
+            }
+            if (manager instanceof CellRepaintManager) {
+                CellRepaintManager cellManager = (CellRepaintManager) manager;
+                synchronized (cellManager.caches) {
+                    cellManager.caches.put(cache, Boolean.TRUE);
+                }
+            }
+            return manager;
+        }
+
+        @Override
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            super.addDirtyRegion(c, x, y, w, h);
+            UniformGridCellCache[] notified;
+            synchronized (caches) {
+                notified = caches.keySet().toArray(new UniformGridCellCache[caches.size()]);
+            }
+            for (UniformGridCellCache cache : notified) {
+                cache.repaintRequested(c);
+            }
+        }
+    }
+
+    /**
+     * The <code>Entry</code> is the cached image of a cell, along with
+     * the size of the cell it has been rendered for.
+     */
+    private static class Entry {
+        final BufferedImage image;
+        final int width;
+        final int height;
+        final long bytes;
+
+        Entry(BufferedImage image, int width, int height, long bytes) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+        }
+    }
+}
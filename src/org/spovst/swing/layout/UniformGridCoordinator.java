@@ -0,0 +1,74 @@
+package org.spovst.swing.layout;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The <code>UniformGridCoordinator</code> class validates many
+ * containers that are managed by the {@link UniformGridLayout} in
+ * one pass.
+ * <p>
+ * The validation is done in three sweeps. First, the preferred sizes
+ * of the components of all the invalid containers are taken. Then
+ * the cell sizes, the number of the grid rows and columns, and the
+ * horizontal gaps of all the containers are calculated from the taken
+ * sizes, without accessing the components. Finally, the containers
+ * are validated one after another, and their layout passes use the
+ * calculated metrics instead of calculating them again.
+ * <p>
+ * All the sweeps are done on the calling thread, since Swing
+ * components must only be accessed on the event dispatch thread. The
+ * coordinator does not make the validation parallel; it only batches
+ * the measuring of all the grids before any of them is laid out.
+ * <p>
+ * The coordinator should be used on the event dispatch thread, for
+ * example, to validate a screen with many small grids before the
+ * validation of its root component. The containers that are already
+ * valid or are not managed by the <code>UniformGridLayout</code> are
+ * validated as usual.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridCoordinator {
+    /**
+     * Validates the <code>targets</code> containers, calculating
+     * the grid metrics of those managed by the
+     * {@link UniformGridLayout} in one sweep before laying them out.
+     *
+     * @param targets the containers to be validated
+     */
+    public void validate(Collection<? extends Container> targets) {
+        List<Container> measuredTargets = new ArrayList<Container>();
+        List<UniformGridLayout> layouts = new ArrayList<UniformGridLayout>();
+        List<UniformGridLayout.GridMetrics> metrics = new ArrayList<UniformGridLayout.GridMetrics>();
+        Set<UniformGridLayout> seen = Collections.newSetFromMap(new IdentityHashMap<UniformGridLayout, Boolean>());
+        for (Container target : targets) {
+            LayoutManager layout = target.getLayout();
+            // A layout shared by several containers cannot keep the metrics of all of them.
+            if (target.isValid() || !(layout instanceof UniformGridLayout) || !seen.add((UniformGridLayout) layout)) {
+                continue;
+            }
+            UniformGridLayout gridLayout = (UniformGridLayout) layout;
+            measuredTargets.add(target);
+            layouts.add(gridLayout);
+            metrics.add(gridLayout.measureMetrics(target));
+        }
+
+        for (UniformGridLayout.GridMetrics gridMetrics : metrics) {
+            gridMetrics.resolve();
+        }
+
+        for (int i = 0; i < measuredTargets.size(); i++) {
+            layouts.get(i).validateMeasured(measuredTargets.get(i));
+        }
+        for (Container target : targets) {
+            target.validate();
+        }
+    }
+}
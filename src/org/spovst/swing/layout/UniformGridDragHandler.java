@@ -0,0 +1,227 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import javax.swing.event.MouseInputAdapter;
+import java.awt.*;
+import java.awt.dnd.DragSource;
+import java.awt.event.ActionEvent;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+
+/**
+ * The <code>UniformGridDragHandler</code> class lets the user reorder
+ * the cells of a container managed by the {@link UniformGridLayout} by
+ * dragging them with the mouse.
+ * <p>
+ * The insertion index is calculated by the layout manager from the
+ * pointer position and the grid geometry, so it takes constant time
+ * regardless of the number of the cells. While a cell is dragged, the
+ * layout manager shows it at the insertion index, shifting only the
+ * cells between its old and new places. When the cell is dropped, it
+ * is moved within the cell order rather than removed and added to the
+ * container, and the following layout pass reshapes only the cells
+ * starting from the lower of the two indices.
+ * <p>
+ * The handler listens to the mouse events of the container and of its
+ * children; the descendants of a child that have their own mouse
+ * listeners do not start a drag. Pressing <code>Escape</code> while
+ * dragging puts the cells back.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridDragHandler extends MouseInputAdapter implements ContainerListener {
+    private static final String CANCEL = "uniformGrid.cancelDrag";
+
+    private final Container target;
+    private int dragged = -1;
+    private Point pressPoint;
+    private boolean dragging;
+    private int dropIndex = -1;
+
+    /**
+     * Creates a <code>UniformGridDragHandler</code> for the
+     * <code>target</code> container. The handler should be installed
+     * with the {@link #install(Container)} method.
+     *
+     * @param target the container whose cells are reordered
+     */
+    protected UniformGridDragHandler(Container target) {
+        this.target = target;
+    }
+
+    /**
+     * Lets the user reorder the cells of the <code>target</code>
+     * container, which should be managed by the
+     * {@link UniformGridLayout}, by dragging them.
+     *
+     * @param target the container whose cells are reordered
+     *
+     * @return the installed handler
+     *
+     * @see #uninstall()
+     */
+    public static UniformGridDragHandler install(Container target) {
+        final UniformGridDragHandler handler = new UniformGridDragHandler(target);
+        synchronized (target.getTreeLock()) {
+            target.addMouseListener(handler);
+            target.addMouseMotionListener(handler);
+            target.addContainerListener(handler);
+            for (Component child : target.getComponents()) {
+                handler.listenTo(child);
+            }
+        }
+        if (target instanceof JComponent) {
+            JComponent component = (JComponent) target;
+            component.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT)
+                    .put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), CANCEL);
+            component.getActionMap().put(CANCEL, new AbstractAction(CANCEL) {
+                private static final long serialVersionUID = 6218537020841476385L;
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    handler.cancelDrag();
+                }
+            });
+        }
+        return handler;
+    }
+
+    /**
+     * Stops reordering the cells of the container, putting back the
+     * cell that is being dragged.
+     */
+    public void uninstall() {
+        cancelDrag();
+        synchronized (target.getTreeLock()) {
+            target.removeMouseListener(this);
+            target.removeMouseMotionListener(this);
+            target.removeContainerListener(this);
+            for (Component child : target.getComponents()) {
+                child.removeMouseListener(this);
+                child.removeMouseMotionListener(this);
+            }
+        }
+        if (target instanceof JComponent) {
+            JComponent component = (JComponent) target;
+            component.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT)
+                    .remove(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0));
+            component.getActionMap().remove(CANCEL);
+        }
+    }
+
+    /**
+     * Returns whether a cell is being dragged.
+     *
+     * @return <code>true</code> if a cell is being dragged
+     */
+    public boolean isDragging() {
+        return dragging;
+    }
+
+    /**
+     * Puts back the cell that is being dragged, if any.
+     */
+    public void cancelDrag() {
+        UniformGridLayout layout = getLayout();
+        if (dragging && layout != null) {
+            layout.previewMove(target, dragged, -1);
+        }
+        reset();
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        UniformGridLayout layout = getLayout();
+        if (layout == null || !SwingUtilities.isLeftMouseButton(e)) {
+            return;
+        }
+        Point point = SwingUtilities.convertPoint(e.getComponent(), e.getPoint(), target);
+        Component cell = e.getComponent() != target ? e.getComponent() : null;
+        dragged = cell != null ? layout.getCellIndex(cell) : layout.getCellIndexAt(point);
+        pressPoint = dragged >= 0 ? point : null;
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        UniformGridLayout layout = getLayout();
+        if (layout == null || pressPoint == null) {
+            return;
+        }
+        Point point = SwingUtilities.convertPoint(e.getComponent(), e.getPoint(), target);
+        if (!dragging) {
+            int threshold = DragSource.getDragThreshold();
+            if (Math.abs(point.x - pressPoint.x) <= threshold && Math.abs(point.y - pressPoint.y) <= threshold) {
+                return;
+            }
+            dragging = true;
+        }
+
+        int index = layout.getDropIndex(point);
+        if (index >= 0 && index != dropIndex) {
+            dropIndex = index;
+            layout.previewMove(target, dragged, index);
+        }
+        if (target instanceof JComponent) {
+            ((JComponent) target).scrollRectToVisible(new Rectangle(point.x, point.y, 1, 1));
+        }
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        UniformGridLayout layout = getLayout();
+        if (dragging && layout != null && dropIndex >= 0) {
+            layout.moveCell(target, dragged, dropIndex);
+        }
+        reset();
+    }
+
+    @Override
+    public void componentAdded(ContainerEvent e) {
+        listenTo(e.getChild());
+    }
+
+    @Override
+    public void componentRemoved(ContainerEvent e) {
+        e.getChild().removeMouseListener(this);
+        e.getChild().removeMouseMotionListener(this);
+        if (dragging) {
+            // The indices of the cells are no longer known.
+            cancelDrag();
+        }
+    }
+
+    /**
+     * Starts listening to the mouse events of the <code>child</code>
+     * of the container.
+     *
+     * @param child the child of the container
+     */
+    private void listenTo(Component child) {
+        child.addMouseListener(this);
+        child.addMouseMotionListener(this);
+    }
+
+    /**
+     * Forgets the cell that has been dragged.
+     */
+    private void reset() {
+        dragged = -1;
+        pressPoint = null;
+        dragging = false;
+        dropIndex = -1;
+    }
+
+    /**
+     * Returns the layout manager of the container, if it is a
+     * {@link UniformGridLayout}.
+     *
+     * @return the layout manager, or <code>null</code>
+     */
+    private UniformGridLayout getLayout() {
+        LayoutManager layout = target.getLayout();
+        return layout instanceof UniformGridLayout ? (UniformGridLayout) layout : null;
+    }
+}
@@ -0,0 +1,319 @@
+package org.spovst.swing.layout;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.awt.*;
+
+/**
+ * The <code>UniformGridEvents</code> class defines the Java Flight
+ * Recorder events of the {@link UniformGridLayout}, so that its
+ * calculations and layout passes could be seen in a recording along
+ * with the other events, for example, the garbage collections and the
+ * event dispatch thread events:
+ * <ul>
+ * <li><code>org.spovst.swing.layout.MetricsCalculation</code> is
+ * recorded for each calculation of the grid metrics;</li>
+ * <li><code>org.spovst.swing.layout.LayoutPass</code> is recorded for
+ * each layout pass;</li>
+ * <li><code>org.spovst.swing.layout.CacheLookup</code> is recorded
+ * each time the cached measurements are either reused or discarded,
+ * the sizes scaled by a recently used zoom factor are looked up, and
+ * a cell is painted by the {@link UniformGridCellCache}. A full
+ * calculation that takes all the sizes from the
+ * {@link UniformGridGeometryIndex} is recorded as a hit of the index.
+ * This event is disabled by default, since it is recorded very
+ * often.</li>
+ * </ul>
+ * The events are enabled and disabled by the standard recording
+ * settings, for example:
+ * <pre>
+ * -XX:StartFlightRecording:settings=default,+org.spovst.swing.layout.CacheLookup#enabled=true
+ * </pre>
+ * The layout manager refers to this class only if the flight recorder
+ * is available. Each event is created, begun and committed within a
+ * single method, so that the disabled events cost next to nothing, and
+ * the cache lookups are not even created unless their event is
+ * enabled. The events are recorded without the stack traces.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+final class UniformGridEvents {
+    /**
+     * The calculation that takes the metrics measured beforehand.
+     */
+    static final String PREPARED = "prepared";
+
+    /**
+     * The calculation that filters the current cells.
+     */
+    static final String NARROWED = "narrowed";
+
+    /**
+     * The calculation that scales the measured sizes by a new zoom.
+     */
+    static final String ZOOMED = "zoomed";
+
+    /**
+     * The calculation that measures only the appended components.
+     */
+    static final String APPENDED = "appended";
+
+    /**
+     * The calculation that measures all the components.
+     */
+    static final String FULL = "full";
+
+    /**
+     * The cache of the measured preferred sizes of the components.
+     */
+    static final String MEASUREMENTS = "measurements";
+
+    /**
+     * The cache of the sizes scaled by the recently used zoom factors.
+     */
+    static final String ZOOM_LEVELS = "zoomLevels";
+
+    /**
+     * The preferred sizes shared by the views of the same items.
+     */
+    static final String GEOMETRY_INDEX = "geometryIndex";
+
+    /**
+     * The rendered images of the cells.
+     */
+    static final String CELL_IMAGES = "cellImages";
+
+    /**
+     * The type of the cache lookup event, which is checked before the
+     * event is created.
+     */
+    private static final EventType CACHE_LOOKUP = EventType.getEventType(CacheEvent.class);
+
+    private UniformGridEvents() {
+    }
+
+    /**
+     * Calculates the grid metrics of the <code>target</code> container,
+     * recording the calculation.
+     *
+     * @param layout the layout manager of the container
+     * @param target the container whose metrics are calculated
+     */
+    static void recordMetrics(UniformGridLayout layout, Container target) {
+        int measureCount = layout.gridMetrics.measureCount;
+        MetricsEvent event = new MetricsEvent();
+        event.begin();
+        String calculation = layout.computeMetrics(target);
+        event.end();
+        if (event.shouldCommit()) {
+            UniformGridLayout.GridMetrics metrics = layout.gridMetrics;
+            event.containerId = System.identityHashCode(target);
+            event.containerClass = target.getClass();
+            event.componentCount = target.getComponentCount();
+            event.cellCount = metrics.componentsCount;
+            event.cols = metrics.cols;
+            event.rows = metrics.rows;
+            event.cellWidth = metrics.cellSize.width;
+            event.cellHeight = metrics.cellSize.height;
+            event.dynamicHgap = layout.getFlowHgap() < 0;
+            event.hgap = metrics.innerHgap;
+            event.calculation = calculation;
+            event.commit();
+        }
+        if (FULL.equals(calculation) && layout.getGeometryIndex() != null) {
+            // The discarded measurements are taken from the index, unless any of the components has been measured.
+            commitCacheLookup(target, GEOMETRY_INDEX, layout.gridMetrics.measureCount == measureCount);
+        } else if (!PREPARED.equals(calculation)) {
+            commitCacheLookup(target, MEASUREMENTS, !FULL.equals(calculation));
+        }
+    }
+
+    /**
+     * Lays out the <code>target</code> container, recording the layout
+     * pass. The caller must hold the tree lock.
+     *
+     * @param layout the layout manager of the container
+     * @param target the container to be laid out
+     */
+    static void recordLayout(UniformGridLayout layout, Container target) {
+        LayoutEvent event = new LayoutEvent();
+        event.begin();
+        int changedFrom = layout.layOut(target, event.isEnabled());
+        event.end();
+        if (event.shouldCommit()) {
+            UniformGridLayout.LayoutState state = layout.layoutState;
+            event.containerId = System.identityHashCode(target);
+            event.containerClass = target.getClass();
+            event.componentCount = target.getComponentCount();
+            event.cellCount = state.cellsCount;
+            event.windowCount = Math.max(Math.min(state.windowTo, state.cellsCount) - state.windowFrom, 0);
+            event.changedFrom = changedFrom;
+            event.cols = state.cols;
+            event.rows = state.rows;
+            event.cellWidth = state.cellWidth;
+            event.cellHeight = state.cellHeight;
+            event.dynamicHgap = layout.getFlowHgap() < 0;
+            event.hgap = state.colStep - state.cellWidth;
+            event.metricsDuration = layout.metricsDuration;
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks whether the cache lookups are recorded, so that a caller
+     * which looks up a cache many times could check it once.
+     *
+     * @return <code>true</code> if the cache lookup event is enabled
+     */
+    static boolean isCacheLookupEnabled() {
+        return CACHE_LOOKUP.isEnabled();
+    }
+
+    /**
+     * Records a lookup of a cache of the layout manager, unless the
+     * event is disabled.
+     *
+     * @param target the container whose cache is looked up
+     * @param cache  the name of the cache
+     * @param hit    <code>true</code> if the cached data has been reused
+     */
+    static void commitCacheLookup(Container target, String cache, boolean hit) {
+        if (!CACHE_LOOKUP.isEnabled()) {
+            return;
+        }
+        CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.containerId = System.identityHashCode(target);
+            event.containerClass = target.getClass();
+            event.cache = cache;
+            event.hit = hit;
+            event.commit();
+        }
+    }
+
+    @Name("org.spovst.swing.layout.MetricsCalculation")
+    @Label("Grid Metrics Calculation")
+    @Description("Calculation of the cell size and the number of the columns and rows of a uniform grid")
+    @Category({"Swing", "Uniform Grid Layout"})
+    @StackTrace(false)
+    static class MetricsEvent extends Event {
+        @Label("Container Identity")
+        int containerId;
+
+        @Label("Container Class")
+        Class<?> containerClass;
+
+        @Label("Components")
+        int componentCount;
+
+        @Label("Cells")
+        @Description("The number of the visible components that occupy the cells")
+        int cellCount;
+
+        @Label("Columns")
+        int cols;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Cell Width")
+        int cellWidth;
+
+        @Label("Cell Height")
+        int cellHeight;
+
+        @Label("Dynamic Gap")
+        @Description("Whether the gap between the columns is calculated")
+        boolean dynamicHgap;
+
+        @Label("Gap")
+        @Description("The gap between the columns")
+        int hgap;
+
+        @Label("Calculation")
+        @Description("The kind of the calculation: prepared, narrowed, zoomed, appended or full")
+        String calculation;
+    }
+
+    @Name("org.spovst.swing.layout.LayoutPass")
+    @Label("Grid Layout Pass")
+    @Description("Layout pass of a container managed by the uniform grid layout")
+    @Category({"Swing", "Uniform Grid Layout"})
+    @StackTrace(false)
+    static class LayoutEvent extends Event {
+        @Label("Container Identity")
+        int containerId;
+
+        @Label("Container Class")
+        Class<?> containerClass;
+
+        @Label("Components")
+        int componentCount;
+
+        @Label("Cells")
+        @Description("The number of the visible components that occupy the cells")
+        int cellCount;
+
+        @Label("Window Cells")
+        @Description("The number of the cells within the laid out window")
+        int windowCount;
+
+        @Label("First Changed Cell")
+        int changedFrom;
+
+        @Label("Columns")
+        int cols;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Cell Width")
+        int cellWidth;
+
+        @Label("Cell Height")
+        int cellHeight;
+
+        @Label("Dynamic Gap")
+        @Description("Whether the gap between the columns is calculated")
+        boolean dynamicHgap;
+
+        @Label("Gap")
+        @Description("The gap between the columns")
+        int hgap;
+
+        @Label("Metrics Duration")
+        @Description("The time the calculation of the grid metrics has taken")
+        @Timespan(Timespan.NANOSECONDS)
+        long metricsDuration;
+    }
+
+    @Name("org.spovst.swing.layout.CacheLookup")
+    @Label("Grid Cache Lookup")
+    @Description("Reuse or miss of the cached measurements or cell images of a uniform grid")
+    @Category({"Swing", "Uniform Grid Layout"})
+    @Enabled(false)
+    @StackTrace(false)
+    static class CacheEvent extends Event {
+        @Label("Container Identity")
+        int containerId;
+
+        @Label("Container Class")
+        Class<?> containerClass;
+
+        @Label("Cache")
+        @Description("The looked up cache: measurements, zoomLevels, geometryIndex or cellImages")
+        String cache;
+
+        @Label("Hit")
+        boolean hit;
+    }
+}
@@ -0,0 +1,515 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+
+/**
+ * The <code>UniformGridFocusTraversalPolicy</code> class is a focus
+ * traversal policy for the containers managed by the
+ * {@link UniformGridLayout}. The components are traversed in the order
+ * of the grid cells, which is known to the layout manager, so the
+ * components are not sorted by their positions as the
+ * {@link LayoutFocusTraversalPolicy} does, and each traversal step
+ * takes constant time, provided that the neighbouring cells are
+ * focusable.
+ * <p>
+ * A cell that does not accept the focus itself is searched for a
+ * focusable descendant, so a cell could be a panel of several
+ * controls. The focus moves through the descendants of a cell in the
+ * order of the components, before it moves to the next cell. A cell
+ * or a descendant that is a focus cycle root is entered at its
+ * default component, and one that provides its own focus traversal
+ * policy is traversed by that policy.
+ * <p>
+ * The {@link #installKeyboardActions(JComponent)} method binds the
+ * arrow, the <code>Home</code>, the <code>End</code>, the
+ * <code>Page Up</code> and the <code>Page Down</code> keys to move the
+ * focus within the grid, scrolling the focused cell into the view.
+ * If the cells flow in the columns (see
+ * {@link UniformGridLayout#setLayoutOrientation(int)}), the keys move
+ * the focus in the same directions on the screen, and the
+ * <code>Home</code> and the <code>End</code> keys work within the
+ * column. If the cells have spans (see {@link GridSpan}), the keys
+ * move the focus to the nearest cell on the screen, skipping the
+ * empty grid slots; the left and the right keys fall back to the
+ * previous and the next cell at the edges of the row. In the masonry
+ * mode, the up and the down keys move within the column, and the other
+ * keys move to the cell nearest to the middle of the focused one
+ * within the target column.
+ * <p>
+ * The policy uses the cells as they have been laid out by the last
+ * layout pass, so the container should be valid.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridFocusTraversalPolicy extends FocusTraversalPolicy {
+    private static final String LEFT = "uniformGrid.left";
+    private static final String RIGHT = "uniformGrid.right";
+    private static final String UP = "uniformGrid.up";
+    private static final String DOWN = "uniformGrid.down";
+    private static final String ROW_START = "uniformGrid.rowStart";
+    private static final String ROW_END = "uniformGrid.rowEnd";
+    private static final String FIRST = "uniformGrid.first";
+    private static final String LAST = "uniformGrid.last";
+    private static final String PAGE_UP = "uniformGrid.pageUp";
+    private static final String PAGE_DOWN = "uniformGrid.pageDown";
+
+    /**
+     * Decides whether a component accepts the focus, the same way the
+     * default Swing focus traversal policy does.
+     */
+    private static final Acceptor ACCEPTOR = new Acceptor();
+
+    @Override
+    public Component getComponentAfter(Container aContainer, Component aComponent) {
+        UniformGridLayout layout = getLayout(aContainer);
+        int index = getCellIndex(aContainer, layout, aComponent);
+        if (layout == null || index < 0) {
+            return null;
+        }
+        Component component = findWithinCell(aContainer, aComponent, true);
+        return component != null ? component : findFocusable(layout, index + 1, 1, true);
+    }
+
+    @Override
+    public Component getComponentBefore(Container aContainer, Component aComponent) {
+        UniformGridLayout layout = getLayout(aContainer);
+        int index = getCellIndex(aContainer, layout, aComponent);
+        if (layout == null || index < 0) {
+            return null;
+        }
+        Component component = findWithinCell(aContainer, aComponent, false);
+        return component != null ? component : findFocusable(layout, index - 1, -1, false);
+    }
+
+    @Override
+    public Component getFirstComponent(Container aContainer) {
+        UniformGridLayout layout = getLayout(aContainer);
+        return layout != null ? findFocusable(layout, 0, 1, true) : null;
+    }
+
+    @Override
+    public Component getLastComponent(Container aContainer) {
+        UniformGridLayout layout = getLayout(aContainer);
+        return layout != null ? findFocusable(layout, layout.getCellCount() - 1, -1, false) : null;
+    }
+
+    @Override
+    public Component getDefaultComponent(Container aContainer) {
+        return getFirstComponent(aContainer);
+    }
+
+    /**
+     * Binds the navigation keys of the <code>target</code> container,
+     * which should be managed by the {@link UniformGridLayout}. The
+     * keys work when the focus is within the container:
+     * <ul>
+     * <li>the arrow keys move the focus to the adjacent cell;</li>
+     * <li><code>Home</code> and <code>End</code> move the focus to the
+     * first and the last cell of the row;</li>
+     * <li><code>Ctrl+Home</code> and <code>Ctrl+End</code> move the
+     * focus to the first and the last cell of the grid;</li>
+     * <li><code>Page Up</code> and <code>Page Down</code> move the focus
+     * by the number of the rows that fit into the visible part of the
+     * container.</li>
+     * </ul>
+     *
+     * @param target the container whose keys are bound
+     */
+    public static void installKeyboardActions(JComponent target) {
+        InputMap inputMap = target.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0), LEFT);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0), RIGHT);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), UP);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), DOWN);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, 0), ROW_START);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_END, 0), ROW_END);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, KeyEvent.CTRL_DOWN_MASK), FIRST);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_END, KeyEvent.CTRL_DOWN_MASK), LAST);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0), PAGE_UP);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0), PAGE_DOWN);
+
+        ActionMap actionMap = target.getActionMap();
+        for (String name : new String[]{LEFT, RIGHT, UP, DOWN, ROW_START, ROW_END, FIRST, LAST, PAGE_UP, PAGE_DOWN}) {
+            actionMap.put(name, new NavigationAction(target, name));
+        }
+    }
+
+    /**
+     * Returns the layout manager of the <code>container</code>, if it
+     * is a {@link UniformGridLayout}.
+     */
+    private static UniformGridLayout getLayout(Container container) {
+        LayoutManager layout = container.getLayout();
+        return layout instanceof UniformGridLayout ? (UniformGridLayout) layout : null;
+    }
+
+    /**
+     * Returns the index of the cell that contains the
+     * <code>component</code>, which may be a cell of the
+     * <code>container</code> or a descendant of a cell.
+     */
+    private static int getCellIndex(Container container, UniformGridLayout layout, Component component) {
+        if (layout == null) {
+            return -1;
+        }
+        Component cell = component;
+        while (cell != null && cell.getParent() != container) {
+            cell = cell.getParent();
+        }
+        return cell != null ? layout.getCellIndex(cell) : -1;
+    }
+
+    /**
+     * Finds the first cell that accepts the focus or has a focusable
+     * descendant, starting from the <code>index</code> and moving by
+     * the <code>step</code>.
+     *
+     * @param forward whether to take the first focusable descendant of
+     *                the cell rather than the last one
+     *
+     * @return the component to be focused, or <code>null</code>
+     */
+    private static Component findFocusable(UniformGridLayout layout, int index, int step, boolean forward) {
+        int count = layout.getCellCount();
+        for (int i = index; i >= 0 && i < count; i += step) {
+            Component component = findFocusableIn(layout.getCellComponent(i), forward);
+            if (component != null) {
+                return component;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first or the last component that accepts the focus
+     * among the <code>component</code> and its descendants.
+     *
+     * @param forward whether to find the first component rather than
+     *                the last one
+     *
+     * @return the component to be focused, or <code>null</code>
+     */
+    private static Component findFocusableIn(Component component, boolean forward) {
+        if (!component.isVisible() || !component.isDisplayable()) {
+            return null;
+        }
+        if (forward && ACCEPTOR.isAcceptable(component)) {
+            return component;
+        }
+        if (component instanceof Container) {
+            Container container = (Container) component;
+            FocusTraversalPolicy policy = container.getFocusTraversalPolicy();
+            if (container.isFocusCycleRoot()) {
+                Component found = policy != null ? policy.getDefaultComponent(container) : null;
+                if (found != null) {
+                    return found;
+                }
+            } else if (container.isFocusTraversalPolicyProvider() && policy != null) {
+                Component found = forward ? policy.getFirstComponent(container) : policy.getLastComponent(container);
+                if (found != null) {
+                    return found;
+                }
+            } else {
+                Component found = findFocusableAmong(container, forward ? 0 : container.getComponentCount() - 1,
+                        forward);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return !forward && ACCEPTOR.isAcceptable(component) ? component : null;
+    }
+
+    /**
+     * Finds the first or the last component that accepts the focus
+     * among the children of the <code>container</code>, starting from
+     * the child at the <code>index</code>, and their descendants.
+     *
+     * @param forward whether to move to the following children rather
+     *                than to the preceding ones
+     *
+     * @return the component to be focused, or <code>null</code>
+     */
+    private static Component findFocusableAmong(Container container, int index, boolean forward) {
+        int count = container.getComponentCount();
+        for (int i = index; i >= 0 && i < count; i += forward ? 1 : -1) {
+            Component found = findFocusableIn(container.getComponent(i), forward);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the component that accepts the focus after or before the
+     * <code>component</code> within the same cell of the
+     * <code>container</code>. The topmost descendant of the cell that
+     * provides its own focus traversal policy and contains the
+     * <code>component</code> is traversed by that policy.
+     *
+     * @param forward whether to find the following component rather
+     *                than the preceding one
+     *
+     * @return the component to be focused, or <code>null</code> if the
+     *         <code>component</code> is the last or the first one in
+     *         its cell
+     */
+    private static Component findWithinCell(Container container, Component component, boolean forward) {
+        Component current = component;
+        Container provider = null;
+        for (Container parent = component.getParent(); parent != null && parent != container;
+             parent = parent.getParent()) {
+            if (parent.isFocusTraversalPolicyProvider() && parent.getFocusTraversalPolicy() != null) {
+                provider = parent;
+            }
+        }
+        if (provider != null) {
+            FocusTraversalPolicy policy = provider.getFocusTraversalPolicy();
+            Component found = forward ? policy.getComponentAfter(provider, component)
+                    : policy.getComponentBefore(provider, component);
+            if (found != null) {
+                return found;
+            }
+            current = provider;
+        } else if (forward && component instanceof Container && !((Container) component).isFocusCycleRoot()) {
+            // The children of a focused container follow it.
+            Component found = findFocusableAmong((Container) component, 0, true);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        while (current.getParent() != null && current.getParent() != container) {
+            Container parent = current.getParent();
+            int index = getComponentIndex(parent, current);
+            Component found = findFocusableAmong(parent, forward ? index + 1 : index - 1, forward);
+            if (found != null) {
+                return found;
+            }
+            if (!forward && ACCEPTOR.isAcceptable(parent)) {
+                // A focusable container precedes its children.
+                return parent;
+            }
+            current = parent;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of the <code>component</code> within its
+     * <code>parent</code>.
+     */
+    private static int getComponentIndex(Container parent, Component component) {
+        for (int i = parent.getComponentCount() - 1; i >= 0; i--) {
+            if (parent.getComponent(i) == component) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The <code>NavigationAction</code> moves the focus to another cell
+     * of the grid and scrolls that cell into the view.
+     */
+    private static class NavigationAction extends AbstractAction {
+        private static final long serialVersionUID = -2359112760281948416L;
+
+        private final JComponent target;
+        private final String name;
+
+        NavigationAction(JComponent target, String name) {
+            super(name);
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            UniformGridLayout layout = getLayout(target);
+            Component focused = KeyboardFocusManager.getCurrentKeyboardFocusManager().getFocusOwner();
+            int index = getCellIndex(target, layout, focused);
+            if (layout == null || index < 0 || layout.getColumnCount() == 0) {
+                return;
+            }
+
+            // The lines of the cells are the columns of the grid, if the cells flow in the columns.
+            boolean columns = layout.getLayoutOrientation() == JList.VERTICAL_WRAP;
+            if (!layout.isRowMajor()) {
+                focusPlacedCell(layout, index, getPlacedTarget(layout, index, columns), focused);
+                return;
+            }
+            int count = layout.getCellCount();
+            int cols = columns ? layout.getRowCount() : layout.getColumnCount();
+            int rowStart = index - index % cols;
+            int next;
+            int step;
+            switch (columns ? transpose(name) : name) {
+                case LEFT:
+                    next = index - 1;
+                    step = -1;
+                    break;
+                case RIGHT:
+                    next = index + 1;
+                    step = 1;
+                    break;
+                case UP:
+                    next = index - cols;
+                    step = -cols;
+                    break;
+                case DOWN:
+                    next = index + cols;
+                    step = cols;
+                    break;
+                case ROW_START:
+                    next = rowStart;
+                    step = 1;
+                    break;
+                case ROW_END:
+                    next = Math.min(rowStart + cols, count) - 1;
+                    step = -1;
+                    break;
+                case FIRST:
+                    next = 0;
+                    step = 1;
+                    break;
+                case LAST:
+                    next = count - 1;
+                    step = -1;
+                    break;
+                default:
+                    Rectangle visible = target.getVisibleRect();
+                    int extent = columns ? visible.width : visible.height;
+                    int rows = Math.max(extent / getRowHeight(layout, cols, columns), 1);
+                    step = name.equals(PAGE_UP) ? -cols : cols;
+                    next = (int) Math.min(Math.max(index + (long) rows * step, index % cols), count - 1);
+                    break;
+            }
+
+            Component component = next >= 0 && next < count ? findFocusable(layout, next, step, true) : null;
+            moveFocus(component, focused, layout);
+        }
+
+        /**
+         * Returns the cell the focus is moved to from the cell at the
+         * <code>index</code>, if the cells are not placed row by row,
+         * so that the cell is found by the places of the cells.
+         */
+        private int getPlacedTarget(UniformGridLayout layout, int index, boolean columns) {
+            int count = layout.getCellCount();
+            switch (columns ? transpose(name) : name) {
+                case LEFT:
+                    int left = layout.getAdjacentCell(index, -1, 0);
+                    return left >= 0 ? left : index - 1;
+                case RIGHT:
+                    int right = layout.getAdjacentCell(index, 1, 0);
+                    return right >= 0 ? right : index + 1;
+                case UP:
+                    return layout.getAdjacentCell(index, 0, -1);
+                case DOWN:
+                    return layout.getAdjacentCell(index, 0, 1);
+                case ROW_START:
+                    return layout.getLineEdgeCell(index, false);
+                case ROW_END:
+                    return layout.getLineEdgeCell(index, true);
+                case FIRST:
+                    return 0;
+                case LAST:
+                    return count - 1;
+                default:
+                    Rectangle visible = target.getVisibleRect();
+                    int distance = Math.max(columns ? visible.width : visible.height, 1);
+                    return layout.getCellAcross(index, name.equals(PAGE_UP) ? -distance : distance);
+            }
+        }
+
+        /**
+         * Moves the focus from the cell at the <code>index</code> to the
+         * cell at the <code>next</code> index, or to the nearest
+         * focusable cell after it in the order of the indices, if the
+         * cells are not placed row by row.
+         */
+        private void focusPlacedCell(UniformGridLayout layout, int index, int next, Component focused) {
+            if (next < 0 || next >= layout.getCellCount() || next == index) {
+                return;
+            }
+            int step = name.equals(FIRST) ? 1 : name.equals(LAST) || next < index ? -1 : 1;
+            moveFocus(findFocusable(layout, next, step, true), focused, layout);
+        }
+
+        /**
+         * Moves the focus to the <code>component</code>, and scrolls its
+         * cell into the view.
+         */
+        private void moveFocus(Component component, Component focused, UniformGridLayout layout) {
+            if (component == null || component == focused) {
+                return;
+            }
+            int found = getCellIndex(target, layout, component);
+            component.requestFocusInWindow();
+            Rectangle bounds = layout.getCellBounds(found);
+            if (bounds != null) {
+                target.scrollRectToVisible(bounds);
+            }
+        }
+
+        /**
+         * Returns the name of the action which moves the focus in the
+         * same direction along the flow of the cells as the
+         * <code>name</code> action moves it on the screen, if the cells
+         * flow in the columns.
+         */
+        private static String transpose(String name) {
+            switch (name) {
+                case LEFT:
+                    return UP;
+                case RIGHT:
+                    return DOWN;
+                case UP:
+                    return LEFT;
+                case DOWN:
+                    return RIGHT;
+                default:
+                    return name;
+            }
+        }
+
+        /**
+         * Returns the distance between the adjacent lines of the
+         * <code>cols</code> cells: the rows of the grid, or the columns
+         * if the cells flow in the columns.
+         */
+        private static int getRowHeight(UniformGridLayout layout, int cols, boolean columns) {
+            Rectangle first = layout.getCellBounds(0);
+            Rectangle second = layout.getCellBounds(cols);
+            if (second != null) {
+                return Math.max(columns ? second.x - first.x : second.y - first.y, 1);
+            }
+            if (first == null) {
+                return 1;
+            }
+            if (columns) {
+                return Math.max(first.width + Math.max(layout.getHgap(), 0), 1);
+            }
+            return Math.max(first.height + layout.getVgap(), 1);
+        }
+    }
+
+    /**
+     * The <code>Acceptor</code> exposes the check of the
+     * {@link LayoutFocusTraversalPolicy}, which rejects, for example,
+     * the panels that have not been made focusable explicitly.
+     */
+    private static class Acceptor extends LayoutFocusTraversalPolicy {
+        private static final long serialVersionUID = 6027318640915278319L;
+
+        boolean isAcceptable(Component component) {
+            return accept(component);
+        }
+    }
+}
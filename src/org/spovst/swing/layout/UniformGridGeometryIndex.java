@@ -0,0 +1,370 @@
+package org.spovst.swing.layout;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The <code>UniformGridGeometryIndex</code> class keeps the geometry of
+ * a grid model, that is, the preferred sizes, the visibility and the
+ * order of its items, shared by several views of the same model. Each
+ * view is a container managed by the {@link UniformGridLayout}, whose
+ * components correspond to the items of the model by their indices
+ * within the container:
+ * <pre>
+ * UniformGridGeometryIndex index = new UniformGridGeometryIndex();
+ * index.attach(mainGrid);
+ * index.attach(overview);
+ * </pre>
+ * The preferred size of an item is measured once, by the first view
+ * laid out after the item has been added or changed, and the other
+ * views take the measured size from the index instead of measuring
+ * their own components. Each view still applies its own width, gaps,
+ * insets and zoom to the shared sizes.
+ * <p>
+ * The index does not track the model, so the changes of the items
+ * should be reported with the {@link #itemsChanged(int, int)}, the
+ * {@link #itemsInserted(int, int)} and the
+ * {@link #itemsRemoved(int, int)} methods, after the components of all
+ * the views have been updated. The attached views are then laid out
+ * again. Only the changed items are measured again, and the items
+ * appended to the end are measured as the appended components are;
+ * the other changes, as well as hiding the items and changing their
+ * order, make the views take the geometry of all the items from the
+ * index again.
+ * <p>
+ * The index should be accessed on the event dispatch thread.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridGeometryIndex {
+    private final List<Container> views = new ArrayList<Container>();
+    private final BitSet hidden = new BitSet();
+    private int[] widths = new int[0];
+    private int[] heights = new int[0];
+    private int size;
+    private int[] order;
+
+    /**
+     * Makes the layout manager of the <code>target</code> container
+     * take the geometry of the items from this index.
+     * <p>
+     * While the container is attached, the preferred sizes of its
+     * components are taken from the index, so invalidating a component
+     * does not make the view measure it again; the changed items should
+     * be reported with the {@link #itemsChanged(int, int)} method
+     * instead. The sizes measured by another view before the container
+     * has been attached are taken as they are.
+     *
+     * @param target the container that shows the items of the model
+     *
+     * @throws IllegalArgumentException if the <code>target</code> is
+     *                                  not managed by the
+     *                                  {@link UniformGridLayout}
+     *
+     * @see #detach(Container)
+     */
+    public void attach(Container target) {
+        UniformGridLayout layout = getLayout(target);
+        if (layout == null) {
+            throw new IllegalArgumentException("Not a uniform grid: " + target);
+        }
+        if (!views.contains(target)) {
+            views.add(target);
+        }
+        if (order != null && order.length == target.getComponentCount()) {
+            layout.setCellOrder(target, order);
+        }
+        layout.setGeometryIndex(target, this);
+    }
+
+    /**
+     * Makes the layout manager of the <code>target</code> container
+     * measure its components again.
+     *
+     * @param target the container that shows the items of the model
+     */
+    public void detach(Container target) {
+        if (views.remove(target)) {
+            UniformGridLayout layout = getLayout(target);
+            if (layout != null && layout.getGeometryIndex() == this) {
+                layout.setGeometryIndex(target, null);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the item occupies a cell in the views.
+     *
+     * @param item the index of the item
+     *
+     * @return <code>true</code> unless the item has been hidden
+     *
+     * @throws IndexOutOfBoundsException if the <code>item</code> is
+     *                                   negative
+     */
+    public boolean isItemVisible(int item) {
+        checkItem(item);
+        return !hidden.get(item);
+    }
+
+    /**
+     * Sets whether the item occupies a cell in the views. A hidden item
+     * does not occupy a cell, whatever the visibility of its
+     * components is.
+     *
+     * @param item    the index of the item
+     * @param visible <code>false</code> to hide the item
+     *
+     * @throws IndexOutOfBoundsException if the <code>item</code> is
+     *                                   negative
+     */
+    public void setItemVisible(int item, boolean visible) {
+        checkItem(item);
+        if (hidden.get(item) == visible) {
+            hidden.set(item, !visible);
+            fireGeometryChanged();
+        }
+    }
+
+    /**
+     * Gets the order of the items in the views.
+     *
+     * @return a copy of the permutation of the item indices, or
+     *         <code>null</code> if the items are shown in the order of
+     *         their indices
+     *
+     * @see #setOrder(int[])
+     */
+    public int[] getOrder() {
+        return order != null ? order.clone() : null;
+    }
+
+    /**
+     * Sets the order of the items in all the views, as the
+     * {@link UniformGridLayout#setCellOrder(Container, int[])} does
+     * for a single view. The order is forgotten when the items are
+     * inserted or removed; the views then keep their orders in sync
+     * with their components. The views whose layout managers have
+     * been replaced or attached to another index are skipped.
+     *
+     * @param permutation the indices of the items in the order of the
+     *                    cells, or <code>null</code> to show the items
+     *                    in the order of their indices
+     *
+     * @throws IllegalArgumentException if the permutation does not
+     *                                  match the components of a view
+     */
+    public void setOrder(int[] permutation) {
+        order = permutation != null ? permutation.clone() : null;
+        for (Container view : views) {
+            UniformGridLayout layout = getLayout(view);
+            if (layout != null && layout.getGeometryIndex() == this) {
+                layout.setCellOrder(view, order);
+            }
+        }
+    }
+
+    /**
+     * Forgets the measured sizes of the items in the range
+     * [<code>from</code>, <code>to</code>), which have been changed,
+     * and lays out the views again. The views measure only the changed
+     * items, if they occupy the cells of their indices; the cell size
+     * of such a view does not shrink then, even if the largest item
+     * has become smaller.
+     *
+     * @param from the first changed item
+     * @param to   the item after the last changed item
+     *
+     * @throws IllegalArgumentException if the <code>from</code> is
+     *                                  negative or greater than the
+     *                                  <code>to</code>
+     */
+    public void itemsChanged(int from, int to) {
+        if (from < 0 || from > to) {
+            throw new IllegalArgumentException("Invalid changed items: from " + from + ", to " + to);
+        }
+        int end = Math.min(to, size);
+        if (from < end) {
+            Arrays.fill(widths, from, end, -1);
+            Arrays.fill(heights, from, end, -1);
+        }
+        for (Container view : views) {
+            UniformGridLayout layout = getLayout(view);
+            if (layout != null && layout.getGeometryIndex() == this) {
+                layout.itemsChanged(view, from, to);
+            }
+        }
+    }
+
+    /**
+     * Shifts the measured sizes after the <code>length</code> items
+     * have been inserted at the <code>index</code>, and lays out the
+     * views again.
+     *
+     * @param index  the index of the first inserted item
+     * @param length the number of the inserted items
+     *
+     * @throws IllegalArgumentException if the <code>index</code> or
+     *                                  the <code>length</code> is
+     *                                  negative
+     */
+    public void itemsInserted(int index, int length) {
+        if (index < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid inserted items: index " + index + ", length " + length);
+        }
+        if (index < size && length > 0) {
+            ensureCapacity(size + length);
+            System.arraycopy(widths, index, widths, index + length, size - index);
+            System.arraycopy(heights, index, heights, index + length, size - index);
+            Arrays.fill(widths, index, index + length, -1);
+            Arrays.fill(heights, index, index + length, -1);
+            size += length;
+        }
+        for (int i = hidden.previousSetBit(hidden.length() - 1); i >= index && length > 0;
+             i = hidden.previousSetBit(i - 1)) {
+            hidden.clear(i);
+            hidden.set(i + length);
+        }
+        order = null;
+        for (Container view : views) {
+            UniformGridLayout layout = getLayout(view);
+            if (layout != null && layout.getGeometryIndex() == this) {
+                layout.itemsInserted(view, index);
+            }
+        }
+    }
+
+    /**
+     * Shifts the measured sizes after the <code>length</code> items
+     * have been removed from the <code>index</code>, and lays out the
+     * views again.
+     *
+     * @param index  the index of the first removed item
+     * @param length the number of the removed items
+     *
+     * @throws IllegalArgumentException if the <code>index</code> or
+     *                                  the <code>length</code> is
+     *                                  negative
+     */
+    public void itemsRemoved(int index, int length) {
+        if (index < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid removed items: index " + index + ", length " + length);
+        }
+        int end = (int) Math.min((long) index + length, size);
+        if (index < end) {
+            System.arraycopy(widths, end, widths, index, size - end);
+            System.arraycopy(heights, end, heights, index, size - end);
+            size -= end - index;
+            Arrays.fill(widths, size, size + end - index, -1);
+            Arrays.fill(heights, size, size + end - index, -1);
+        }
+        if (length > 0) {
+            for (int i = hidden.nextSetBit(index); i >= 0; i = hidden.nextSetBit(i + 1)) {
+                hidden.clear(i);
+                if (i - index >= length) {
+                    hidden.set(i - length);
+                }
+            }
+        }
+        order = null;
+        fireGeometryChanged();
+    }
+
+    /**
+     * Gets the measured preferred width of the item.
+     *
+     * @param item the index of the item
+     *
+     * @return the width, or <code>-1</code> if the item has not been
+     *         measured
+     */
+    int getWidth(int item) {
+        return item >= 0 && item < size ? widths[item] : -1;
+    }
+
+    /**
+     * Gets the measured preferred height of the item.
+     *
+     * @param item the index of the item
+     *
+     * @return the height, or <code>-1</code> if the item has not been
+     *         measured
+     */
+    int getHeight(int item) {
+        return item >= 0 && item < size ? heights[item] : -1;
+    }
+
+    /**
+     * Remembers the preferred size of the item measured by a view.
+     *
+     * @param item   the index of the item
+     * @param width  the preferred width of the item
+     * @param height the preferred height of the item
+     */
+    void putSize(int item, int width, int height) {
+        if (item < 0) {
+            return;
+        }
+        ensureCapacity(item + 1);
+        widths[item] = width;
+        heights[item] = height;
+        size = Math.max(size, item + 1);
+    }
+
+    /**
+     * Makes sure that the size arrays can hold the specified number of
+     * items, marking the added items as not measured.
+     *
+     * @param capacity the required number of items
+     */
+    private void ensureCapacity(int capacity) {
+        int length = widths.length;
+        if (length < capacity) {
+            int newLength = Math.max(capacity, length + (length >> 1));
+            widths = Arrays.copyOf(widths, newLength);
+            heights = Arrays.copyOf(heights, newLength);
+            Arrays.fill(widths, length, newLength, -1);
+            Arrays.fill(heights, length, newLength, -1);
+        }
+    }
+
+    /**
+     * Checks that the <code>item</code> is a valid item index.
+     *
+     * @param item the index of the item
+     *
+     * @throws IndexOutOfBoundsException if the <code>item</code> is
+     *                                   negative
+     */
+    private static void checkItem(int item) {
+        if (item < 0) {
+            throw new IndexOutOfBoundsException("Item index: " + item);
+        }
+    }
+
+    /**
+     * Makes the attached views which still take the geometry from this
+     * index take the geometry of the items again.
+     */
+    private void fireGeometryChanged() {
+        for (Container view : views) {
+            UniformGridLayout layout = getLayout(view);
+            if (layout != null && layout.getGeometryIndex() == this) {
+                layout.setGeometryIndex(view, this);
+            }
+        }
+    }
+
+    /**
+     * Returns the layout manager of the <code>container</code>, if it
+     * is a {@link UniformGridLayout}.
+     */
+    private static UniformGridLayout getLayout(Container container) {
+        LayoutManager layout = container.getLayout();
+        return layout instanceof UniformGridLayout ? (UniformGridLayout) layout : null;
+    }
+}
@@ -1,8 +1,31 @@
 package org.spovst.swing.layout;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The <code>UniformGridLayout</code> class is a layout manager that
@@ -23,7 +46,12 @@ import java.io.Serializable;
  * leading and trailing components and the container borders (taking
  * into account the insets), is the same.
  * <p>
- * The vertical gap is fixed and never calculated automatically.
+ * The vertical gap is fixed and never calculated automatically,
+ * unless the cells flow in the columns (see
+ * {@link #setLayoutOrientation(int)}). In that orientation, the grid
+ * wraps the cells based on the container height and grows to the
+ * right, and the roles of the gaps are swapped: the vertical gap may
+ * be dynamic, and the horizontal gap is fixed.
  * <p>
  * A <code>UniformGridLayout</code> always considers only the
  * preferred size of the components.
@@ -36,6 +64,79 @@ import java.io.Serializable;
  * automatically place the components so that they do not occupy more
  * space than allowed by the container width (this behavior is one of
  * the main purposes of using the <code>UniformGridLayout</code>).
+ * <p>
+ * The layout manager remembers the cells it has laid out. When the
+ * cell size, the number of columns, the gaps and the insets are the
+ * same as in the previous layout pass, only the cells starting from
+ * the first changed one (for example, an inserted, removed, hidden or
+ * resized component) are reshaped.
+ * <p>
+ * If the viewport windowing is enabled (see
+ * {@link #setViewportWindowing(boolean)}), only the cells inside the
+ * visible part of the container are reshaped; the other components
+ * are collapsed to the zero size and are laid out when they are
+ * scrolled into the view.
+ * <p>
+ * If the fast append is enabled (see {@link #setFastAppend(boolean)}),
+ * components appended to the end of the container are measured and
+ * laid out without measuring and reshaping the existing ones, as long
+ * as they fit into the current cell size and the grid is already as
+ * wide as the container allows.
+ * <p>
+ * If the virtual coordinates are enabled (see
+ * {@link #setVirtualCoordinates(boolean)}), the grid positions are
+ * calculated in <code>long</code> and mapped into the bounded height
+ * of the container, so the grid may be taller than
+ * {@link Integer#MAX_VALUE} pixels.
+ * <p>
+ * The preferred sizes of the components could be saved to a snapshot
+ * file (see {@link #saveSnapshot(Container, Path)}) and loaded on the
+ * next start (see {@link #loadSnapshot(Path)}), so that the first
+ * layout pass does not have to measure the components.
+ * <p>
+ * If the targeted repaint is enabled (see
+ * {@link #setTargetedRepaint(boolean)}), a layout pass requests the
+ * repaint of the rows of the container in which the cells have
+ * actually been moved.
+ * <p>
+ * The cells could be filtered (see
+ * {@link #setCellFilter(Container, CellFilter)}) without hiding the
+ * components: the components rejected by the filter keep their
+ * visibility, but do not occupy the cells. Likewise, the cells could
+ * be sorted (see {@link #setCellComparator(Container, Comparator)})
+ * without reordering the components within the container.
+ * <p>
+ * A component added with the {@link GridSpan} constraints occupies
+ * several adjacent cells of the grid. The cells are then packed
+ * densely: each cell takes the first place where it fits, so the
+ * single cells fill the gaps left by the spanned ones.
+ * <p>
+ * In the masonry mode (see {@link #setMasonry(boolean)}), the cells
+ * keep the uniform column width, but not the uniform row height: each
+ * cell is stacked onto the shortest column, using its own preferred
+ * height.
+ * <p>
+ * The preferred sizes of the components could be scaled by a zoom
+ * factor (see {@link #setZoom(Container, double, boolean)}). The
+ * preferred sizes are measured once and scaled by the layout manager,
+ * so changing the zoom does not measure the components again, and the
+ * scaled sizes of the recently used zoom levels are kept.
+ * <p>
+ * Several views of the same items could share the preferred sizes,
+ * the visibility and the order of the items (see
+ * {@link UniformGridGeometryIndex}), so that each item is measured
+ * once rather than once per view.
+ * <p>
+ * If the transitions are enabled (see
+ * {@link #setTransitionDuration(int)}), the visible cells move from
+ * their previous places to the new ones when the grid geometry is
+ * changed, for example, when the number of the columns is changed.
+ * <p>
+ * The cells that slow the layout passes down could be found with the
+ * {@link UniformGridProfiler} (see
+ * {@link #setProfiler(UniformGridProfiler)}), and the calculations
+ * and the layout passes are recorded by the Java Flight Recorder, if it
+ * is available (see {@link UniformGridEvents}).
  *
  * @author Sergey Povstyanov
  * @version 1.0
@@ -52,6 +153,106 @@ public class UniformGridLayout implements LayoutManager2, Serializable {
      */
     public static final int DYNAMIC_HGAP = -1;
 
+    /**
+     * This value indicates that the vertical gap should be calculated
+     * by the layout manager automatically, if the cells flow in the
+     * columns.
+     *
+     * @see #setLayoutOrientation(int)
+     */
+    public static final int DYNAMIC_VGAP = -1;
+
+    /**
+     * The maximum preferred height of the container when the virtual
+     * coordinates are enabled. The coordinates up to this value are
+     * represented exactly even in <code>float</code>, which is used
+     * by some of the rendering pipelines.
+     *
+     * @see #setVirtualCoordinates(boolean)
+     */
+    public static final int VIRTUAL_HEIGHT_LIMIT = 1 << 24;
+
+    /**
+     * The first four bytes of a snapshot file: "UGLS".
+     */
+    private static final int SNAPSHOT_MAGIC = 0x55474C53;
+
+    /**
+     * The version of the snapshot file format.
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * The size of the snapshot file header in bytes: the magic, the
+     * version, the number of the components, and the cell size.
+     */
+    private static final int SNAPSHOT_HEADER_SIZE = 5 * 4;
+
+    /**
+     * The maximum number of the zoom levels whose scaled cell sizes
+     * are kept.
+     */
+    private static final int MAX_ZOOM_LEVELS = 4;
+
+    /**
+     * The profiled preferred size of a cell whose component has already
+     * been reported as of inconsistent preferred size.
+     */
+    private static final long INCONSISTENT_SIZE = Long.MIN_VALUE;
+
+    /**
+     * The delay between the frames of the transitions, in
+     * milliseconds.
+     */
+    private static final int TRANSITION_FRAME_DELAY = 15;
+
+    /**
+     * The time the transitions may spend on the event dispatch thread
+     * per frame, in nanoseconds.
+     */
+    private static final long TRANSITION_FRAME_BUDGET = 8000000L;
+
+    /**
+     * The transitions in progress, shared by all the layout managers.
+     */
+    private static final List<UniformGridLayout.Transition> transitions =
+            new ArrayList<UniformGridLayout.Transition>();
+
+    /**
+     * The timer that drives all the {@link #transitions}, or
+     * <code>null</code> if there are no transitions in progress.
+     */
+    private static Timer transitionTimer;
+
+    /**
+     * Whether the Java Flight Recorder is available, so that the events
+     * of the layout manager could be recorded.
+     *
+     * @see UniformGridEvents
+     */
+    static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+
+    /**
+     * The <code>CellFilter</code> decides which of the visible
+     * components of the container occupy the grid cells.
+     *
+     * @see #setCellFilter(Container, CellFilter)
+     */
+    public interface CellFilter {
+        /**
+         * Checks whether the <code>component</code> should occupy a
+         * grid cell. The method is called on the event dispatch
+         * thread during the layout, so it may read the state of the
+         * component, but it should not change the components of the
+         * container.
+         *
+         * @param component the visible component of the container
+         *
+         * @return <code>true</code> to show the component in the grid
+         */
+        boolean include(Component component);
+    }
+
     /**
      * The horizontal gap will specify the space between the grid
      * columns.
@@ -103,6 +304,263 @@ public class UniformGridLayout implements LayoutManager2, Serializable {
      */
     protected transient GridMetrics gridMetrics;
 
+    /**
+     * The insets along the flow of the cells: the same as the
+     * {@link #insets}, or the transposed ones if the cells flow in the
+     * columns.
+     */
+    private transient Insets flowInsets;
+
+    /**
+     * Whether only the cells inside the visible part of the
+     * container are laid out.
+     *
+     * @serial
+     * @see #isViewportWindowing()
+     * @see #setViewportWindowing(boolean)
+     */
+    protected boolean viewportWindowing;
+
+    /**
+     * Whether the components appended to the end of the container are
+     * laid out without measuring the existing components again.
+     *
+     * @serial
+     * @see #isFastAppend()
+     * @see #setFastAppend(boolean)
+     */
+    protected boolean fastAppend;
+
+    /**
+     * The maximum number of the components in the live feed, or zero
+     * if the live feed mode is disabled.
+     *
+     * @serial
+     * @see #getFeedCapacity()
+     * @see #setFeedCapacity(int)
+     */
+    protected int feedCapacity;
+
+    /**
+     * The index of the oldest component of the live feed within the
+     * container, which is replaced by the next fed component once the
+     * feed is full.
+     *
+     * @serial
+     * @see #feed(Container, Component)
+     */
+    protected int feedHead;
+
+    /**
+     * The time in milliseconds the progressive layout may spend on
+     * the event dispatch thread per tick, or zero if the progressive
+     * mode is disabled.
+     *
+     * @serial
+     * @see #getProgressiveBudget()
+     * @see #setProgressiveBudget(int)
+     */
+    protected int progressiveBudget;
+
+    /**
+     * Whether the grid positions are mapped into the bounded height
+     * of the container.
+     *
+     * @serial
+     * @see #isVirtualCoordinates()
+     * @see #setVirtualCoordinates(boolean)
+     */
+    protected boolean virtualCoordinates;
+
+    /**
+     * Whether a layout pass requests the repaint of the rows in which
+     * the cells have been moved.
+     *
+     * @serial
+     * @see #isTargetedRepaint()
+     * @see #setTargetedRepaint(boolean)
+     */
+    protected boolean targetedRepaint;
+
+    /**
+     * The spans of the components that occupy more than one cell. The
+     * spans are not serialized, like the components of the container
+     * are not serialized with the layout manager.
+     *
+     * @see #addLayoutComponent(Component, Object)
+     * @see #getSpan(Component)
+     */
+    protected transient Map<Component, GridSpan> spans;
+
+    /**
+     * Whether each cell is stacked onto the shortest column, using its
+     * own preferred height.
+     *
+     * @serial
+     * @see #isMasonry()
+     * @see #setMasonry(boolean)
+     */
+    protected boolean masonry;
+
+    /**
+     * Whether the cells flow in the columns, wrapping based on the
+     * container height, rather than in the rows.
+     *
+     * @serial
+     * @see #getLayoutOrientation()
+     * @see #setLayoutOrientation(int)
+     */
+    protected boolean verticalWrap;
+
+    /**
+     * The scale factor of the preferred sizes of the components.
+     *
+     * @serial
+     * @see #getZoom()
+     * @see #setZoom(Container, double, boolean)
+     */
+    protected double zoom;
+
+    /**
+     * The duration of the transition of the cells to their new places,
+     * in milliseconds, or zero if the transitions are disabled.
+     *
+     * @serial
+     * @see #getTransitionDuration()
+     * @see #setTransitionDuration(int)
+     */
+    protected int transitionDuration;
+
+    /**
+     * The zoom factor which is being adjusted, or zero.
+     */
+    private transient double interimZoom;
+
+    /**
+     * The cells and the grid geometry as they have been laid out by
+     * the last {@link #layoutContainer(Container)} call.
+     *
+     * @see org.spovst.swing.layout.UniformGridLayout.LayoutState
+     */
+    protected transient LayoutState layoutState;
+
+    /**
+     * The spare instance of the layout state that is filled by the
+     * next layout pass and then swapped with the
+     * {@link #layoutState}.
+     */
+    private transient LayoutState nextLayoutState;
+
+    /**
+     * The time the calculation of the grid metrics has taken within
+     * the last timed layout pass, in nanoseconds.
+     *
+     * @see #layOut(Container, boolean)
+     */
+    transient long metricsDuration;
+
+    /**
+     * The listener that lays out the cells which are scrolled into
+     * the view when the viewport windowing is enabled.
+     */
+    private transient ViewportTracker viewportTracker;
+
+    /**
+     * Whether the components have been added or removed since the
+     * last layout pass, so that the cells of the {@link #layoutState}
+     * must not be laid out on scrolling, nor by the progressive task.
+     */
+    private transient boolean windowStale;
+
+    /**
+     * Whether a component of the live feed is being replaced, so that
+     * the removal and the addition do not make the following layout
+     * pass check the measured components.
+     *
+     * @see #feed(Container, Component)
+     */
+    private transient boolean feeding;
+
+    /**
+     * The task that lays out the rest of the cells in the progressive
+     * mode, or <code>null</code> if there is no such task.
+     */
+    private transient ProgressiveTask progressiveTask;
+
+    /**
+     * The transition of the cells in progress, or <code>null</code>.
+     */
+    private transient Transition transition;
+
+    /**
+     * The task that checks the preferred sizes loaded from a snapshot
+     * against the actual ones, or <code>null</code> if there is no
+     * such task.
+     */
+    private transient Runnable snapshotVerifier;
+
+    /**
+     * The shared geometry of the items, or <code>null</code>.
+     */
+    private transient UniformGridGeometryIndex geometryIndex;
+
+    /**
+     * The profiler of the layout passes, or <code>null</code>.
+     */
+    private transient UniformGridProfiler profiler;
+
+    /**
+     * The container whose grid metrics have been calculated in advance
+     * by the {@link UniformGridCoordinator}, so the layout pass should
+     * not calculate them again, or <code>null</code>.
+     */
+    private transient Container preparedTarget;
+
+    /**
+     * The bounds of the cells moved by the current layout pass, if the
+     * targeted repaint is enabled.
+     */
+    private transient RepaintBands repaintBands;
+
+    /**
+     * The indices of the cells of the {@link #layoutState}, keyed by
+     * their components. Only the entries of the first
+     * {@link #indexedCells} cells are known to be up to date.
+     */
+    private transient Map<Component, Integer> cellIndices;
+
+    /**
+     * The number of the leading cells whose indices are up to date in
+     * the {@link #cellIndices}.
+     */
+    private transient int indexedCells;
+
+    /**
+     * The cell indices of the container components, by the component
+     * indices, or <code>null</code> if they are not known for the last
+     * layout pass.
+     *
+     * @see #convertIndexToView(Container, int)
+     */
+    private transient int[] modelToView;
+
+    /**
+     * The component indices of the cells, or <code>null</code> if they
+     * are not known for the last layout pass.
+     *
+     * @see #convertIndexToModel(Container, int)
+     */
+    private transient int[] viewToModel;
+
+    /**
+     * The first and the last cells reshaped out of their places by the
+     * move preview, or <code>-1</code> if there is no preview.
+     *
+     * @see #previewMove(Container, int, int)
+     */
+    private transient int previewLow = -1;
+    private transient int previewHigh = -1;
+
     /**
      * Creates a <code>UniformGridLayout</code> manager with the
      * dynamic horizontal gap, zero vertical gap, and zero insets.
@@ -251,7 +709,39 @@ public class UniformGridLayout implements LayoutManager2, Serializable {
         this.hgap = hgap;
         this.vgap = vgap;
         this.insets = new Insets(top, left, bottom, right);
-        this.gridMetrics = new GridMetrics();
+        this.zoom = 1;
+        initTransientState();
+    }
+
+    /**
+     * Creates the cached state, which is not serialized.
+     */
+    private void initTransientState() {
+        spans = new HashMap<Component, GridSpan>();
+        gridMetrics = new GridMetrics();
+        gridMetrics.spans = spans;
+        layoutState = new LayoutState();
+        nextLayoutState = new LayoutState();
+        previewLow = -1;
+        previewHigh = -1;
+    }
+
+    /**
+     * Reads the serialized fields and creates the cached state.
+     *
+     * @param in the stream to read the object from
+     *
+     * @throws IOException            if an I/O error occurs
+     * @throws ClassNotFoundException if the class of a serialized
+     *                                object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!(zoom > 0)) {
+            // The zoom has not been serialized by the earlier versions.
+            zoom = 1;
+        }
+        initTransientState();
     }
 
     /**
@@ -352,423 +842,5852 @@ public class UniformGridLayout implements LayoutManager2, Serializable {
     }
 
     /**
-     * Determines the minimum size of the <code>target</code>
-     * container using this <code>UniformGridLayout</code> manager.
+     * Returns whether only the cells inside the visible part of the
+     * container are laid out.
+     *
+     * @return <code>true</code> if the viewport windowing is enabled
+     *
+     * @see #setViewportWindowing(boolean)
+     */
+    public boolean isViewportWindowing() {
+        return viewportWindowing;
+    }
+
+    /**
+     * Sets whether only the cells inside the visible part of the
+     * container are laid out. The visible part is extended by one row
+     * above and below to reduce flickering while scrolling.
      * <p>
-     * The minimum width of the <code>target</code> container must
-     * accommodate one column of the grid, plus the left and the
-     * right insets.
+     * When the viewport windowing is enabled, the components outside
+     * the visible part are collapsed to the zero size, so they are
+     * neither painted nor receive mouse events. If the container is
+     * placed within a {@link JViewport}, either as its view or inside
+     * it, for example, wrapped into a {@link JLayer}, the cells that
+     * are scrolled into the view are laid out immediately, without
+     * revalidation of the container.
      * <p>
-     * The minimum height of the <code>target</code> container must
-     * accommodate as many rows as there are components in the
-     * <code>target</code> container, plus the top and the bottom
-     * insets, and plus the vertical gap value between all rows of
-     * the grid.
+     * The viewport windowing has no effect while any of the cells has
+     * a span (see {@link GridSpan}).
      *
-     * @param target the container in which to do the layout
+     * @param viewportWindowing <code>true</code> to lay out only the
+     *                          visible cells
      *
-     * @return the minimum size of the <code>target</code> container
+     * @see #isViewportWindowing()
+     */
+    public void setViewportWindowing(boolean viewportWindowing) {
+        this.viewportWindowing = viewportWindowing;
+    }
+
+    /**
+     * Returns whether the components appended to the end of the
+     * container are laid out without measuring the existing
+     * components again.
      *
-     * @see #maximumLayoutSize(Container)
-     * @see #preferredLayoutSize(Container)
+     * @return <code>true</code> if the fast append is enabled
+     *
+     * @see #setFastAppend(boolean)
      */
-    @Override
-    public Dimension minimumLayoutSize(Container target) {
-        synchronized (target.getTreeLock()) {
-            gridMetrics.calculate(target, insets, hgap);
-            int width = insets.left
-                    + gridMetrics.leadingHgap
-                    + gridMetrics.cellSize.width
-                    + gridMetrics.trailingHgap
-                    + insets.right;
-            int height = insets.top
-                    + ((gridMetrics.cellSize.height + vgap) * gridMetrics.componentsCount - vgap)
-                    + insets.bottom;
-            return new Dimension(width, height);
-        }
+    public boolean isFastAppend() {
+        return fastAppend;
     }
 
     /**
-     * Determines the maximum size of the <code>parent</code>
-     * container using this <code>UniformGridLayout</code> manager.
+     * Sets whether the components appended to the end of the
+     * container are laid out without measuring the existing
+     * components again.
      * <p>
-     * The <code>UniformGridLayout</code> in its maximum
-     * configuration seeks to occupy any dimension.
+     * When the fast append is enabled, the cached preferred sizes of
+     * the already measured components are reused as long as those
+     * components are still valid, visible and are kept in the same
+     * order. Note that {@link Component#setPreferredSize(Dimension)}
+     * does not invalidate the component, so a component whose
+     * preferred size is changed this way should be revalidated
+     * itself, not only its container.
+     * <p>
+     * An appended component is laid out without the full calculation
+     * of the grid metrics, if its preferred size fits into the current
+     * cell size, the width of the container has not been changed,
+     * and the number of the grid columns is already limited by the
+     * container width rather than by the number of components.
+     * Otherwise, the full layout pass is performed.
+     * <p>
+     * The already measured components are checked one by one only
+     * after the container has been notified of a change other than an
+     * append, such as a removal, hiding a component, or an
+     * invalidation of the valid container. A component invalidated or
+     * moved with {@link Container#setComponentZOrder(Component, int)}
+     * while the container is already invalid, for example between an
+     * append and the following layout pass, does not notify the
+     * container, so the container should then be invalidated with
+     * {@link Container#invalidate()} explicitly, after it has been
+     * revalidated for the appended components.
      *
-     * @param target the container in which to do the layout
+     * @param fastAppend <code>true</code> to enable the fast append
      *
-     * @return the maximum size of the <code>target</code> container
+     * @see #isFastAppend()
+     */
+    public void setFastAppend(boolean fastAppend) {
+        this.fastAppend = fastAppend;
+    }
+
+    /**
+     * Gets the time in milliseconds the progressive layout may spend
+     * on the event dispatch thread per tick.
      *
-     * @see #minimumLayoutSize(Container)
-     * @see #preferredLayoutSize(Container)
+     * @return the time budget per tick, or zero if the progressive
+     *         mode is disabled
+     *
+     * @see #setProgressiveBudget(int)
      */
-    @Override
-    public Dimension maximumLayoutSize(Container target) {
-        return new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    public int getProgressiveBudget() {
+        return progressiveBudget;
     }
 
     /**
-     * Determines the preferred size of the <code>target</code>
-     * container using this <code>UniformGridLayout</code> manager.
+     * Sets the time in milliseconds the progressive layout may spend
+     * on the event dispatch thread per tick.
      * <p>
-     * The preferred width of the <code>target</code> container will
-     * never exceeds its current width. In this width, the
-     * <code>UniformGridLayout</code> manager will try to place the
-     * maximum number of the grid cells, taking into account the left
-     * and the right insets and the horizontal gap between the
-     * columns of the grid. Thus, the row of the grid is formed.
+     * In the progressive mode, the layout pass reshapes only the
+     * changed cells inside the visible part of the container, and
+     * the rest of the changed cells are reshaped in chunks by the
+     * tasks posted to the event dispatch thread, each running for
+     * about the specified time. The cells that are scrolled into the
+     * view are laid out immediately. Until a cell is reached, its
+     * component keeps the previous bounds, except that the components
+     * which would obscure the visible cells are collapsed to the zero
+     * size.
      * <p>
-     * The preferred height of the <code>target</code> container
-     * should be sufficient to accommodate as many rows of the
-     * preferred width as possible so that all the components of the
-     * <code>target</code> container are placed, taking into account
-     * the top and the bottom insets and the vertical gap between the
-     * rows of the grid.
+     * The progressive mode has no effect if the viewport windowing is
+     * enabled, or if any of the cells has a span.
      *
-     * @param target the container in which to do the layout
+     * @param progressiveBudget the time budget per tick, or zero to
+     *                          disable the progressive mode
      *
-     * @return the preferred size of the <code>target</code>
-     *         container
+     * @see #getProgressiveBudget()
+     */
+    public void setProgressiveBudget(int progressiveBudget) {
+        this.progressiveBudget = Math.max(progressiveBudget, 0);
+    }
+
+    /**
+     * Returns whether the grid positions are mapped into the bounded
+     * height of the container.
      *
-     * @see #minimumLayoutSize(Container)
-     * @see #maximumLayoutSize(Container)
+     * @return <code>true</code> if the virtual coordinates are enabled
+     *
+     * @see #setVirtualCoordinates(boolean)
      */
-    @Override
-    public Dimension preferredLayoutSize(Container target) {
-        synchronized (target.getTreeLock()) {
-            gridMetrics.calculate(target, insets, hgap);
+    public boolean isVirtualCoordinates() {
+        return virtualCoordinates;
+    }
 
-            int width = insets.left + gridMetrics.leadingHgap
-                    + ((gridMetrics.cellSize.width + gridMetrics.innerHgap) * gridMetrics.cols - gridMetrics.innerHgap)
-                    + gridMetrics.trailingHgap + insets.right;
-            int height = insets.top
-                    + ((gridMetrics.cellSize.height + vgap) * gridMetrics.rows - vgap)
-                    + insets.bottom;
+    /**
+     * Sets whether the grid positions are mapped into the bounded
+     * height of the container.
+     * <p>
+     * When the virtual coordinates are enabled, the preferred height
+     * of the container does not exceed the
+     * {@link #VIRTUAL_HEIGHT_LIMIT}, while the grid itself may be
+     * taller. If the container is not tall enough to hold the whole
+     * grid, the visible part of the container shows the part of the
+     * grid that is at the same relative position, so the scroll bar
+     * covers the whole grid. Scrolling by less than the visible height
+     * moves the grid by about the same distance, closing the gap to
+     * the relative position in proportion to the distance left to
+     * scroll, so every part of the grid can be reached by small scrolls
+     * as well. The top and the bottom of the container always show the
+     * top and the bottom of the grid.
+     * <p>
+     * Since the components can only be placed within the container,
+     * the virtual coordinates imply the viewport windowing (see
+     * {@link #setViewportWindowing(boolean)}).
+     *
+     * @param virtualCoordinates <code>true</code> to enable the
+     *                           virtual coordinates
+     *
+     * @see #isVirtualCoordinates()
+     */
+    public void setVirtualCoordinates(boolean virtualCoordinates) {
+        this.virtualCoordinates = virtualCoordinates;
+    }
 
-            // Special handling of JScrollPane as target:
-            Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, target);
-            if (scrollPane != null && target.isValid()) {
-                width -= 1;
-            }
+    /**
+     * Returns whether a layout pass requests the repaint of the rows
+     * in which the cells have been moved.
+     *
+     * @return <code>true</code> if the targeted repaint is enabled
+     *
+     * @see #setTargetedRepaint(boolean)
+     */
+    public boolean isTargetedRepaint() {
+        return targetedRepaint;
+    }
 
-            return new Dimension(width, height);
-        }
+    /**
+     * Sets whether a layout pass requests the repaint of the rows in
+     * which the cells have been moved.
+     * <p>
+     * When a lightweight component is moved, Swing repaints its old
+     * and new bounds, but the repaint manager merges all the requests
+     * for the container into a single rectangle, so a few cells moved
+     * in distant rows cause the repaint of all the rows between them.
+     * When the targeted repaint is enabled, the layout manager collects
+     * the old and new bounds of the moved cells, merges them into
+     * horizontal bands, and requests the repaint of each band inside
+     * the visible part of the container, so that the gaps between the
+     * moved cells of a band are repainted too. The requests are
+     * coalesced by the repaint manager like any other ones.
+     * <p>
+     * The bands are not collected if the container has been marked
+     * for repainting before the layout pass; the usual repaint is
+     * done then.
+     *
+     * @param targetedRepaint <code>true</code> to enable the targeted
+     *                        repaint
+     *
+     * @see #isTargetedRepaint()
+     */
+    public void setTargetedRepaint(boolean targetedRepaint) {
+        this.targetedRepaint = targetedRepaint;
     }
 
     /**
-     * Returns the alignment along the x axis. This specifies how
-     * the component would like to be aligned relative to other
-     * components. The value should be a number between 0 and 1
-     * where 0 represents alignment along the origin, 1 is aligned
-     * the furthest away from the origin, 0.5 is centered, etc.
+     * Returns whether each cell is stacked onto the shortest column,
+     * using its own preferred height.
      *
-     * @param target the container in which to do the layout
+     * @return <code>true</code> if the masonry mode is enabled
      *
-     * @return the value <code>0.5f</code> to indicate centered
+     * @see #setMasonry(boolean)
      */
-    @Override
-    public float getLayoutAlignmentX(Container target) {
-        return 0.5f;
+    public boolean isMasonry() {
+        return masonry;
     }
 
     /**
-     * Returns the alignment along the y axis. This specifies how
-     * the component would like to be aligned relative to other
-     * components. The value should be a number between 0 and 1
-     * where 0 represents alignment along the origin, 1 is aligned
-     * the furthest away from the origin, 0.5 is centered, etc.
+     * Sets whether each cell is stacked onto the shortest column,
+     * using its own preferred height.
+     * <p>
+     * In the masonry mode, the number of the grid columns, their
+     * width and the horizontal gaps are calculated as usual, but the
+     * cells are not aligned into the rows. Instead, the cells are
+     * taken in order, and each of them is placed below the column
+     * which is currently the shortest one, the vertical gap apart.
+     * The heights of the columns are kept in a binary heap, so placing
+     * a cell takes logarithmic time in the number of the columns.
+     * <p>
+     * The masonry cells are placed incrementally: the appended cells
+     * are stacked onto the columns without moving the existing ones,
+     * and when the number of the columns is changed, the cells are
+     * placed again using their measured heights, without measuring
+     * the components. The cached heights are used as long as the
+     * components are valid, just as in the fast append mode (see
+     * {@link #setFastAppend(boolean)}).
+     * <p>
+     * The spans of the cells (see {@link GridSpan}) are ignored in the
+     * masonry mode, and the viewport windowing and the progressive
+     * mode have no effect.
      *
-     * @param target the container in which to do the layout
+     * @param masonry <code>true</code> to enable the masonry mode
      *
-     * @return the value <code>0.5f</code> to indicate centered
+     * @see #isMasonry()
      */
-    @Override
-    public float getLayoutAlignmentY(Container target) {
-        return 0.5f;
+    public void setMasonry(boolean masonry) {
+        this.masonry = masonry;
     }
 
     /**
-     * Has no effect, since this layout manager does not use a
-     * per-component string.
+     * Gets the orientation of the cell flow.
      *
-     * @param name ignored
-     * @param comp ignored
+     * @return {@link JList#HORIZONTAL_WRAP} if the cells flow in the
+     *         rows, or {@link JList#VERTICAL_WRAP} if the cells flow in
+     *         the columns
+     *
+     * @see #setLayoutOrientation(int)
      */
-    @Override
-    public void addLayoutComponent(String name, Component comp) {
-        // Do nothing.
+    public int getLayoutOrientation() {
+        return verticalWrap ? JList.VERTICAL_WRAP : JList.HORIZONTAL_WRAP;
     }
 
     /**
-     * Has no effect, since this layout manager does not store
-     * currently presented components.
+     * Sets the orientation of the cell flow, the same way the
+     * {@link JList#setLayoutOrientation(int)} does.
+     * <p>
+     * By default, the cells flow in the rows: the number of the
+     * columns is determined by the container width, and the grid grows
+     * down. If the orientation is {@link JList#VERTICAL_WRAP}, the
+     * cells flow in the columns, as in a filmstrip: the number of the
+     * rows is determined by the container height, and the grid grows
+     * to the right, so the container should be scrolled horizontally.
+     * The vertical gap is then calculated dynamically if it is
+     * negative (see {@link #DYNAMIC_VGAP}), in the same way as the
+     * dynamic horizontal gap is calculated for the rows, and a
+     * negative horizontal gap is treated as zero.
+     * <p>
+     * The calculations of the grid are the same in both orientations,
+     * with the width and the height swapped, so all the other modes,
+     * including the viewport windowing and the virtual coordinates,
+     * work along the horizontal axis in the
+     * {@link JList#VERTICAL_WRAP} orientation.
+     *
+     * @param layoutOrientation {@link JList#HORIZONTAL_WRAP} or
+     *                          {@link JList#VERTICAL_WRAP}
      *
-     * @param comp        ignored
-     * @param constraints ignored
+     * @throws IllegalArgumentException if the orientation is not one
+     *                                  of the allowed values
+     *
+     * @see #getLayoutOrientation()
      */
-    @Override
-    public void addLayoutComponent(Component comp, Object constraints) {
-        // Do nothing.
+    public void setLayoutOrientation(int layoutOrientation) {
+        if (layoutOrientation != JList.HORIZONTAL_WRAP && layoutOrientation != JList.VERTICAL_WRAP) {
+            throw new IllegalArgumentException("Illegal layout orientation: " + layoutOrientation);
+        }
+        this.verticalWrap = layoutOrientation == JList.VERTICAL_WRAP;
     }
 
     /**
-     * Has no effect, since this layout manager does not store
-     * currently presented components.
+     * Gets the scale factor of the preferred sizes of the components.
      *
-     * @param comp ignored
+     * @return the zoom factor
+     *
+     * @see #setZoom(Container, double, boolean)
      */
-    @Override
-    public void removeLayoutComponent(Component comp) {
-        // Do nothing.
+    public double getZoom() {
+        return zoom;
     }
 
     /**
-     * Lays out the container. This method lets each <i>visible</i>
-     * component take its preferred size by reshaping the components
-     * in the target container in order to satisfy the insets and
-     * gaps of this <code>UniformGridLayout</code> object.
+     * Gets the zoom factor which is shown while the zoom is being
+     * adjusted.
      *
-     * @param target the container in which to do the layout
+     * @return the adjusted zoom factor, or the {@link #getZoom()} if
+     *         the zoom is not being adjusted
+     *
+     * @see UniformGridZoomUI
      */
-    @Override
-    public void layoutContainer(Container target) {
+    public double getInterimZoom() {
+        return interimZoom > 0 ? interimZoom : zoom;
+    }
+
+    /**
+     * Sets the scale factor of the preferred sizes of the components
+     * of the <code>target</code> container. The cells are laid out as
+     * if the preferred sizes of the components were multiplied by the
+     * zoom factor, so the components should paint themselves to fit
+     * their bounds, as the thumbnails do.
+     * <p>
+     * While the zoom is being <code>adjusting</code>, for example, by a
+     * slider which is dragged, the container is not laid out; it is
+     * only repainted, so that the {@link UniformGridZoomUI} could
+     * paint the current cells scaled to the adjusted zoom. The layout
+     * pass is requested once the zoom is set with the
+     * <code>adjusting</code> flag cleared.
+     * <p>
+     * The layout pass that follows the zoom change does not measure the
+     * components, provided that they are the same and still valid:
+     * the measured preferred sizes are scaled instead. The scaled sizes
+     * of a few recently used zoom levels are kept, so returning to one
+     * of them does not even scale the sizes.
+     *
+     * @param target    the container in which to do the layout
+     * @param zoom      the zoom factor
+     * @param adjusting <code>true</code> if the zoom is still being
+     *                  adjusted
+     *
+     * @throws IllegalArgumentException if the zoom factor is not a
+     *                                  positive number
+     *
+     * @see #getZoom()
+     */
+    public void setZoom(Container target, double zoom, boolean adjusting) {
+        if (!(zoom > 0) || Double.isInfinite(zoom)) {
+            throw new IllegalArgumentException("Illegal zoom: " + zoom);
+        }
+        boolean changed;
         synchronized (target.getTreeLock()) {
-            gridMetrics.calculate(target, insets, hgap);
-
-            int x = insets.left + gridMetrics.leadingHgap; // Current x coordinate.
-            int y = insets.top; // Current y coordinate.
-
-            int laidOutCols = 0; // Currently laid out components count in current row.
-            for (Component component : target.getComponents()) {
-                // Do not laid out invisible components.
-                if (component.isVisible()) {
-                    // Go to the next row.
-                    if (laidOutCols >= gridMetrics.cols) {
-                        x = insets.left + gridMetrics.leadingHgap;
-                        y += gridMetrics.cellSize.height + vgap;
-                        laidOutCols = 0;
-                    }
+            interimZoom = adjusting ? zoom : 0;
+            changed = !adjusting && zoom != this.zoom;
+            if (changed) {
+                this.zoom = zoom;
+            }
+        }
+        if (changed) {
+            requestLayout(target);
+        }
+        target.repaint();
+    }
 
-                    // We always use preferred components size.
-                    Dimension size = component.getPreferredSize();
-                    int cx = x + (gridMetrics.cellSize.width - size.width) / 2;
-                    int cy = y + (gridMetrics.cellSize.height - size.height) / 2;
-                    component.setBounds(cx, cy, size.width, size.height);
+    /**
+     * Gets the duration of the transition of the cells to their new
+     * places, in milliseconds.
+     *
+     * @return the duration of the transition, or zero if the
+     *         transitions are disabled
+     *
+     * @see #setTransitionDuration(int)
+     */
+    public int getTransitionDuration() {
+        return transitionDuration;
+    }
 
-                    x += gridMetrics.cellSize.width + gridMetrics.innerHgap;
-                    laidOutCols++;
-                }
-            }
+    /**
+     * Sets the duration of the transition of the cells to their new
+     * places, in milliseconds.
+     * <p>
+     * If the transitions are enabled, and a layout pass changes the
+     * grid geometry, for example, the number of the columns, the cells
+     * inside the visible part of the container move from their
+     * previous bounds to the new ones, instead of jumping there. All
+     * the transitions are driven by a single timer, and each frame
+     * reshapes only the visible cells, interpolating between the
+     * previous and the new grid geometry, so a transition does not
+     * keep any state per cell. A frame spends no more than a fixed
+     * time on the event dispatch thread, leaving the rest of the cells
+     * to the next frame, and the frames the busy event dispatch thread
+     * has missed are skipped rather than queued, so the transition
+     * ends on time.
+     * <p>
+     * The cells which are not visible are laid out as usual. The next
+     * layout pass, or a drag of a cell, completes the transition in
+     * progress at once. The transitions have no effect in the
+     * progressive mode, and if the cells are not placed in the order
+     * of the grid rows, for example, in the masonry mode.
+     *
+     * @param transitionDuration the duration of the transition, or
+     *                           zero to disable the transitions
+     *
+     * @see #getTransitionDuration()
+     */
+    public void setTransitionDuration(int transitionDuration) {
+        this.transitionDuration = Math.max(transitionDuration, 0);
+    }
+
+    /**
+     * Returns the insets along the flow of the cells.
+     *
+     * @return the insets, transposed if the cells flow in the columns
+     */
+    private Insets getFlowInsets() {
+        if (!verticalWrap) {
+            return insets;
+        }
+        if (flowInsets == null) {
+            flowInsets = new Insets(0, 0, 0, 0);
         }
+        flowInsets.set(insets.left, insets.top, insets.right, insets.bottom);
+        return flowInsets;
     }
 
     /**
-     * Has no effect, since this layout manager does not store
-     * any cached state that need to be invalidated.
+     * Returns the gap between the cells along the flow, which may be
+     * dynamic.
      *
-     * @param target ignored
+     * @return the horizontal gap, or the vertical gap if the cells
+     *         flow in the columns
      */
-    @Override
-    public void invalidateLayout(Container target) {
-        // Do nothing.
+    int getFlowHgap() {
+        return verticalWrap ? vgap : hgap;
     }
 
     /**
-     * The <code>GridMetrics</code> class is a helper class that
-     * allows to calculate all dynamic grid parameters, such as the
-     * cell size, the visible components count, the number of the
-     * grid rows and columns, and the horizontal gap (if it is
-     * necessary to calculate automatically).
+     * Returns the gap between the lines of the cells.
      *
-     * @author Sergey Povstyanov
-     * @version 1.0
+     * @return the vertical gap, or the horizontal gap if the cells flow
+     *         in the columns
      */
-    protected static class GridMetrics {
-        /**
-         * The cell size is the property that determines the layout grid
-         * cell size. The cell size should be sufficient to accommodate
-         * the largest of the components, but not larger.
-         *
-         * @serial
-         */
-        public Dimension cellSize;
+    private int getFlowVgap() {
+        return verticalWrap ? Math.max(hgap, 0) : vgap;
+    }
 
-        /**
-         * The number of the visible components.
-         */
-        public int componentsCount;
+    /**
+     * Passes the modes of the layout manager which affect the
+     * calculation to the {@link #gridMetrics}.
+     */
+    private void configureMetrics() {
+        gridMetrics.masonryGap = masonry ? getFlowVgap() : -1;
+        gridMetrics.transposed = verticalWrap;
+        gridMetrics.zoom = zoom;
+        gridMetrics.geometryIndex = geometryIndex;
+        if (gridMetrics.profiler != profiler) {
+            gridMetrics.clearProfiledSizes();
+            gridMetrics.profiler = profiler;
+        }
+    }
 
-        /**
-         * The number of the grid rows.
-         *
-         * @see #cols
-         */
-        public int rows;
+    /**
+     * Gets the profiler of the layout passes.
+     *
+     * @return the profiler, or <code>null</code> if the layout passes
+     *         are not profiled
+     *
+     * @see #setProfiler(UniformGridProfiler)
+     */
+    public UniformGridProfiler getProfiler() {
+        return profiler;
+    }
 
-        /**
-         * The number of the grid columns.
-         *
-         * @see #rows
-         */
-        public int cols;
+    /**
+     * Sets the profiler of the layout passes. The layout manager times
+     * each <code>getPreferredSize()</code> and <code>setBounds()</code>
+     * call it makes, and the profiler reports the layout passes which
+     * take longer than its budget. Without a profiler, the calls are
+     * not timed.
+     *
+     * @param profiler the profiler, or <code>null</code> to stop
+     *                 profiling
+     *
+     * @see #getProfiler()
+     */
+    public void setProfiler(UniformGridProfiler profiler) {
+        this.profiler = profiler;
+    }
 
-        /**
-         * The space that will be added between the grid columns.
-         *
-         * @see #leadingHgap
-         * @see #trailingHgap
-         */
-        public int innerHgap;
+    /**
+     * Gets the geometry index shared with the other views of the same
+     * items.
+     *
+     * @return the geometry index, or <code>null</code> if the
+     *         components are measured by this layout manager only
+     *
+     * @see UniformGridGeometryIndex#attach(Container)
+     */
+    public UniformGridGeometryIndex getGeometryIndex() {
+        return geometryIndex;
+    }
 
-        /**
-         * The space that will be added before the first grid column.
-         *
-         * @see #innerHgap
-         * @see #trailingHgap
-         */
-        public int leadingHgap;
+    /**
+     * Replaces the geometry index of the <code>target</code> container,
+     * or makes it take the changed geometry of the same index, and
+     * requests a layout pass. The measured components are forgotten,
+     * but measuring them again takes their sizes from the index.
+     *
+     * @param target the container in which to do the layout
+     * @param index  the geometry index, or <code>null</code>
+     */
+    void setGeometryIndex(Container target, UniformGridGeometryIndex index) {
+        synchronized (target.getTreeLock()) {
+            geometryIndex = index;
+            gridMetrics.discardMeasurements();
+        }
+        requestLayout(target);
+    }
 
-        /**
-         * The space that will be added after the last grid column.
-         *
-         * @see #innerHgap
-         * @see #leadingHgap
-         */
-        public int trailingHgap;
+    /**
+     * Makes the <code>target</code> container take the changed sizes
+     * of the items in the range [<code>from</code>, <code>to</code>)
+     * from its geometry index, and requests a layout pass. If the
+     * items occupy the cells of their indices, only these cells are
+     * measured again; otherwise, all the components are.
+     *
+     * @param target the container in which to do the layout
+     * @param from   the first changed item
+     * @param to     the item after the last changed item
+     */
+    void itemsChanged(Container target, int from, int to) {
+        synchronized (target.getTreeLock()) {
+            gridMetrics.markItemsChanged(target, from, to);
+        }
+        requestLayout(target);
+    }
 
-        /**
-         * Creates a <code>GridMetrics</code> with the default
-         * <i>empty</i> state.
-         * The {@link #calculate(Container, Insets, int)} method will
-         * calculate the actual grid metrics.
-         *
-         * @see #calculate(Container, Insets, int)
-         */
-        public GridMetrics() {
-            cellSize = new Dimension(0, 0);
-            rows = 0;
-            cols = 0;
-            innerHgap = 0;
-            leadingHgap = 0;
-            trailingHgap = 0;
+    /**
+     * Makes the <code>target</code> container take the geometry of the
+     * items inserted at the <code>index</code> from its geometry index,
+     * and requests a layout pass. The items appended after the measured
+     * components are measured as the appended components are;
+     * otherwise, all the components are measured again.
+     *
+     * @param target the container in which to do the layout
+     * @param index  the index of the first inserted item
+     */
+    void itemsInserted(Container target, int index) {
+        synchronized (target.getTreeLock()) {
+            gridMetrics.markItemsInserted(target, index);
         }
+        requestLayout(target);
+    }
 
-        /**
-         * Calculates actual grid metrics based on the count,
-         * preferred size, and visibility of the
-         * <code>container</code> components. Insets and gaps are
-         * also taking into account.
-         *
-         * @param container the container whose components are taken
-         *                  into account when calculating grid
-         *                  metrics
+    /**
+     * Gets the maximum number of the components in the live feed.
+     *
+     * @return the live feed capacity, or zero if the live feed mode is
+     *         disabled
+     *
+     * @see #setFeedCapacity(int)
+     */
+    public int getFeedCapacity() {
+        return feedCapacity;
+    }
+
+    /**
+     * Sets the maximum number of the components in the live feed.
+     * <p>
+     * In the live feed mode, the components should be added to the
+     * container only with the {@link #feed(Container, Component)}
+     * method. Until the feed is full, the components are appended to
+     * the container. After that, each new component replaces the
+     * oldest one in its cell, like an element of a ring buffer, so
+     * that the other cells keep both their components and their
+     * places. The new components are laid out as with the fast append
+     * (see {@link #setFastAppend(boolean)}): only the replaced cell is
+     * measured and laid out, which also means that the cell size does
+     * not shrink when the largest component is evicted, until the next
+     * full layout pass.
+     * <p>
+     * Changing the capacity makes the first component of the
+     * container the oldest one.
+     *
+     * @param feedCapacity the live feed capacity, or zero to disable
+     *                     the live feed mode
+     *
+     * @see #getFeedCapacity()
+     */
+    public void setFeedCapacity(int feedCapacity) {
+        this.feedCapacity = Math.max(feedCapacity, 0);
+        this.feedHead = 0;
+    }
+
+    /**
+     * Adds the <code>component</code> to the live feed shown in the
+     * <code>target</code> container. If the feed is full, the oldest
+     * component is removed from the container, and the new component
+     * takes its index and its cell, so that neither the other
+     * components nor their cached metrics are moved. If the capacity
+     * has been lowered, the oldest components beyond it are removed
+     * as well.
+     * <p>
+     * If the live feed mode is disabled, the component is simply
+     * added to the end of the container. As with the
+     * {@link Container#add(Component)} method, the container should
+     * be revalidated afterwards.
+     *
+     * @param target    the container in which to do the layout
+     * @param component the component to be added
+     *
+     * @return the evicted component, or <code>null</code> if the feed
+     *         was not full
+     *
+     * @see #setFeedCapacity(int)
+     */
+    public Component feed(Container target, Component component) {
+        synchronized (target.getTreeLock()) {
+            if (feedCapacity == 0) {
+                target.add(component);
+                return null;
+            }
+
+            int count = target.getComponentCount();
+            if (feedHead >= count) {
+                feedHead = 0;
+            }
+            while (count > feedCapacity) {
+                target.remove(feedHead);
+                count--;
+                if (feedHead == count) {
+                    feedHead = 0;
+                }
+            }
+            if (count < feedCapacity) {
+                target.add(component);
+                return null;
+            }
+
+            // The newest component takes the index and the cell of the oldest one.
+            Component evicted = target.getComponent(feedHead);
+            gridMetrics.markReplaced(target, feedHead, evicted);
+            feeding = true;
+            try {
+                target.remove(feedHead);
+                target.add(component, feedHead);
+            } finally {
+                feeding = false;
+            }
+            feedHead = (feedHead + 1) % count;
+            return evicted;
+        }
+    }
+
+    /**
+     * Saves the preferred sizes of the <code>target</code> container
+     * components to the snapshot <code>file</code>, so that they could
+     * be loaded by the {@link #loadSnapshot(Path)} method on the next
+     * start of the application.
+     * <p>
+     * The snapshot is a binary file that consists of the header (the
+     * magic number, the format version, the number of the components,
+     * and the cell width and height), followed by the preferred width
+     * and height of each component in the order the components are
+     * placed into the grid; the size of an invisible or filtered out
+     * component is stored as <code>-1</code>. All the values are 32-bit big-endian
+     * integers.
+     *
+     * @param target the container in which to do the layout
+     * @param file   the file to save the snapshot to
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void saveSnapshot(Container target, Path file) throws IOException {
+        ByteBuffer buffer;
+        synchronized (target.getTreeLock()) {
+            calculateMetrics(target);
+
+            int count = target.getComponentCount();
+            buffer = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + count * 2 * 4);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(SNAPSHOT_VERSION);
+            buffer.putInt(count);
+            // The snapshot keeps the actual sizes, whatever the orientation is.
+            int[] widths = verticalWrap ? gridMetrics.baseHeights : gridMetrics.baseWidths;
+            int[] heights = verticalWrap ? gridMetrics.baseWidths : gridMetrics.baseHeights;
+            buffer.putInt(verticalWrap ? gridMetrics.cellSize.height : gridMetrics.cellSize.width);
+            buffer.putInt(verticalWrap ? gridMetrics.cellSize.width : gridMetrics.cellSize.height);
+            Component[] taken = gridMetrics.takeComponents(target);
+            int cell = 0;
+            for (int j = 0; j < count; j++) {
+                Component c = taken[j];
+                if (cell < gridMetrics.componentsCount && gridMetrics.cells[cell] == c) {
+                    buffer.putInt(widths[cell]);
+                    buffer.putInt(heights[cell]);
+                    cell++;
+                } else {
+                    buffer.putInt(-1);
+                    buffer.putInt(-1);
+                }
+            }
+            buffer.flip();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Loads the preferred sizes of the components from the snapshot
+     * <code>file</code> saved by the
+     * {@link #saveSnapshot(Container, Path)} method. The file is mapped
+     * into memory rather than read.
+     * <p>
+     * The next layout pass uses the loaded sizes instead of measuring
+     * the components, provided that the container has the same number
+     * of components as the saved one. After the pass, the actual
+     * preferred sizes are checked by a task posted to the event
+     * dispatch thread, and if any of them differs from the loaded one,
+     * the container is revalidated. Either way, the snapshot is used
+     * only once.
+     *
+     * @param file the file to load the snapshot from
+     *
+     * @throws IOException if an I/O error occurs, or the file is not a
+     *                     valid snapshot, or its cell size does not
+     *                     match the saved sizes of the components
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < SNAPSHOT_HEADER_SIZE
+                || buffer.getInt(0) != SNAPSHOT_MAGIC
+                || buffer.getInt(4) != SNAPSHOT_VERSION) {
+            throw new IOException("Not a layout snapshot: " + file);
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || buffer.limit() != SNAPSHOT_HEADER_SIZE + (long) count * 2 * 4) {
+            throw new IOException("Corrupted layout snapshot: " + file);
+        }
+        buffer.position(SNAPSHOT_HEADER_SIZE);
+        IntBuffer sizes = buffer.slice().asIntBuffer();
+        // The saved cell size must be the largest of the saved sizes of the visible components.
+        int cellWidth = 0;
+        int cellHeight = 0;
+        for (int j = 0; j < count; j++) {
+            int width = sizes.get(2 * j);
+            int height = sizes.get(2 * j + 1);
+            if (width == -1 && height == -1) {
+                continue;
+            }
+            if (width < 0 || height < 0) {
+                throw new IOException("Corrupted layout snapshot: " + file);
+            }
+            cellWidth = Math.max(cellWidth, width);
+            cellHeight = Math.max(cellHeight, height);
+        }
+        if (buffer.getInt(12) != cellWidth || buffer.getInt(16) != cellHeight) {
+            throw new IOException("Corrupted layout snapshot: " + file);
+        }
+        gridMetrics.presetSizes = sizes;
+    }
+
+    /**
+     * Gets the number of the cells laid out by the last layout pass.
+     *
+     * @return the number of the cells
+     */
+    public int getCellCount() {
+        return layoutState.cellsCount;
+    }
+
+    /**
+     * Gets the number of the grid columns of the last layout pass.
+     *
+     * @return the number of the columns
+     */
+    public int getColumnCount() {
+        return verticalWrap ? layoutState.rows : layoutState.cols;
+    }
+
+    /**
+     * Gets the number of the grid rows of the last layout pass.
+     *
+     * @return the number of the rows
+     */
+    public int getRowCount() {
+        return verticalWrap ? layoutState.cols : layoutState.rows;
+    }
+
+    /**
+     * Gets the component of the specified cell, as laid out by the
+     * last layout pass.
+     *
+     * @param index the index of the cell
+     *
+     * @return the component of the cell, or <code>null</code> if there
+     *         is no such cell
+     */
+    public Component getCellComponent(int index) {
+        LayoutState state = layoutState;
+        return index >= 0 && index < state.cellsCount ? state.cells[index] : null;
+    }
+
+    /**
+     * Gets the index of the cell of the <code>component</code>, as
+     * laid out by the last layout pass. The indices are cached, so the
+     * lookup takes constant time, except for the first lookup after a
+     * layout pass that has changed the cells.
+     *
+     * @param component the component to be found
+     *
+     * @return the index of the cell, or <code>-1</code> if the
+     *         component does not occupy a cell
+     */
+    public int getCellIndex(Component component) {
+        LayoutState state = layoutState;
+        if (cellIndices == null) {
+            cellIndices = new IdentityHashMap<Component, Integer>();
+        }
+        Integer index = cellIndices.get(component);
+        if (index != null && index < indexedCells && state.cells[index] == component) {
+            return index;
+        }
+        if (indexedCells == state.cellsCount) {
+            return -1;
+        }
+
+        // Index the cells changed by the recent layout passes.
+        if (cellIndices.size() > 2 * state.cellsCount) {
+            // Forget the components that are no longer the cells.
+            cellIndices.clear();
+            indexedCells = 0;
+        }
+        for (int i = indexedCells; i < state.cellsCount; i++) {
+            cellIndices.put(state.cells[i], i);
+        }
+        indexedCells = state.cellsCount;
+        index = cellIndices.get(component);
+        return index != null && index < state.cellsCount && state.cells[index] == component ? index : -1;
+    }
+
+    /**
+     * Gets the bounds of the specified cell within the container, as
+     * laid out by the last layout pass. The component of the cell is
+     * centered within these bounds.
+     *
+     * @param index the index of the cell
+     *
+     * @return the bounds of the cell, or <code>null</code> if there is
+     *         no such cell
+     */
+    public Rectangle getCellBounds(int index) {
+        LayoutState state = layoutState;
+        if (index < 0 || index >= state.cellsCount) {
+            return null;
+        }
+        return state.getCellBounds(index);
+    }
+
+    /**
+     * Gets the index of the cell that contains the specified point of
+     * the container, as laid out by the last layout pass.
+     *
+     * @param point the point within the container
+     *
+     * @return the index of the cell, or <code>-1</code> if the point is
+     *         outside of the cells
+     */
+    public int getCellIndexAt(Point point) {
+        return layoutState.getCellIndexAt(point.x, point.y);
+    }
+
+    /**
+     * Checks whether each cell takes the grid cell of its index, as
+     * laid out by the last layout pass. This is not the case if any
+     * of the cells has a span, or in the masonry mode.
+     *
+     * @return <code>true</code> if the cells are placed row by row
+     */
+    boolean isRowMajor() {
+        return layoutState.isRowMajor();
+    }
+
+    /**
+     * Adds the cells that intersect the <code>rect</code> of the
+     * container to the <code>selection</code>, as they have been laid
+     * out by the last layout pass, if the cells are not placed row by
+     * row.
+     *
+     * @param rect      the rectangle within the container
+     * @param selection the indices of the selected cells
+     *
+     * @see #isRowMajor()
+     */
+    void addCellsIn(Rectangle rect, BitSet selection) {
+        layoutState.addCellsIn(rect, selection);
+    }
+
+    /**
+     * Returns the cell next to the specified one along the flow of the
+     * cells or across it, as laid out by the last layout pass, if the
+     * cells are not placed row by row.
+     *
+     * @param index the index of the cell
+     * @param dcol  the direction along the flow
+     * @param drow  the direction across the flow, if the
+     *              <code>dcol</code> is zero
+     *
+     * @return the index of the adjacent cell, or <code>-1</code>
+     *
+     * @see #isRowMajor()
+     */
+    int getAdjacentCell(int index, int dcol, int drow) {
+        LayoutState state = layoutState;
+        return index >= 0 && index < state.cellsCount ? state.getAdjacentCell(index, dcol, drow) : -1;
+    }
+
+    /**
+     * Returns the first or the last cell of the line of the specified
+     * cell, as laid out by the last layout pass, if the cells are not
+     * placed row by row.
+     *
+     * @param index the index of the cell
+     * @param last  whether to return the last cell of the line
+     *
+     * @return the index of the cell at the edge of the line, or
+     *         <code>-1</code>
+     *
+     * @see #isRowMajor()
+     */
+    int getLineEdgeCell(int index, boolean last) {
+        LayoutState state = layoutState;
+        return index >= 0 && index < state.cellsCount ? state.getLineEdgeCell(index, last) : -1;
+    }
+
+    /**
+     * Returns the cell at the specified distance across the flow of
+     * the cells from the specified one, as laid out by the last layout
+     * pass, if the cells are not placed row by row.
+     *
+     * @param index    the index of the cell
+     * @param distance the distance in pixels, negative to move back
+     *
+     * @return the index of the found cell, or <code>-1</code>
+     *
+     * @see #isRowMajor()
+     */
+    int getCellAcross(int index, int distance) {
+        LayoutState state = layoutState;
+        return index >= 0 && index < state.cellsCount ? state.getCellAcross(index, distance) : -1;
+    }
+
+    /**
+     * Gets the filter that decides which of the visible components
+     * occupy the grid cells.
+     *
+     * @return the cell filter, or <code>null</code> if all the visible
+     *         components occupy the cells
+     *
+     * @see #setCellFilter(Container, CellFilter)
+     */
+    public CellFilter getCellFilter() {
+        return gridMetrics.filter;
+    }
+
+    /**
+     * Sets the filter that decides which of the visible components of
+     * the <code>target</code> container occupy the grid cells, and
+     * requests a single layout pass of the container.
+     * <p>
+     * The components rejected by the filter keep their visibility, so
+     * filtering does not invalidate them one by one, as hiding would
+     * do; they are collapsed to the zero size instead. The filter is
+     * evaluated once per visible component by each full calculation of
+     * the grid metrics.
+     * Since the layout passes are incremental, only the cells starting
+     * from the first changed one are reshaped.
+     * <p>
+     * The filter is not serialized.
+     *
+     * @param target the container in which to do the layout
+     * @param filter the cell filter, or <code>null</code> to show all
+     *               the visible components
+     *
+     * @see #narrowCellFilter(Container, CellFilter)
+     */
+    public void setCellFilter(Container target, CellFilter filter) {
+        synchronized (target.getTreeLock()) {
+            gridMetrics.filter = filter;
+            gridMetrics.narrowing = false;
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Replaces the cell filter with the one that accepts only some of
+     * the components accepted by the current filter, for example,
+     * when the user types one more character of the filter text.
+     * <p>
+     * Unless the components of the <code>target</code> container have
+     * been added or removed since the last layout pass, the next pass
+     * evaluates the new filter only for the components that currently
+     * occupy the cells, and reuses their measured preferred sizes.
+     * Note that a component that has been shown since the last layout
+     * pass is taken into account only by the next full calculation.
+     *
+     * @param target the container in which to do the layout
+     * @param filter the narrower cell filter
+     *
+     * @see #setCellFilter(Container, CellFilter)
+     */
+    public void narrowCellFilter(Container target, CellFilter filter) {
+        synchronized (target.getTreeLock()) {
+            gridMetrics.filter = filter;
+            gridMetrics.narrowing = filter != null;
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Gets the comparator that sorts the cells.
+     *
+     * @return the cell comparator, or <code>null</code> if the cells
+     *         are not sorted by a comparator
+     *
+     * @see #setCellComparator(Container, Comparator)
+     */
+    public Comparator<? super Component> getCellComparator() {
+        return gridMetrics.comparator;
+    }
+
+    /**
+     * Sets the comparator that sorts the cells of the
+     * <code>target</code> container, and requests a single layout pass
+     * of the container. The components are sorted right away, but
+     * their order within the container is not changed.
+     * <p>
+     * The sort is stable: the components with the equal keys keep
+     * their relative order. The components added to the container
+     * later are sorted in by the next layout pass, and the cells whose
+     * keys are changed should be sorted again with the
+     * {@link #resortCell(Container, Component)} method. Note that the
+     * fast append (see {@link #setFastAppend(boolean)}) and the
+     * in-place replacement of the live feed do not apply to the
+     * sorted cells.
+     * <p>
+     * The comparator is not serialized.
+     *
+     * @param target     the container in which to do the layout
+     * @param comparator the cell comparator, or <code>null</code> to
+     *                   place the cells in the order of the components
+     *
+     * @see #setCellOrder(Container, int[])
+     */
+    public void setCellComparator(Container target, Comparator<? super Component> comparator) {
+        synchronized (target.getTreeLock()) {
+            gridMetrics.setOrder(target, comparator != null ? target.getComponents() : null, comparator);
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Sets the order of the cells of the <code>target</code> container
+     * as the permutation of the component indices, and requests a
+     * single layout pass of the container. The order of the components
+     * within the container is not changed.
+     * <p>
+     * The components added to the container later are placed after
+     * the ordered ones, in the order of the components; if they are
+     * appended to the end of the container, the fast append (see
+     * {@link #setFastAppend(boolean)}) applies to them as well. The
+     * live feed (see {@link #feed(Container, Component)}) does the full
+     * layout pass for each replaced component while the cells have an
+     * explicit order. Setting the order discards the cell comparator.
+     *
+     * @param target      the container in which to do the layout
+     * @param permutation the component indices in the order of the
+     *                    cells, or <code>null</code> to place the cells
+     *                    in the order of the components
+     *
+     * @throws IllegalArgumentException if the <code>permutation</code>
+     *                                  is not a permutation of the
+     *                                  component indices
+     *
+     * @see #setCellComparator(Container, Comparator)
+     */
+    public void setCellOrder(Container target, int[] permutation) {
+        synchronized (target.getTreeLock()) {
+            Component[] order = null;
+            if (permutation != null) {
+                int count = target.getComponentCount();
+                if (permutation.length != count) {
+                    throw new IllegalArgumentException("The permutation length " + permutation.length
+                            + " differs from the components count " + count);
+                }
+                order = new Component[count];
+                BitSet taken = new BitSet(count);
+                for (int k = 0; k < count; k++) {
+                    int index = permutation[k];
+                    if (index < 0 || index >= count || taken.get(index)) {
+                        throw new IllegalArgumentException("Not a permutation: " + index + " at " + k);
+                    }
+                    taken.set(index);
+                    order[k] = target.getComponent(index);
+                }
+            }
+            gridMetrics.setOrder(target, order, null);
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Moves the cell of the <code>component</code> to its place
+     * according to the cell comparator, after the sort key of the
+     * component has been changed, and requests a layout pass of the
+     * <code>target</code> container.
+     * <p>
+     * The new place is found by the binary search, that is, with
+     * O(log n) comparisons, and only the cells between the old and
+     * the new place are shifted, in time proportional to the distance
+     * between them; the component is placed after the other components
+     * with the equal key. The following layout pass calculates the
+     * grid metrics again, which measures all the components, but
+     * since the layout passes are incremental, only the cells starting
+     * from the lower of the two places are reshaped.
+     *
+     * @param target    the container in which to do the layout
+     * @param component the component whose sort key has been changed
+     *
+     * @see #setCellComparator(Container, Comparator)
+     */
+    public void resortCell(Container target, Component component) {
+        synchronized (target.getTreeLock()) {
+            if (!gridMetrics.resort(target, component)) {
+                return;
+            }
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Gets the index at which a cell dropped at the specified point of
+     * the container would be inserted, as laid out by the last layout
+     * pass. The index is calculated from the grid geometry in constant
+     * time: the point before the center of a cell within its row, or
+     * within the gap below the row, inserts before that cell. If the
+     * cells have spans, the point inserts before the cell that covers
+     * the first occupied grid slot at or after the point, or after the
+     * last cell if there is none. In the masonry mode, the point
+     * inserts before the cell under it or below it within the column,
+     * or after the last cell if there is none.
+     *
+     * @param point the point within the container
+     *
+     * @return the insertion index in the range from zero to the number
+     *         of the cells, or <code>-1</code> if the container has not
+     *         been laid out
+     *
+     * @see #moveCell(Container, int, int)
+     */
+    public int getDropIndex(Point point) {
+        return layoutState.getDropIndex(point.x, point.y);
+    }
+
+    /**
+     * Shows how the cells would be placed if the cell at the
+     * <code>from</code> index were moved to the <code>to</code>
+     * insertion index, for example, while the cell is being dragged.
+     * <p>
+     * Only the cells between the two indices are reshaped, along with
+     * the cells shifted by the previous preview, and no layout pass is
+     * done. If the viewport windowing is enabled, only the cells inside
+     * the window are reshaped. There is no preview if any of the cells
+     * has a span.
+     *
+     * @param target the container in which the layout has been done
+     * @param from   the index of the moved cell
+     * @param to     the insertion index, or <code>-1</code> to put the
+     *               cells back to their places
+     *
+     * @see #getDropIndex(Point)
+     * @see #moveCell(Container, int, int)
+     */
+    public void previewMove(Container target, int from, int to) {
+        synchronized (target.getTreeLock()) {
+            finishTransition();
+            LayoutState state = layoutState;
+            if (from < 0 || from >= state.cellsCount || to < 0 || to > state.cellsCount || !state.isRowMajor()) {
+                cancelPreview(state);
+                return;
+            }
+
+            int slot = to > from ? to - 1 : to;
+            int low = Math.min(from, slot);
+            int high = Math.max(from, slot);
+            if (previewLow >= 0) {
+                // Put back the cells shifted by the previous preview only.
+                for (int i = previewLow; i <= previewHigh; i++) {
+                    if (i < low || i > high) {
+                        placePreviewCell(state, i, i);
+                    }
+                }
+            }
+            for (int i = low; i <= high; i++) {
+                placePreviewCell(state, i, i == from ? slot : (from < slot ? i - 1 : i + 1));
+            }
+            previewLow = low < high ? low : -1;
+            previewHigh = low < high ? high : -1;
+        }
+    }
+
+    /**
+     * Moves the cell at the <code>from</code> index to the
+     * <code>to</code> insertion index, and requests a layout pass of
+     * the <code>target</code> container.
+     * <p>
+     * The components are not removed and added to the container;
+     * instead, the move is done within the cell order (see
+     * {@link #setCellOrder(Container, int[])}), which is created from
+     * the current order of the cells if necessary. Since the layout
+     * passes are incremental, only the cells starting from the lower
+     * of the two indices are reshaped. Moving a cell discards the cell
+     * comparator, keeping the current order of the cells. The
+     * components appended to the container after the move are placed
+     * after the ordered cells, and are laid out with the fast append,
+     * if it is enabled.
+     *
+     * @param target the container in which the layout has been done
+     * @param from   the index of the moved cell
+     * @param to     the insertion index, in the range from zero to the
+     *               number of the cells
+     *
+     * @see #getDropIndex(Point)
+     * @see #previewMove(Container, int, int)
+     */
+    public void moveCell(Container target, int from, int to) {
+        synchronized (target.getTreeLock()) {
+            LayoutState state = layoutState;
+            boolean moved = false;
+            if (from >= 0 && from < state.cellsCount && to >= 0 && to <= state.cellsCount) {
+                Component anchor = to < state.cellsCount ? state.cells[to] : null;
+                moved = gridMetrics.moveCell(target, state.cells[from], anchor, state.cells[state.cellsCount - 1]);
+            }
+            if (!moved) {
+                cancelPreview(state);
+                return;
+            }
+            // The layout pass reshapes the cells shifted by the preview.
+            previewLow = -1;
+            previewHigh = -1;
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Puts the cells shifted by the move preview back to their places.
+     *
+     * @param state the grid geometry and cells of the last layout pass
+     */
+    private void cancelPreview(LayoutState state) {
+        if (previewLow >= 0) {
+            for (int i = previewLow; i <= Math.min(previewHigh, state.cellsCount - 1); i++) {
+                placePreviewCell(state, i, i);
+            }
+        }
+        previewLow = -1;
+        previewHigh = -1;
+    }
+
+    /**
+     * Places the cell at the <code>index</code> into the
+     * <code>slot</code> of the grid, if the cell has been laid out.
+     *
+     * @param state the grid geometry and cells of the last layout pass
+     * @param index the index of the cell
+     * @param slot  the index of the place of the cell
+     */
+    private static void placePreviewCell(LayoutState state, int index, int slot) {
+        if (index >= state.windowFrom && index < state.windowTo
+                && (state.pending == null || !state.pending.get(index))) {
+            state.placeCell(index, slot);
+        }
+    }
+
+    /**
+     * Converts the index of a cell, as laid out by the last layout
+     * pass, to the index of its component within the
+     * <code>target</code> container, the same way the
+     * {@link RowSorter#convertRowIndexToModel(int)} does.
+     * <p>
+     * The mapping is built by the first conversion after a layout
+     * pass, so the following conversions take constant time.
+     *
+     * @param target the container in which the layout has been done
+     * @param index  the index of the cell
+     *
+     * @return the index of the component, or <code>-1</code> if there
+     *         is no such cell
+     */
+    public int convertIndexToModel(Container target, int index) {
+        synchronized (target.getTreeLock()) {
+            updateIndexMapping(target);
+            return index >= 0 && index < viewToModel.length ? viewToModel[index] : -1;
+        }
+    }
+
+    /**
+     * Converts the index of a component within the <code>target</code>
+     * container to the index of its cell, as laid out by the last
+     * layout pass, the same way the
+     * {@link RowSorter#convertRowIndexToView(int)} does.
+     *
+     * @param target the container in which the layout has been done
+     * @param index  the index of the component
+     *
+     * @return the index of the cell, or <code>-1</code> if the
+     *         component does not occupy a cell
+     *
+     * @see #convertIndexToModel(Container, int)
+     */
+    public int convertIndexToView(Container target, int index) {
+        synchronized (target.getTreeLock()) {
+            updateIndexMapping(target);
+            return index >= 0 && index < modelToView.length ? modelToView[index] : -1;
+        }
+    }
+
+    /**
+     * Builds the mapping between the cell indices and the component
+     * indices, if it is not known for the last layout pass.
+     *
+     * @param target the container in which the layout has been done
+     */
+    private void updateIndexMapping(Container target) {
+        int count = target.getComponentCount();
+        if (modelToView != null && modelToView.length == count) {
+            return;
+        }
+        LayoutState state = layoutState;
+        modelToView = new int[count];
+        viewToModel = new int[state.cellsCount];
+        Arrays.fill(viewToModel, -1);
+        for (int j = 0; j < count; j++) {
+            int index = getCellIndex(target.getComponent(j));
+            modelToView[j] = index;
+            if (index >= 0) {
+                viewToModel[index] = j;
+            }
+        }
+    }
+
+    /**
+     * Requests a layout pass of the <code>target</code> container.
+     *
+     * @param target the container in which to do the layout
+     */
+    private static void requestLayout(Container target) {
+        if (target instanceof JComponent) {
+            ((JComponent) target).revalidate();
+        } else {
+            target.invalidate();
+            target.validate();
+        }
+    }
+
+    /**
+     * Determines the minimum size of the <code>target</code>
+     * container using this <code>UniformGridLayout</code> manager.
+     * <p>
+     * The minimum width of the <code>target</code> container must
+     * accommodate one column of the grid, plus the left and the
+     * right insets.
+     * <p>
+     * The minimum height of the <code>target</code> container must
+     * accommodate as many rows as there are components in the
+     * <code>target</code> container, plus the top and the bottom
+     * insets, and plus the vertical gap value between all rows of
+     * the grid.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the minimum size of the <code>target</code> container
+     *
+     * @see #maximumLayoutSize(Container)
+     * @see #preferredLayoutSize(Container)
+     */
+    @Override
+    public Dimension minimumLayoutSize(Container target) {
+        synchronized (target.getTreeLock()) {
+            calculateMetrics(target);
+            Insets insets = getFlowInsets();
+            int width = insets.left
+                    + gridMetrics.leadingHgap
+                    + gridMetrics.cellSize.width
+                    + gridMetrics.trailingHgap
+                    + insets.right;
+            // The minimum height is the height of the single column.
+            int height = limitHeight(gridMetrics.cellTops != null
+                    ? insets.top + gridMetrics.getStackedHeight() + insets.bottom
+                    : getGridHeight(gridMetrics.componentsCount, gridMetrics.cellSize.height, getFlowVgap(), insets));
+            return verticalWrap ? new Dimension(height, width) : new Dimension(width, height);
+        }
+    }
+
+    /**
+     * Determines the maximum size of the <code>parent</code>
+     * container using this <code>UniformGridLayout</code> manager.
+     * <p>
+     * The <code>UniformGridLayout</code> in its maximum
+     * configuration seeks to occupy any dimension.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the maximum size of the <code>target</code> container
+     *
+     * @see #minimumLayoutSize(Container)
+     * @see #preferredLayoutSize(Container)
+     */
+    @Override
+    public Dimension maximumLayoutSize(Container target) {
+        return new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Determines the preferred size of the <code>target</code>
+     * container using this <code>UniformGridLayout</code> manager.
+     * <p>
+     * The preferred width of the <code>target</code> container will
+     * never exceeds its current width. In this width, the
+     * <code>UniformGridLayout</code> manager will try to place the
+     * maximum number of the grid cells, taking into account the left
+     * and the right insets and the horizontal gap between the
+     * columns of the grid. Thus, the row of the grid is formed.
+     * <p>
+     * The preferred height of the <code>target</code> container
+     * should be sufficient to accommodate as many rows of the
+     * preferred width as possible so that all the components of the
+     * <code>target</code> container are placed, taking into account
+     * the top and the bottom insets and the vertical gap between the
+     * rows of the grid.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the preferred size of the <code>target</code>
+     *         container
+     *
+     * @see #minimumLayoutSize(Container)
+     * @see #maximumLayoutSize(Container)
+     */
+    @Override
+    public Dimension preferredLayoutSize(Container target) {
+        synchronized (target.getTreeLock()) {
+            calculateMetrics(target);
+
+            Insets insets = getFlowInsets();
+            int width = insets.left + gridMetrics.leadingHgap
+                    + ((gridMetrics.cellSize.width + gridMetrics.innerHgap) * gridMetrics.cols - gridMetrics.innerHgap)
+                    + gridMetrics.trailingHgap + insets.right;
+            int height = limitHeight(getGridHeight(gridMetrics, getFlowVgap(), insets));
+
+            // Special handling of JScrollPane as target:
+            Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, target);
+            if (scrollPane != null && target.isValid()) {
+                width -= 1;
+            }
+
+            // The width and the height are calculated along the flow of the cells.
+            return verticalWrap ? new Dimension(height, width) : new Dimension(width, height);
+        }
+    }
+
+    /**
+     * Returns the alignment along the x axis. This specifies how
+     * the component would like to be aligned relative to other
+     * components. The value should be a number between 0 and 1
+     * where 0 represents alignment along the origin, 1 is aligned
+     * the furthest away from the origin, 0.5 is centered, etc.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the value <code>0.5f</code> to indicate centered
+     */
+    @Override
+    public float getLayoutAlignmentX(Container target) {
+        return 0.5f;
+    }
+
+    /**
+     * Returns the alignment along the y axis. This specifies how
+     * the component would like to be aligned relative to other
+     * components. The value should be a number between 0 and 1
+     * where 0 represents alignment along the origin, 1 is aligned
+     * the furthest away from the origin, 0.5 is centered, etc.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the value <code>0.5f</code> to indicate centered
+     */
+    @Override
+    public float getLayoutAlignmentY(Container target) {
+        return 0.5f;
+    }
+
+    /**
+     * Has no effect, since this layout manager does not use a
+     * per-component string.
+     *
+     * @param name ignored
+     * @param comp ignored
+     */
+    @Override
+    public void addLayoutComponent(String name, Component comp) {
+        // Do nothing.
+    }
+
+    /**
+     * Sets the span of the <code>comp</code> component, which is being
+     * added to the container. The constraints other than a
+     * {@link GridSpan} give the component a single cell.
+     * <p>
+     * Stops laying out the cells of the last layout pass on
+     * scrolling until the next layout pass, since the cells are
+     * stale now. Unless the component is appended to the end of the
+     * container, the measured components are checked by the
+     * following layout pass.
+     *
+     * @param comp        the component to be added
+     * @param constraints the {@link GridSpan} of the component;
+     *                    <code>null</code> or any other object for a
+     *                    single cell
+     */
+    @Override
+    public void addLayoutComponent(Component comp, Object constraints) {
+        putSpan(comp, constraints instanceof GridSpan ? (GridSpan) constraints : null);
+        windowStale = true;
+        Container parent = comp.getParent();
+        if (parent == null || feeding) {
+            return;
+        }
+        if (parent.getComponent(parent.getComponentCount() - 1) == comp) {
+            gridMetrics.markAppended(parent);
+        } else {
+            gridMetrics.markChanged(parent);
+        }
+    }
+
+    /**
+     * Forgets the span of the <code>comp</code> component, which is
+     * being removed from the container. Stops laying out the cells of
+     * the last layout pass on scrolling until the next layout pass,
+     * since the cells are stale now, and makes the following layout
+     * pass check the measured components.
+     *
+     * @param comp the component to be removed
+     */
+    @Override
+    public void removeLayoutComponent(Component comp) {
+        spans.remove(comp);
+        windowStale = true;
+        Container parent = comp.getParent();
+        if (parent != null && !feeding) {
+            gridMetrics.markChanged(parent);
+        }
+    }
+
+    /**
+     * Gets the span of the <code>comp</code> component.
+     *
+     * @param comp the component of the container
+     *
+     * @return the span of the component, which is
+     *         {@link GridSpan#SINGLE} unless the component has been
+     *         added with the other span
+     */
+    public GridSpan getSpan(Component comp) {
+        GridSpan span = spans.get(comp);
+        return span != null ? span : GridSpan.SINGLE;
+    }
+
+    /**
+     * Changes the span of the <code>comp</code> component of the
+     * <code>target</code> container, and requests a layout pass of the
+     * container.
+     *
+     * @param target the container in which to do the layout
+     * @param comp   the component of the container
+     * @param span   the new span of the component, or <code>null</code>
+     *               for a single cell
+     */
+    public void setSpan(Container target, Component comp, GridSpan span) {
+        synchronized (target.getTreeLock()) {
+            putSpan(comp, span);
+            gridMetrics.discardMeasurements();
+        }
+        requestLayout(target);
+    }
+
+    /**
+     * Remembers the span of the <code>comp</code> component, unless it
+     * is a single cell.
+     *
+     * @param comp the component of the container
+     * @param span the span of the component, or <code>null</code>
+     */
+    private void putSpan(Component comp, GridSpan span) {
+        if (span == null || span.equals(GridSpan.SINGLE)) {
+            spans.remove(comp);
+        } else {
+            spans.put(comp, span);
+        }
+    }
+
+    /**
+     * Lays out the container. This method lets each <i>visible</i>
+     * component take its preferred size by reshaping the components
+     * in the target container in order to satisfy the insets and
+     * gaps of this <code>UniformGridLayout</code> object.
+     * <p>
+     * If the grid geometry has not been changed since the previous
+     * call, only the cells starting from the first changed one are
+     * reshaped. If the viewport windowing is enabled, only the cells
+     * inside the visible part of the container are reshaped.
+     *
+     * @param target the container in which to do the layout
+     */
+    @Override
+    public void layoutContainer(Container target) {
+        synchronized (target.getTreeLock()) {
+            if (FLIGHT_RECORDER) {
+                UniformGridEvents.recordLayout(this, target);
+            } else {
+                layOut(target, false);
+            }
+        }
+    }
+
+    /**
+     * Lays out the <code>target</code> container, as the
+     * {@link #layoutContainer(Container)} method does. The caller must
+     * hold the tree lock.
+     *
+     * @param target the container in which to do the layout
+     * @param timed  whether to store the time the calculation of the
+     *               grid metrics takes into the
+     *               {@link #metricsDuration}
+     *
+     * @return the index of the first changed cell
+     */
+    int layOut(Container target, boolean timed) {
+        windowStale = false;
+        UniformGridProfiler profiler = this.profiler;
+        long passStart = 0;
+        if (profiler != null) {
+            passStart = System.nanoTime();
+            profiler.passStarted();
+        }
+        layoutState.profiler = profiler;
+        nextLayoutState.profiler = profiler;
+        long metricsStart = timed ? System.nanoTime() : 0;
+        calculateMetrics(target);
+        if (timed) {
+            metricsDuration = System.nanoTime() - metricsStart;
+        }
+        cancelProgressiveTask();
+        finishTransition();
+
+        LayoutState prev = layoutState;
+        LayoutState next;
+        int placedFrom = prev.windowFrom;
+        int placedTo = prev.windowTo;
+        BitSet unplaced = prev.pending;
+        long placedOffsetY = prev.offsetY;
+        int changedFrom;
+        Insets insets = getFlowInsets();
+        int vgap = getFlowVgap();
+        if (gridMetrics.stableCells == prev.cellsCount && prev.hasSameGeometry(gridMetrics, insets, vgap)) {
+            // Only new cells have been appended, or put into the cells of the replaced ones.
+            changedFrom = prev.cellsCount;
+            BitSet replaced = gridMetrics.replacedCells;
+            if (!replaced.isEmpty()) {
+                for (int i = replaced.nextSetBit(0); i >= 0 && i < prev.cellsCount; i = replaced.nextSetBit(i + 1)) {
+                    if (cellIndices != null && i < indexedCells) {
+                        cellIndices.remove(prev.cells[i]);
+                        cellIndices.put(gridMetrics.cells[i], i);
+                    }
+                }
+                prev.replaceCells(gridMetrics, replaced);
+                unplaced = unplaced != null ? (BitSet) unplaced.clone() : new BitSet();
+                unplaced.or(replaced);
+            }
+            prev.appendCells(gridMetrics, insets, vgap);
+            next = prev;
+        } else {
+            next = nextLayoutState;
+            next.update(gridMetrics, insets, vgap);
+            next.offsetY = prev.offsetY;
+            next.viewY = prev.viewY;
+            // Cells before the first changed one keep their place, unless the grid geometry has been changed.
+            changedFrom = next.hasSameGeometry(prev) ? prev.firstChangedCell(next) : 0;
+        }
+
+        next.pending = null;
+        next.damage = startRepaintTracking(target);
+        // The spanned and the masonry cells are not placed row by row, so they are not windowed.
+        boolean rowMajor = next.isRowMajor();
+        if (isWindowed() && rowMajor) {
+            installViewportTracker(target);
+            computeWindow(target, next);
+            if (next.offsetY != placedOffsetY) {
+                // The whole grid has been shifted within the container.
+                changedFrom = 0;
+            }
+            parkCells(target, prev, placedFrom, placedTo, next, changedFrom);
+            placeCells(next, next.windowFrom, next.windowTo, changedFrom, placedFrom, placedTo, unplaced);
+        } else if (progressiveBudget > 0 && rowMajor) {
+            installViewportTracker(target);
+            parkFilteredCells(target, prev, placedFrom, placedTo, next, changedFrom);
+            layoutProgressively(target, next, changedFrom, placedFrom, placedTo, unplaced);
+        } else {
+            uninstallViewportTracker();
+            parkFilteredCells(target, prev, placedFrom, placedTo, next, changedFrom);
+            next.windowFrom = 0;
+            next.windowTo = next.cellsCount;
+            placeCells(next, next.windowFrom, next.windowTo, changedFrom, placedFrom, placedTo, unplaced);
+        }
+
+        if (next != prev) {
+            layoutState = next;
+            nextLayoutState = prev;
+            if (transitionDuration > 0 && next.pending == null && rowMajor && prev.isRowMajor()
+                    && !next.hasSameGeometry(prev) && target.isShowing() && target instanceof JComponent) {
+                startTransition(target, prev, next);
+            }
+        }
+        gridMetrics.markLaidOut(target);
+        indexedCells = Math.min(indexedCells, changedFrom);
+        previewLow = -1;
+        previewHigh = -1;
+        modelToView = null;
+        viewToModel = null;
+        if (next.damage != null) {
+            next.damage = null;
+            finishRepaintTracking((JComponent) target);
+        }
+
+        if (gridMetrics.presetSizes != null && gridMetrics.presetUsed && snapshotVerifier == null) {
+            // Check the loaded sizes after the first frame has been painted.
+            snapshotVerifier = new SnapshotVerifier(target);
+            SwingUtilities.invokeLater(snapshotVerifier);
+        }
+        if (profiler != null) {
+            profiler.passFinished(target, System.nanoTime() - passStart);
+            gridMetrics.clearProfiledSizes();
+        }
+        return changedFrom;
+    }
+
+    /**
+     * The <code>SnapshotVerifier</code> checks the preferred sizes
+     * loaded from a snapshot against the actual ones, and revalidates
+     * the container if they differ.
+     */
+    private class SnapshotVerifier implements Runnable {
+        private final Container target;
+
+        SnapshotVerifier(Container target) {
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            synchronized (target.getTreeLock()) {
+                snapshotVerifier = null;
+                if (gridMetrics.verifyPresetSizes(target)) {
+                    return;
+                }
+            }
+            requestLayout(target);
+        }
+    }
+
+    /**
+     * Starts collecting the bounds of the moved cells, if the targeted
+     * repaint is enabled and possible for the <code>target</code>
+     * container.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the collector of the moved cells bounds, or
+     *         <code>null</code> if the usual repaint should be done
+     */
+    private RepaintBands startRepaintTracking(Container target) {
+        if (!targetedRepaint || !(target instanceof JComponent) || !target.isShowing()) {
+            return null;
+        }
+        JComponent component = (JComponent) target;
+        if (!RepaintManager.currentManager(component).getDirtyRegion(component).isEmpty()) {
+            // The container is going to be repainted anyway.
+            return null;
+        }
+        if (repaintBands == null) {
+            repaintBands = new RepaintBands();
+        }
+        repaintBands.clear();
+        return repaintBands;
+    }
+
+    /**
+     * Requests the repaint of the bands of the rows in which the cells
+     * have been moved. The repaint manager coalesces the requests with
+     * the ones made by the moved cells themselves.
+     *
+     * @param target the container in which to do the layout
+     */
+    private void finishRepaintTracking(JComponent target) {
+        List<Rectangle> bands = repaintBands.merge(target.getVisibleRect(), Math.max(verticalWrap ? 0 : vgap, 0));
+        repaintBands.clear();
+        for (Rectangle band : bands) {
+            target.repaint(band);
+        }
+    }
+
+    /**
+     * Returns whether only the cells inside the visible part of the
+     * container are laid out, either because the viewport windowing
+     * or the virtual coordinates are enabled.
+     *
+     * @return <code>true</code> if the layout is windowed
+     */
+    private boolean isWindowed() {
+        return viewportWindowing || virtualCoordinates;
+    }
+
+    /**
+     * Limits the height of the grid to the height the container could
+     * have: the {@link #VIRTUAL_HEIGHT_LIMIT} if the virtual
+     * coordinates are enabled, or {@link Integer#MAX_VALUE} otherwise.
+     *
+     * @param height the height of the grid
+     *
+     * @return the preferred height of the container
+     */
+    private int limitHeight(long height) {
+        return (int) Math.min(height, virtualCoordinates ? VIRTUAL_HEIGHT_LIMIT : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calculates the height of the grid, including the insets, in
+     * <code>long</code> so that it does not overflow.
+     *
+     * @param rows       the number of the grid rows
+     * @param cellHeight the height of the grid cell
+     * @param vgap       the space between the grid rows
+     * @param insets     the insets of the layout
+     *
+     * @return the height of the grid
+     */
+    private static long getGridHeight(int rows, int cellHeight, int vgap, Insets insets) {
+        return insets.top + ((long) (cellHeight + vgap) * rows - vgap) + insets.bottom;
+    }
+
+    /**
+     * Calculates the height of the grid of the <code>metrics</code>,
+     * including the insets: either the height of the grid rows, or
+     * the height of the tallest masonry column.
+     *
+     * @param metrics the calculated grid metrics
+     * @param vgap    the space between the grid rows
+     * @param insets  the insets of the layout
+     *
+     * @return the height of the grid
+     */
+    private static long getGridHeight(GridMetrics metrics, int vgap, Insets insets) {
+        if (metrics.cellTops != null) {
+            return insets.top + metrics.masonryHeight + insets.bottom;
+        }
+        return getGridHeight(metrics.rows, metrics.cellSize.height, vgap, insets);
+    }
+
+    /**
+     * Calculates the grid metrics for the <code>target</code>
+     * container, recording the calculation if the flight recorder is
+     * available.
+     *
+     * @param target the container in which to do the layout
+     */
+    private void calculateMetrics(Container target) {
+        if (FLIGHT_RECORDER) {
+            UniformGridEvents.recordMetrics(this, target);
+        } else {
+            computeMetrics(target);
+        }
+    }
+
+    /**
+     * Calculates the grid metrics for the <code>target</code>
+     * container. If the cell filter has been narrowed, tries to
+     * filter only the current cells first. If the fast append or the
+     * live feed mode is enabled, tries to account only the appended
+     * components first.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the kind of the calculation that has been done
+     */
+    String computeMetrics(Container target) {
+        if (preparedTarget == target) {
+            preparedTarget = null;
+            return UniformGridEvents.PREPARED;
+        }
+        configureMetrics();
+        Insets insets = getFlowInsets();
+        int hgap = getFlowHgap();
+        if (gridMetrics.narrowing && gridMetrics.calculateNarrowed(target, insets, hgap)) {
+            return UniformGridEvents.NARROWED;
+        }
+        if (gridMetrics.calculateZoomed(target, insets, hgap)) {
+            return UniformGridEvents.ZOOMED;
+        }
+        boolean incremental = fastAppend || feedCapacity > 0 || masonry;
+        if (incremental && gridMetrics.calculateAppended(target, insets, hgap)) {
+            return UniformGridEvents.APPENDED;
+        }
+        gridMetrics.calculate(target, insets, hgap);
+        return UniformGridEvents.FULL;
+    }
+
+    /**
+     * Checks whether the Java Flight Recorder is available, without
+     * loading the classes of the events.
+     *
+     * @return <code>true</code> if the events could be recorded
+     */
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, UniformGridLayout.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Measures the components of the <code>target</code> container,
+     * leaving the rest of the grid metrics calculation to the caller.
+     *
+     * @param target the container in which to do the layout
+     *
+     * @return the grid metrics to be resolved
+     *
+     * @see GridMetrics#resolve()
+     */
+    GridMetrics measureMetrics(Container target) {
+        synchronized (target.getTreeLock()) {
+            configureMetrics();
+            gridMetrics.measure(target, getFlowInsets(), getFlowHgap());
+            return gridMetrics;
+        }
+    }
+
+    /**
+     * Calculates the grid metrics of the <code>target</code> container
+     * without laying it out, for example, to print its cells. The
+     * returned metrics belong to the layout manager, so they are only
+     * valid until the next calculation.
+     *
+     * @param target the container whose cells are taken
+     *
+     * @return the calculated grid metrics
+     *
+     * @see UniformGridPrintable
+     */
+    GridMetrics takeMetrics(Container target) {
+        synchronized (target.getTreeLock()) {
+            calculateMetrics(target);
+            return gridMetrics;
+        }
+    }
+
+    /**
+     * Validates the <code>target</code> container, using the grid
+     * metrics measured by the {@link #measureMetrics(Container)}
+     * method and then resolved.
+     *
+     * @param target the container in which to do the layout
+     */
+    void validateMeasured(Container target) {
+        preparedTarget = target;
+        try {
+            target.validate();
+        } finally {
+            preparedTarget = null;
+        }
+    }
+
+    /**
+     * Makes the following layout pass check the measured components
+     * of the <code>target</code> container, unless the container is
+     * invalidated because it has been resized, or to be revalidated
+     * after components have been appended to it.
+     *
+     * @param target the container which is invalidated
+     */
+    @Override
+    public void invalidateLayout(Container target) {
+        if (!feeding) {
+            gridMetrics.markInvalidated(target);
+        }
+    }
+
+    /**
+     * Lays out the cells that have been scrolled into the view, and
+     * collapses the cells that have been scrolled out of the view.
+     * The grid geometry of the last layout pass is used, so the
+     * components are not measured again. Nothing is done if the
+     * components have been added or removed since the last layout
+     * pass, since the cells of the pass are stale then; the next
+     * layout pass will lay them out anyway.
+     *
+     * @param target the container in which to do the layout
+     */
+    protected void updateWindow(Container target) {
+        synchronized (target.getTreeLock()) {
+            LayoutState state = layoutState;
+            boolean windowed = isWindowed() && state.isRowMajor();
+            if (state.valid && !windowed && state.pending != null && !windowStale) {
+                // Lay out the pending cells which have been scrolled into the view.
+                int windowFrom = state.windowFrom;
+                int windowTo = state.windowTo;
+                computeWindow(target, state);
+                placePendingCells(state, state.windowFrom, state.windowTo);
+                state.windowFrom = windowFrom;
+                state.windowTo = windowTo;
+                return;
+            }
+            if (!state.valid || !windowed || windowStale) {
+                return;
+            }
+
+            int prevFrom = state.windowFrom;
+            int prevTo = state.windowTo;
+            long prevOffsetY = state.offsetY;
+            computeWindow(target, state);
+            // If the grid has been shifted within the container, all the cells in the window are moved.
+            int changedFrom = state.offsetY == prevOffsetY ? state.cellsCount : 0;
+            if (state.windowFrom == prevFrom && state.windowTo == prevTo && changedFrom != 0) {
+                return;
+            }
+
+            parkCells(target, state, prevFrom, prevTo, state, changedFrom);
+            placeCells(state, state.windowFrom, state.windowTo, changedFrom, prevFrom, prevTo, null);
+        }
+    }
+
+    /**
+     * Calculates the range of the cells that intersect the visible
+     * part of the <code>target</code> container, extended by one row
+     * above and below, and stores it as the window of the
+     * <code>state</code>. If the virtual coordinates are enabled, also
+     * maps the visible part of the container into the grid.
+     *
+     * @param target the container in which to do the layout
+     * @param state  the grid geometry
+     *
+     * @return the visible part of the container, or <code>null</code>
+     *         if it cannot be determined and the window covers all the
+     *         cells
+     */
+    private Rectangle computeWindow(Container target, LayoutState state) {
+        if (state.cols == 0 || state.rowStep <= 0 || !(target instanceof JComponent)) {
+            state.windowFrom = 0;
+            state.windowTo = state.cellsCount;
+            state.offsetY = 0;
+            return null;
+        }
+
+        Rectangle visible = ((JComponent) target).getVisibleRect();
+        if (visible.isEmpty()) {
+            state.windowFrom = 0;
+            state.windowTo = 0;
+            return visible;
+        }
+
+        // The rows of the cells are the columns of the container, if the cells flow in the columns.
+        Rectangle flow = state.transposed
+                ? new Rectangle(visible.y, visible.x, visible.height, visible.width) : visible;
+        state.offsetY = computeOffsetY(target, state, flow);
+        state.viewY = flow.y;
+        long top = flow.y + state.offsetY;
+        long firstRow = Math.max(0, Math.floorDiv(top - state.originY, state.rowStep) - 1);
+        long lastRow = Math.floorDiv(top + flow.height - 1 - state.originY, state.rowStep) + 1;
+        state.windowFrom = (int) Math.min(firstRow * state.cols, state.cellsCount);
+        state.windowTo = (int) Math.max(state.windowFrom, Math.min((lastRow + 1) * state.cols, state.cellsCount));
+        return visible;
+    }
+
+    /**
+     * Calculates the difference between the y coordinates of the grid
+     * and the y coordinates of the <code>target</code> container, or
+     * between the x coordinates if the cells flow in the columns. It
+     * is non-zero only if the virtual coordinates are enabled and the
+     * grid is taller than the container.
+     *
+     * @param target  the container in which to do the layout
+     * @param state   the grid geometry
+     * @param visible the visible part of the container, transposed if
+     *                the cells flow in the columns
+     *
+     * @return the offset of the grid
+     */
+    private long computeOffsetY(Container target, LayoutState state, Rectangle visible) {
+        long scrollRange = (state.transposed ? target.getWidth() : target.getHeight()) - visible.height;
+        long gridRange = state.gridHeight - visible.height;
+        if (!virtualCoordinates || gridRange <= scrollRange || scrollRange <= 0) {
+            return 0;
+        }
+
+        long top;
+        if (visible.y <= 0) {
+            top = 0;
+        } else if (visible.y >= scrollRange) {
+            top = gridRange;
+        } else if (Math.abs(visible.y - state.viewY) < visible.height) {
+            // Small scrolls move the grid by about the same distance, drifting towards the proportional position.
+            long scrolled = visible.y - state.viewY;
+            long kept = visible.y + state.offsetY;
+            long proportional = (long) ((double) visible.y * gridRange / scrollRange);
+            long remaining = scrolled > 0 ? scrollRange - state.viewY : state.viewY;
+            top = kept;
+            if (scrolled != 0 && remaining > 0) {
+                top += Math.round((double) (proportional - kept) * Math.abs(scrolled) / remaining);
+            }
+            // The grid never moves against the scroll.
+            long previous = state.viewY + state.offsetY;
+            top = scrolled > 0 ? Math.max(top, previous) : scrolled < 0 ? Math.min(top, previous) : top;
+            top = Math.min(Math.max(top, 0), gridRange);
+        } else {
+            top = (long) ((double) visible.y * gridRange / scrollRange);
+        }
+        return top - visible.y;
+    }
+
+    /**
+     * Collects the cells of the last layout pass that may intersect
+     * the <code>clip</code> area of the <code>target</code> container:
+     * the cells of the laid out window in the rows which cross the
+     * area. The container may paint only these cells instead of
+     * visiting all its children.
+     *
+     * @param target the container in which to do the layout
+     * @param clip   the area to be painted, or <code>null</code> if
+     *               the whole container is painted
+     * @param cells  the list to put the cells to
+     *
+     * @return <code>false</code> if the cells of the last layout pass
+     *         might not match the children of the container, so all
+     *         the children have to be visited
+     */
+    boolean collectCells(Container target, Rectangle clip, List<Component> cells) {
+        synchronized (target.getTreeLock()) {
+            cells.clear();
+            LayoutState state = layoutState;
+            // The cells shifted by the move preview, the spanned and the masonry cells are not in the rows.
+            if (!state.valid || windowStale || previewLow >= 0 || !state.isRowMajor()
+                    || gridMetrics.measuredContainer != target) {
+                return false;
+            }
+
+            int from = state.windowFrom;
+            int to = state.windowTo;
+            if (clip != null && state.cols > 0 && state.rowStep > 0) {
+                // The rows of the grid are the columns of the container, if the cells flow in the columns.
+                Rectangle flow = state.transposed ? new Rectangle(clip.y, clip.x, clip.height, clip.width) : clip;
+                long top = flow.y + state.offsetY - state.originY;
+                long firstRow = Math.max(0, Math.floorDiv(top, state.rowStep));
+                long lastRow = Math.floorDiv(top + flow.height - 1, state.rowStep);
+                from = (int) Math.max(from, Math.min(firstRow * state.cols, state.cellsCount));
+                to = (int) Math.min(to, Math.max(0, (lastRow + 1) * state.cols));
+            }
+            for (int i = from; i < to; i++) {
+                cells.add(state.cells[i]);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reshapes the cells in the range [<code>from</code>,
+     * <code>to</code>) of the <code>state</code>, skipping the cells
+     * which have been neither changed nor collapsed.
+     *
+     * @param state       the grid geometry and cells to lay out
+     * @param from        the first cell to lay out
+     * @param to          the cell after the last cell to lay out
+     * @param changedFrom the index of the first changed cell
+     * @param placedFrom  the first cell laid out by the previous pass
+     * @param placedTo    the cell after the last cell laid out by the
+     *                    previous pass
+     * @param unplaced    the cells left pending by the previous pass,
+     *                    or replaced in place, or <code>null</code>
+     */
+    private void placeCells(LayoutState state, int from, int to, int changedFrom, int placedFrom, int placedTo,
+                            BitSet unplaced) {
+        // Only the cells left unplaced are laid out within the range of the kept cells.
+        int keptFrom = Math.min(Math.max(from, placedFrom), to);
+        int keptTo = Math.max(Math.min(Math.min(to, placedTo), changedFrom), keptFrom);
+        for (int i = from; i < keptFrom; i++) {
+            state.placeCell(i);
+        }
+        if (unplaced != null) {
+            for (int i = unplaced.nextSetBit(keptFrom); i >= 0 && i < keptTo; i = unplaced.nextSetBit(i + 1)) {
+                state.placeCell(i);
+            }
+        }
+        for (int i = keptTo; i < to; i++) {
+            state.placeCell(i);
+        }
+    }
+
+    /**
+     * Reshapes the pending cells of the <code>state</code> in the
+     * range [<code>from</code>, <code>to</code>).
+     *
+     * @param state the grid geometry and cells to lay out
+     * @param from  the first cell to lay out
+     * @param to    the cell after the last cell to lay out
+     */
+    private void placePendingCells(LayoutState state, int from, int to) {
+        BitSet pending = state.pending;
+        for (int i = pending.nextSetBit(from); i >= 0 && i < to; i = pending.nextSetBit(i + 1)) {
+            state.placeCell(i);
+            pending.clear(i);
+        }
+    }
+
+    /**
+     * Lays out the changed cells inside the visible part of the
+     * container, and posts the task that lays out the rest of the
+     * changed cells.
+     *
+     * @param target      the container in which to do the layout
+     * @param state       the grid geometry and cells to lay out
+     * @param changedFrom the index of the first changed cell
+     * @param placedFrom  the first cell laid out by the previous pass
+     * @param placedTo    the cell after the last cell laid out by the
+     *                    previous pass
+     * @param unplaced    the cells left pending by the previous pass,
+     *                    or replaced in place, or <code>null</code>
+     */
+    private void layoutProgressively(Container target, LayoutState state, int changedFrom, int placedFrom,
+                                     int placedTo, BitSet unplaced) {
+        int count = state.cellsCount;
+        BitSet pending = new BitSet(count);
+        pending.set(changedFrom, count);
+        pending.set(0, Math.min(placedFrom, changedFrom));
+        pending.set(Math.min(placedTo, changedFrom), changedFrom);
+        if (unplaced != null) {
+            BitSet previous = unplaced.get(0, changedFrom);
+            pending.or(previous);
+        }
+
+        Rectangle visible = computeWindow(target, state);
+        state.pending = pending;
+        placePendingCells(state, state.windowFrom, state.windowTo);
+        int resumeFrom = state.windowTo;
+        state.windowFrom = 0;
+        state.windowTo = count;
+
+        // Collapse the pending components which would obscure the visible cells.
+        if (visible != null) {
+            for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+                Component component = state.cells[i];
+                if (component.getWidth() > 0 && component.getHeight() > 0
+                        && visible.intersects(component.getBounds())) {
+                    state.reshape(component, component.getX(), component.getY(), 0, 0);
+                }
+            }
+        }
+
+        if (pending.isEmpty()) {
+            state.pending = null;
+        } else {
+            progressiveTask = new ProgressiveTask(target, state, resumeFrom);
+            SwingUtilities.invokeLater(progressiveTask);
+        }
+    }
+
+    /**
+     * Stops laying out the rest of the cells of the previous pass.
+     */
+    private void cancelProgressiveTask() {
+        if (progressiveTask != null) {
+            progressiveTask.cancelled = true;
+            progressiveTask = null;
+        }
+    }
+
+    /**
+     * The <code>ProgressiveTask</code> lays out the pending cells in
+     * chunks, reposting itself to the event dispatch thread until all
+     * the cells are laid out.
+     */
+    private class ProgressiveTask implements Runnable {
+        private final Container target;
+        private final LayoutState state;
+        private int cursor;
+        private boolean cancelled;
+
+        ProgressiveTask(Container target, LayoutState state, int cursor) {
+            this.target = target;
+            this.state = state;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void run() {
+            synchronized (target.getTreeLock()) {
+                if (cancelled || state.pending == null || windowStale) {
+                    return;
+                }
+
+                BitSet pending = state.pending;
+                long deadline = System.nanoTime() + progressiveBudget * 1000000L;
+                int placed = 0;
+                while (true) {
+                    int i = pending.nextSetBit(cursor);
+                    if (i < 0) {
+                        i = pending.nextSetBit(0);
+                        if (i < 0) {
+                            // All the cells have been laid out.
+                            state.pending = null;
+                            progressiveTask = null;
+                            return;
+                        }
+                    }
+                    state.placeCell(i);
+                    pending.clear(i);
+                    cursor = i + 1;
+
+                    // Checking the time is not free, so do it once per a few cells.
+                    if (++placed % 32 == 0 && System.nanoTime() >= deadline) {
+                        break;
+                    }
+                }
+            }
+            SwingUtilities.invokeLater(this);
+        }
+    }
+
+    /**
+     * Starts moving the visible cells of the <code>target</code>
+     * container from their bounds in the <code>from</code> state to
+     * the bounds in the <code>to</code> state, which is the current
+     * one. The cells are put back to the <code>from</code> bounds
+     * before they are painted.
+     *
+     * @param target the container in which to do the layout
+     * @param from   the previous grid geometry, which is taken over by
+     *               the transition
+     * @param to     the new grid geometry
+     */
+    private void startTransition(Container target, LayoutState from, LayoutState to) {
+        // The previous state is kept by the transition, so the next pass needs another one.
+        nextLayoutState = new LayoutState();
+        transition = new Transition(target, from, to);
+        transitions.add(transition);
+        transition.step();
+        getTransitionTimer().start();
+    }
+
+    /**
+     * Returns the timer that drives all the transitions, creating it if
+     * needed. The timer coalesces the frames the event dispatch thread
+     * has missed.
+     *
+     * @return the transition timer
+     */
+    private static Timer getTransitionTimer() {
+        if (transitionTimer == null) {
+            transitionTimer = new Timer(TRANSITION_FRAME_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    for (Transition transition : transitions.toArray(new Transition[transitions.size()])) {
+                        transition.step();
+                    }
+                }
+            });
+            transitionTimer.setCoalesce(true);
+        }
+        return transitionTimer;
+    }
+
+    /**
+     * Completes the transition in progress, if any, reshaping the
+     * cells it has moved to their new bounds.
+     */
+    private void finishTransition() {
+        if (transition != null) {
+            transition.finish();
+        }
+    }
+
+    /**
+     * The <code>Transition</code> moves the visible cells from their
+     * bounds in the previous grid geometry to the bounds in the new
+     * one. Each frame interpolates the bounds of the cells by the time
+     * elapsed since the transition has been started, so the frames
+     * which have been missed are skipped.
+     */
+    private class Transition {
+        private final Container target;
+        private final LayoutState from;
+        private final LayoutState to;
+        private final long startTime;
+        private final BitSet moved = new BitSet();
+        private final int[] fromBounds = new int[4];
+        private final int[] toBounds = new int[4];
+        private Map<Component, Integer> fromIndices;
+        private int cursor;
+
+        Transition(Container target, LayoutState from, LayoutState to) {
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.startTime = System.nanoTime();
+        }
+
+        /**
+         * Reshapes the visible cells to their bounds at the current
+         * time, or completes the transition if the time is over.
+         */
+        void step() {
+            synchronized (target.getTreeLock()) {
+                long now = System.nanoTime();
+                double t = (now - startTime) / (transitionDuration * 1000000.0);
+                if (t >= 1 || transitionDuration <= 0 || transition != this || layoutState != to
+                        || !target.isShowing()) {
+                    finish();
+                    return;
+                }
+                // Slow down towards the end.
+                double progress = 1 - (1 - t) * (1 - t);
+
+                Rectangle visible = ((JComponent) target).getVisibleRect();
+                Rectangle flow = to.transposed ? new Rectangle(visible.y, visible.x, visible.height, visible.width)
+                        : visible;
+                if (to.cols == 0 || to.rowStep <= 0 || flow.isEmpty()) {
+                    return;
+                }
+                long top = flow.y + to.offsetY;
+                long firstRow = Math.max(0, Math.floorDiv(top - to.originY, to.rowStep));
+                long lastRow = Math.floorDiv(top + flow.height - 1 - to.originY, to.rowStep);
+                int first = (int) Math.min(firstRow * to.cols, to.cellsCount);
+                int last = (int) Math.max(first, Math.min((lastRow + 1) * to.cols, to.cellsCount));
+                int count = last - first;
+
+                // Continue from the cell the previous frame has stopped at.
+                long deadline = now + TRANSITION_FRAME_BUDGET;
+                for (int n = 0; n < count; n++) {
+                    int i = first + (cursor + n) % count;
+                    int index = indexOf(to.cells[i], i);
+                    if (index >= 0) {
+                        from.getFlowBounds(index, fromBounds);
+                        to.getFlowBounds(i, toBounds);
+                        to.place(to.cells[i],
+                                interpolate(fromBounds[0], toBounds[0], progress),
+                                interpolate(fromBounds[1], toBounds[1], progress),
+                                interpolate(fromBounds[2], toBounds[2], progress),
+                                interpolate(fromBounds[3], toBounds[3], progress));
+                        moved.set(i);
+                    }
+
+                    // Checking the time is not free, so do it once per a few cells.
+                    if ((n + 1) % 32 == 0 && System.nanoTime() >= deadline) {
+                        cursor = (cursor + n + 1) % count;
+                        return;
+                    }
+                }
+                cursor = 0;
+            }
+        }
+
+        /**
+         * Reshapes the moved cells to their new bounds, unless they
+         * have been collapsed since then, and stops the transition.
+         */
+        void finish() {
+            synchronized (target.getTreeLock()) {
+                int limit = Math.min(to.windowTo, to.cellsCount);
+                for (int i = moved.nextSetBit(to.windowFrom); i >= 0 && i < limit; i = moved.nextSetBit(i + 1)) {
+                    to.placeCell(i);
+                }
+                moved.clear();
+                if (transition == this) {
+                    transition = null;
+                }
+            }
+            transitions.remove(this);
+            if (transitions.isEmpty() && transitionTimer != null) {
+                transitionTimer.stop();
+            }
+        }
+
+        /**
+         * Returns the index of the cell of the <code>component</code> in
+         * the previous grid geometry, trying the same <code>index</code>
+         * first.
+         *
+         * @return the previous index, or <code>-1</code> if the
+         *         component has not occupied a cell
+         */
+        private int indexOf(Component component, int index) {
+            if (index < from.cellsCount && from.cells[index] == component) {
+                return index;
+            }
+            if (fromIndices == null) {
+                fromIndices = new IdentityHashMap<Component, Integer>(from.cellsCount);
+                for (int i = 0; i < from.cellsCount; i++) {
+                    fromIndices.put(from.cells[i], i);
+                }
+            }
+            Integer found = fromIndices.get(component);
+            return found != null ? found : -1;
+        }
+
+        private int interpolate(int from, int to, double progress) {
+            return (int) Math.round(from + (to - from) * progress);
+        }
+    }
+
+    /**
+     * Collapses the components that have been laid out by the
+     * previous pass, but are now outside of the window of the
+     * <code>next</code> state.
+     *
+     * @param target      the container in which to do the layout
+     * @param prev        the state of the previous pass
+     * @param placedFrom  the first cell laid out by the previous pass
+     * @param placedTo    the cell after the last cell laid out by the
+     *                    previous pass
+     * @param next        the state of the current pass
+     * @param changedFrom the index of the first changed cell
+     */
+    private void parkCells(Container target, LayoutState prev, int placedFrom, int placedTo, LayoutState next,
+                           int changedFrom) {
+        Set<Component> kept = null;
+        for (int i = placedFrom; i < placedTo; i++) {
+            Component component = prev.cells[i];
+            if (i < changedFrom) {
+                // The cell has not been moved.
+                if (i >= next.windowFrom && i < next.windowTo) {
+                    continue;
+                }
+            } else {
+                // The cell might have been moved, so look for it within the new window.
+                if (kept == null) {
+                    kept = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+                    for (int j = Math.max(changedFrom, next.windowFrom); j < next.windowTo; j++) {
+                        kept.add(next.cells[j]);
+                    }
+                }
+                if (kept.contains(component)) {
+                    continue;
+                }
+            }
+            if (component.getParent() == target && component.isVisible()) {
+                next.reshape(component, component.getX(), component.getY(), 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Collapses the components that have been laid out by the
+     * previous pass, but have been rejected by the cell filter since.
+     * The whole grid is the window of a pass that is not windowed, so
+     * the other components that no longer occupy the cells have been
+     * either removed or hidden.
+     *
+     * @param target      the container in which to do the layout
+     * @param prev        the state of the previous pass
+     * @param placedFrom  the first cell laid out by the previous pass
+     * @param placedTo    the cell after the last cell laid out by the
+     *                    previous pass
+     * @param next        the state of the current pass
+     * @param changedFrom the index of the first changed cell
+     */
+    private void parkFilteredCells(Container target, LayoutState prev, int placedFrom, int placedTo,
+                                   LayoutState next, int changedFrom) {
+        if (gridMetrics.filter != null && changedFrom < placedTo) {
+            next.windowFrom = 0;
+            next.windowTo = next.cellsCount;
+            parkCells(target, prev, placedFrom, placedTo, next, changedFrom);
+        }
+    }
+
+    /**
+     * Starts tracking the viewport of the <code>target</code>
+     * container, so that the cells that are scrolled into the view are
+     * laid out.
+     *
+     * @param target the container in which to do the layout
+     */
+    private void installViewportTracker(Container target) {
+        if (viewportTracker != null && viewportTracker.target != target) {
+            uninstallViewportTracker();
+        }
+        if (viewportTracker == null) {
+            viewportTracker = new ViewportTracker(target);
+        }
+        viewportTracker.bindViewport();
+    }
+
+    /**
+     * Stops tracking the viewport of the container.
+     */
+    private void uninstallViewportTracker() {
+        if (viewportTracker != null) {
+            viewportTracker.dispose();
+            viewportTracker = null;
+        }
+    }
+
+    /**
+     * The <code>ViewportTracker</code> listens to the scrolling of
+     * the nearest viewport above the container and to the showing of
+     * the container, and lays out the cells that become visible. The
+     * viewport is looked up again whenever the container or any of
+     * its ancestors is moved to another parent.
+     */
+    private class ViewportTracker implements ChangeListener, HierarchyListener {
+        private final Container target;
+        private JViewport viewport;
+
+        ViewportTracker(Container target) {
+            this.target = target;
+            target.addHierarchyListener(this);
+        }
+
+        void bindViewport() {
+            JViewport newViewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, target);
+            if (newViewport != viewport) {
+                if (viewport != null) {
+                    viewport.removeChangeListener(this);
+                }
+                viewport = newViewport;
+                if (viewport != null) {
+                    viewport.addChangeListener(this);
+                }
+            }
+        }
+
+        void dispose() {
+            target.removeHierarchyListener(this);
+            if (viewport != null) {
+                viewport.removeChangeListener(this);
+                viewport = null;
+            }
+        }
+
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            updateWindow(target);
+        }
+
+        @Override
+        public void hierarchyChanged(HierarchyEvent e) {
+            if ((e.getChangeFlags() & HierarchyEvent.PARENT_CHANGED) != 0) {
+                bindViewport();
+            }
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && target.isShowing()) {
+                updateWindow(target);
+            }
+        }
+    }
+
+    /**
+     * The <code>GridMetrics</code> class is a helper class that
+     * allows to calculate all dynamic grid parameters, such as the
+     * cell size, the visible components count, the number of the
+     * grid rows and columns, and the horizontal gap (if it is
+     * necessary to calculate automatically).
+     *
+     * @author Sergey Povstyanov
+     * @version 1.0
+     */
+    protected static class GridMetrics {
+        /**
+         * The cell size is the property that determines the layout grid
+         * cell size. The cell size should be sufficient to accommodate
+         * the largest of the components, but not larger.
+         *
+         * @serial
+         */
+        public Dimension cellSize;
+
+        /**
+         * The number of the visible components.
+         */
+        public int componentsCount;
+
+        /**
+         * The number of the grid rows.
+         *
+         * @see #cols
+         */
+        public int rows;
+
+        /**
+         * The number of the grid columns.
+         *
+         * @see #rows
+         */
+        public int cols;
+
+        /**
+         * The space that will be added between the grid columns.
+         *
+         * @see #leadingHgap
+         * @see #trailingHgap
+         */
+        public int innerHgap;
+
+        /**
+         * The space that will be added before the first grid column.
+         *
+         * @see #innerHgap
+         * @see #trailingHgap
+         */
+        public int leadingHgap;
+
+        /**
+         * The space that will be added after the last grid column.
+         *
+         * @see #innerHgap
+         * @see #leadingHgap
+         */
+        public int trailingHgap;
+
+        /**
+         * The visible components in the order they are placed into
+         * the grid cells. Only the first {@link #componentsCount}
+         * elements are meaningful.
+         *
+         * @see #cellWidths
+         * @see #cellHeights
+         */
+        public Component[] cells;
+
+        /**
+         * The preferred widths of the {@link #cells}.
+         *
+         * @see #cellHeights
+         */
+        public int[] cellWidths;
+
+        /**
+         * The preferred heights of the {@link #cells}.
+         *
+         * @see #cellWidths
+         */
+        public int[] cellHeights;
+
+        /**
+         * The preferred widths and heights of the {@link #cells}, not
+         * scaled by the zoom.
+         */
+        private int[] baseWidths;
+        private int[] baseHeights;
+
+        /**
+         * The spans of the {@link #cells}, encoded as the extra columns
+         * in the upper 16 bits and the extra rows in the lower 16 bits,
+         * so that a single cell has the zero span.
+         *
+         * @see GridSpan
+         */
+        public int[] cellSpans;
+
+        /**
+         * The grid places of the {@link #cells}, as the indices of their
+         * top left grid cells in the row-major order, or
+         * <code>null</code> if none of the cells has a span, and each of
+         * them takes the place of its index.
+         */
+        public int[] cellSlots;
+
+        /**
+         * The distances from the top of the grid to the {@link #cells}
+         * in the masonry mode, or <code>null</code> if the cells are
+         * aligned into the rows.
+         *
+         * @see #cellColumns
+         */
+        public int[] cellTops;
+
+        /**
+         * The columns of the {@link #cells} in the masonry mode, or
+         * <code>null</code> if the cells are aligned into the rows.
+         *
+         * @see #cellTops
+         */
+        public int[] cellColumns;
+
+        /**
+         * The height of the tallest masonry column.
+         */
+        public long masonryHeight;
+
+        /**
+         * The number of the leading {@link #cells} that have not been
+         * changed since the last {@link #markLaidOut(Container)} call.
+         * The full calculation resets this value to zero, since it
+         * does not track the changes.
+         */
+        public int stableCells;
+
+        /**
+         * The {@link #cells} whose components have been replaced in
+         * place since the last {@link #markLaidOut(Container)} call. The
+         * places of the other cells are not changed by the replacement.
+         *
+         * @see #markReplaced(Container, int, Component)
+         */
+        public final BitSet replacedCells = new BitSet();
+
+        /**
+         * The {@link #cells} whose components are being replaced, and
+         * whose new components have not been measured yet.
+         */
+        private final BitSet unmeasuredCells = new BitSet();
+
+        /**
+         * The container measured by the last calculation.
+         */
+        private Container measuredContainer;
+
+        /**
+         * The number of the container components, both visible and
+         * invisible, measured by the last calculation.
+         */
+        private int measuredComponents;
+
+        /**
+         * The number of the container components that have been laid
+         * out, and therefore validated, since they were measured.
+         */
+        private int validatedComponents;
+
+        /**
+         * Whether the measured components may have been changed since
+         * the last calculation otherwise than by appending, so that they
+         * should be checked one by one.
+         *
+         * @see #markChanged(Container)
+         */
+        private boolean componentsChanged;
+
+        /**
+         * The number of the container components, including the
+         * appended ones the container has notified of.
+         */
+        private int noticedComponents;
+
+        /**
+         * Whether components have been appended since the last layout
+         * pass, so that the following invalidation of the container is
+         * expected to be the revalidation that requests the layout pass
+         * for them.
+         */
+        private boolean revalidationExpected;
+
+        /**
+         * The size of the container at the end of the last layout pass.
+         */
+        private int laidOutWidth;
+        private int laidOutHeight;
+
+        /**
+         * The width of the container, the horizontal gap and the
+         * insets used by the last calculation.
+         */
+        private int measuredWidth;
+        private int measuredHgap;
+        private int measuredLeft;
+        private int measuredRight;
+
+        /**
+         * Whether the number of the grid columns calculated by the
+         * last calculation is limited by the container width rather
+         * than by the number of the components.
+         */
+        private boolean widthLimited;
+
+        /**
+         * The maximum number of the grid columns allowed by the
+         * container width, as calculated by the last calculation.
+         */
+        private int widthCols;
+
+        /**
+         * The preferred widths and heights of the components loaded
+         * from a snapshot, in the order the components are taken, or
+         * <code>null</code> if there is no snapshot.
+         *
+         * @see UniformGridLayout#loadSnapshot(Path)
+         */
+        private IntBuffer presetSizes;
+
+        /**
+         * Whether the last calculation has used the {@link #presetSizes}.
+         */
+        private boolean presetUsed;
+
+        /**
+         * The filter of the cells, or <code>null</code> if all the
+         * visible components occupy the cells.
+         *
+         * @see UniformGridLayout#setCellFilter(Container, CellFilter)
+         */
+        private CellFilter filter;
+
+        /**
+         * Whether the {@link #filter} has been narrowed since the last
+         * calculation, so that only the current cells should be
+         * filtered.
+         *
+         * @see #calculateNarrowed(Container, Insets, int)
+         */
+        private boolean narrowing;
+
+        /**
+         * The components of the container in the order they are placed
+         * into the grid cells, or <code>null</code> if they are placed
+         * in the order of the container. The order has as many elements
+         * as the container has components, when it is in sync with the
+         * container.
+         *
+         * @see UniformGridLayout#setCellOrder(Container, int[])
+         */
+        private Component[] order;
+
+        /**
+         * Whether the {@link #order} has been replaced or changed since
+         * the last {@link #measure(Container, Insets, int)} call, other
+         * than by appending the components.
+         */
+        private boolean orderChanged;
+
+        /**
+         * The comparator the {@link #order} is sorted by, or
+         * <code>null</code>.
+         *
+         * @see UniformGridLayout#setCellComparator(Container, Comparator)
+         */
+        private Comparator<? super Component> comparator;
+
+        /**
+         * The indices of the components within the {@link #order},
+         * or <code>null</code> if they are not known. The indices are
+         * updated by each move within the order.
+         */
+        private Map<Component, Integer> orderIndices;
+
+        /**
+         * The spans of the components, shared with the layout manager.
+         */
+        private Map<Component, GridSpan> spans;
+
+        /**
+         * The number of the {@link #cells} that have a span.
+         */
+        private int spannedCount;
+
+        /**
+         * The packer of the spanned cells, or <code>null</code> if
+         * none of the cells has a span.
+         */
+        private SpanPacker packer;
+
+        /**
+         * The space between the cells of a masonry column, or
+         * <code>-1</code> if the masonry mode is disabled.
+         */
+        private int masonryGap = -1;
+
+        /**
+         * The packer of the masonry columns, or <code>null</code> if the
+         * masonry mode is disabled.
+         */
+        private MasonryPacker masonryPacker;
+
+        /**
+         * Whether the cells flow in the columns. The widths and the
+         * heights of the components are then swapped, so that the
+         * grid metrics are calculated along the flow.
+         */
+        private boolean transposed;
+
+        /**
+         * The scale factor of the preferred sizes of the components.
+         */
+        private double zoom = 1;
+
+        /**
+         * The zoom factor and the orientation used by the last
+         * calculation.
+         */
+        private double measuredZoom = 1;
+        private boolean measuredTransposed;
+
+        /**
+         * The preferred sizes, the visibility and the order of the
+         * components shared with the other views, or <code>null</code>.
+         */
+        private UniformGridGeometryIndex geometryIndex;
+
+        /**
+         * The profiler of the measurements, or <code>null</code>.
+         */
+        private UniformGridProfiler profiler;
+
+        /**
+         * The preferred sizes of the cells measured since the last
+         * layout pass, if the measurements are profiled, packed into
+         * the high and the low halves, or {@link #INCONSISTENT_SIZE}
+         * if a cell has already been reported. Only the elements of the
+         * {@link #profiledCells} are meaningful.
+         */
+        private long[] profiledSizes = new long[0];
+
+        /**
+         * The cells whose {@link #profiledSizes} have been measured since
+         * the last layout pass.
+         */
+        private final BitSet profiledCells = new BitSet();
+
+        /**
+         * The number of the <code>getPreferredSize()</code> calls made
+         * by these metrics, so that a calculation could tell whether it
+         * has measured any of the components.
+         */
+        int measureCount;
+
+        /**
+         * The sizes of the cells scaled by the recently used zoom
+         * factors, the most recently used first, or <code>null</code>.
+         */
+        private List<ZoomLevel> zoomLevels;
+
+        /**
+         * Creates a <code>GridMetrics</code> with the default
+         * <i>empty</i> state.
+         * The {@link #calculate(Container, Insets, int)} method will
+         * calculate the actual grid metrics.
+         *
+         * @see #calculate(Container, Insets, int)
+         */
+        public GridMetrics() {
+            cellSize = new Dimension(0, 0);
+            rows = 0;
+            cols = 0;
+            innerHgap = 0;
+            leadingHgap = 0;
+            trailingHgap = 0;
+            cells = new Component[0];
+            cellWidths = new int[0];
+            cellHeights = new int[0];
+            baseWidths = new int[0];
+            baseHeights = new int[0];
+            cellSpans = new int[0];
+        }
+
+        /**
+         * Calculates actual grid metrics based on the count,
+         * preferred size, and visibility of the
+         * <code>container</code> components. Insets and gaps are
+         * also taking into account.
+         *
+         * @param container the container whose components are taken
+         *                  into account when calculating grid
+         *                  metrics
+         * @param insets    the instance of the {@link Insets} class
+         *                  that specifies the top, the left, the
+         *                  bottom and the right insets values
+         * @param hgap      the initial value of the space between
+         *                  the grid columns. Negative value of the
+         *                  hgap indicates that real hgap will be
+         *                  calculated automatically; the free space
+         *                  is uniformly distributed between the grid
+         *                  columns ({@link #innerHgap}), and the
+         *                  remaining space is distributed between
+         *                  the {@link #leadingHgap} and the
+         *                  {@link #trailingHgap}.
+         *                  Positive value indicates the fixed hgap;
+         *                  this value will be copied to the
+         *                  {@link #innerHgap} filed, and the
+         *                  {@link #leadingHgap} and the
+         *                  {@link #trailingHgap} fields will be set
+         *                  to zero.
+         *
+         * @see #measure(Container, Insets, int)
+         * @see #resolve()
+         */
+        public void calculate(Container container, Insets insets, int hgap) {
+            measure(container, insets, hgap);
+            resolve();
+        }
+
+        /**
+         * Takes the visible components of the <code>container</code>
+         * and their preferred sizes, and remembers the width of the
+         * container, the insets and the gaps, which are needed to
+         * {@link #resolve()} the grid metrics. This is the only part of
+         * the calculation that accesses the components, so it must be
+         * done on the event dispatch thread.
+         *
+         * @param container the container whose components are taken
+         *                  into account when calculating grid
+         *                  metrics
+         * @param insets    the instance of the {@link Insets} class
+         *                  that specifies the top, the left, the
+         *                  bottom and the right insets values
+         * @param hgap      the initial value of the space between
+         *                  the grid columns
+         *
+         * @see #calculate(Container, Insets, int)
+         */
+        public void measure(Container container, Insets insets, int hgap) {
+            // Take the visible components count and the preferred sizes.
+            int count = container.getComponentCount();
+            int previousCount = componentsCount;
+            ensureCapacity(count);
+            componentsCount = 0;
+            spannedCount = 0;
+            // The snapshot is only valid for the same number of components.
+            if (presetSizes != null && presetSizes.limit() != count * 2) {
+                presetSizes = null;
+            }
+            IntBuffer preset = presetSizes;
+            presetUsed = preset != null;
+            if (order != null) {
+                syncOrder(container);
+            }
+            Component[] taken = filter != null || order != null ? takeComponents(container) : null;
+            boolean[] included = filter != null ? evaluateFilter(taken) : null;
+            // The items of the geometry index are the components in the order of the container.
+            Map<Component, Integer> items = geometryIndex != null && order != null ? indexComponents(container) : null;
+            for (int j = 0; j < count; j++) {
+                int item = j;
+                Component c = taken != null ? taken[j] : container.getComponent(j);
+                if (items != null) {
+                    item = items.get(c);
+                }
+                // Taking into account only the visible components accepted by the filter.
+                if ((included != null ? included[j] : c.isVisible()) && isItemVisible(item)) {
+                    if (preset != null && preset.get(2 * j) >= 0) {
+                        baseWidths[componentsCount] = preset.get(2 * j + (transposed ? 1 : 0));
+                        baseHeights[componentsCount] = preset.get(2 * j + (transposed ? 0 : 1));
+                    } else {
+                        measureCell(componentsCount, c, item);
+                    }
+                    cells[componentsCount] = c;
+                    cellWidths[componentsCount] = zoomed(baseWidths[componentsCount]);
+                    cellHeights[componentsCount] = zoomed(baseHeights[componentsCount]);
+                    cellSpans[componentsCount] = getSpan(c);
+                    if (cellSpans[componentsCount] != 0) {
+                        spannedCount++;
+                    }
+                    componentsCount += 1;
+                }
+            }
+            // Do not hold the components that are no longer the cells.
+            if (previousCount > componentsCount) {
+                Arrays.fill(cells, componentsCount, previousCount, null);
+            }
+
+            measuredContainer = container;
+            measuredComponents = count;
+            validatedComponents = 0;
+            componentsChanged = false;
+            noticedComponents = count;
+            revalidationExpected = false;
+            replacedCells.clear();
+            unmeasuredCells.clear();
+            orderChanged = false;
+            measuredZoom = zoom;
+            measuredTransposed = transposed;
+            zoomLevels = null;
+            measuredWidth = getAvailableLength(container);
+            measuredHgap = hgap;
+            measuredLeft = insets.left;
+            measuredRight = insets.right;
+            stableCells = 0;
+            widthLimited = false;
+            narrowing = false;
+        }
+
+        /**
+         * Returns the components of the <code>container</code> in the
+         * order they are placed into the grid cells: either the
+         * {@link #order}, or the order of the container.
+         *
+         * @param container the container whose components are taken
+         *
+         * @return the components in the order of the cells
+         */
+        private Component[] takeComponents(Container container) {
+            return order != null ? order : container.getComponents();
+        }
+
+        /**
+         * Returns the indices of the components within the
+         * <code>container</code>, which are the items of the
+         * {@link #geometryIndex}.
+         *
+         * @param container the container whose components are indexed
+         *
+         * @return the indices of the components
+         */
+        private static Map<Component, Integer> indexComponents(Container container) {
+            int count = container.getComponentCount();
+            Map<Component, Integer> items = new IdentityHashMap<Component, Integer>(count);
+            for (int j = 0; j < count; j++) {
+                items.put(container.getComponent(j), j);
+            }
+            return items;
+        }
+
+        /**
+         * Checks whether the <code>item</code> has not been hidden by
+         * the {@link #geometryIndex}.
+         *
+         * @param item the index of the component within the container
+         *
+         * @return <code>true</code> if the item may occupy a cell
+         */
+        private boolean isItemVisible(int item) {
+            return geometryIndex == null || geometryIndex.isItemVisible(item);
+        }
+
+        /**
+         * Returns the preferred size of the <code>component</code>,
+         * timing the call if the measurements are profiled. The
+         * profiler is also told whether the component has had another
+         * preferred size when it was measured for the same cell since
+         * the last layout pass.
+         *
+         * @param cell      the index of the cell
+         * @param component the component to be measured
+         *
+         * @return the preferred size of the component
+         */
+        private Dimension measureComponent(int cell, Component component) {
+            measureCount++;
+            if (profiler == null) {
+                return component.getPreferredSize();
+            }
+            long start = System.nanoTime();
+            Dimension size = component.getPreferredSize();
+            long time = System.nanoTime() - start;
+
+            // The cell is still held by the component it has been measured for, as the cells are taken afterwards.
+            long packed = (long) size.width << 32 | (size.height & 0xFFFFFFFFL);
+            long previous = profiledCells.get(cell) && cells[cell] == component ? profiledSizes[cell] : packed;
+            if (profiledSizes.length <= cell) {
+                profiledSizes = Arrays.copyOf(profiledSizes, Math.max(cell + 1, cells.length));
+            }
+            profiledSizes[cell] = previous == packed ? packed : INCONSISTENT_SIZE;
+            profiledCells.set(cell);
+            profiler.measured(component, time, previous != packed && previous != INCONSISTENT_SIZE);
+            return size;
+        }
+
+        /**
+         * Forgets the preferred sizes measured since the last layout
+         * pass, which is about to be finished, or when the profiler is
+         * replaced.
+         */
+        void clearProfiledSizes() {
+            profiledCells.clear();
+        }
+
+        /**
+         * Takes the preferred size of the <code>item</code> from the
+         * {@link #geometryIndex}, or measures the component and puts its
+         * size into the index, and stores the size as the base size of
+         * the <code>cell</code>.
+         *
+         * @param cell the index of the cell
+         * @param c    the component of the cell
+         * @param item the index of the component within the container
+         */
+        private void measureCell(int cell, Component c, int item) {
+            UniformGridGeometryIndex index = geometryIndex;
+            int width = index != null ? index.getWidth(item) : -1;
+            int height;
+            if (width >= 0) {
+                height = index.getHeight(item);
+            } else {
+                Dimension size = measureComponent(cell, c);
+                width = size.width;
+                height = size.height;
+                if (index != null) {
+                    index.putSize(item, width, height);
+                }
+            }
+            baseWidths[cell] = transposed ? height : width;
+            baseHeights[cell] = transposed ? width : height;
+        }
+
+        /**
+         * Replaces the order of the cells, and sorts it with the
+         * <code>comparator</code>, if any.
+         *
+         * @param container  the container whose components are ordered
+         * @param order      the components in the order of the cells,
+         *                   or <code>null</code>
+         * @param comparator the comparator of the cells, or
+         *                   <code>null</code>
+         */
+        private void setOrder(Container container, Component[] order, Comparator<? super Component> comparator) {
+            this.order = order;
+            this.comparator = comparator;
+            orderIndices = null;
+            orderChanged = true;
+            narrowing = false;
+            if (order != null && comparator != null) {
+                Arrays.sort(order, comparator);
+            }
+        }
+
+        /**
+         * Brings the {@link #order} in sync with the components of the
+         * <code>container</code>: the removed components are dropped,
+         * and the added ones are placed after the others, or sorted in,
+         * if there is the {@link #comparator}.
+         *
+         * @param container the container whose components are ordered
+         */
+        private void syncOrder(Container container) {
+            int count = container.getComponentCount();
+            boolean current = order.length == count;
+            for (int k = 0; current && k < count; k++) {
+                current = order[k].getParent() == container;
+            }
+            if (current) {
+                return;
+            }
+
+            Set<Component> ordered = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+            Component[] synced = new Component[count];
+            int kept = 0;
+            for (Component c : order) {
+                if (c.getParent() == container && ordered.add(c)) {
+                    synced[kept++] = c;
+                }
+            }
+            for (int j = 0; j < count; j++) {
+                Component c = container.getComponent(j);
+                if (!ordered.contains(c)) {
+                    synced[kept++] = c;
+                }
+            }
+            order = synced;
+            orderIndices = null;
+            orderChanged = true;
+            if (comparator != null) {
+                // The sort takes linear time if only a few components have been added.
+                Arrays.sort(order, comparator);
+            }
+        }
+
+        /**
+         * Moves the <code>component</code> to its place within the
+         * sorted {@link #order}.
+         *
+         * @param container the container whose components are ordered
+         * @param component the component whose sort key has been
+         *                  changed
+         *
+         * @return <code>true</code> if the component has been moved
+         */
+        private boolean resort(Container container, Component component) {
+            if (order == null || comparator == null || component.getParent() != container) {
+                return false;
+            }
+            if (order.length != container.getComponentCount()) {
+                syncOrder(container);
+            }
+            int from = indexInOrder(component);
+            int count = order.length;
+
+            // Search for the upper bound of the key among the other components.
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                Component other = order[middle < from ? middle : middle + 1];
+                if (comparator.compare(other, component) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return moveInOrder(from, low);
+        }
+
+        /**
+         * Moves the <code>component</code> before the
+         * <code>anchor</code> within the {@link #order}, creating the
+         * order from the current one if necessary, and discards the
+         * {@link #comparator}.
+         *
+         * @param container the container whose components are ordered
+         * @param component the moved component
+         * @param anchor    the component to move before, or
+         *                  <code>null</code> to move after the
+         *                  <code>last</code> one
+         * @param last      the component of the last cell
+         *
+         * @return <code>true</code> if the component has been moved
+         */
+        private boolean moveCell(Container container, Component component, Component anchor, Component last) {
+            if (component == anchor || component.getParent() != container
+                    || (anchor != null ? anchor : last).getParent() != container) {
+                return false;
+            }
+            if (order == null) {
+                order = takeComponents(container);
+                orderIndices = null;
+                orderChanged = true;
+            } else if (order.length != container.getComponentCount()) {
+                syncOrder(container);
+            }
+            comparator = null;
+
+            int from = indexInOrder(component);
+            int to;
+            if (anchor != null) {
+                int index = indexInOrder(anchor);
+                to = index > from ? index - 1 : index;
+            } else {
+                int index = indexInOrder(last);
+                to = index >= from ? index : index + 1;
+            }
+            return moveInOrder(from, to);
+        }
+
+        /**
+         * Moves the component of the {@link #order} from the
+         * <code>from</code> place to the <code>to</code> place,
+         * shifting the components between them and updating their
+         * {@link #orderIndices}.
+         *
+         * @param from the current place of the component
+         * @param to   the new place of the component
+         *
+         * @return <code>true</code> if the component has been moved
+         */
+        private boolean moveInOrder(int from, int to) {
+            if (from == to) {
+                return false;
+            }
+            Component component = order[from];
+            if (to < from) {
+                System.arraycopy(order, to, order, to + 1, from - to);
+            } else {
+                System.arraycopy(order, from + 1, order, from, to - from);
+            }
+            order[to] = component;
+            orderChanged = true;
+            if (orderIndices != null) {
+                int last = Math.max(from, to);
+                for (int k = Math.min(from, to); k <= last; k++) {
+                    orderIndices.put(order[k], k);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the index of the <code>component</code> within the
+         * {@link #order}, which must contain it. The indices of all the
+         * components are built only once after the order has been
+         * replaced, so the lookup takes constant time.
+         *
+         * @param component the component of the container
+         *
+         * @return the index of the component
+         */
+        private int indexInOrder(Component component) {
+            if (orderIndices == null) {
+                orderIndices = new IdentityHashMap<Component, Integer>(order.length * 2);
+                for (int k = 0; k < order.length; k++) {
+                    orderIndices.put(order[k], k);
+                }
+            }
+            return orderIndices.get(component);
+        }
+
+        /**
+         * Evaluates the {@link #filter} for the visible
+         * <code>components</code>.
+         *
+         * @param components the components of the container
+         *
+         * @return whether each of the components occupies a cell
+         */
+        private boolean[] evaluateFilter(Component[] components) {
+            boolean[] included = new boolean[components.length];
+            for (int i = 0; i < components.length; i++) {
+                Component c = components[i];
+                included[i] = c.isVisible() && filter.include(c);
+            }
+            return included;
+        }
+
+        /**
+         * Tries to update the grid metrics after the {@link #filter}
+         * has been narrowed, evaluating it only for the current cells.
+         * The preferred sizes of the cells are reused, unless the cell
+         * components have been invalidated.
+         * <p>
+         * The components of the <code>container</code> must be the same
+         * as measured by the last calculation, except for their
+         * visibility, which is checked only for the current cells.
+         *
+         * @param container the container whose components are taken
+         *                  into account when calculating grid
+         *                  metrics
+         * @param insets    the instance of the {@link Insets} class
+         *                  that specifies the top, the left, the
+         *                  bottom and the right insets values
+         * @param hgap      the initial value of the space between
+         *                  the grid columns
+         *
+         * @return <code>true</code> if the grid metrics have been
+         *         updated; <code>false</code> if the full calculation
+         *         is required
+         *
+         * @see UniformGridLayout#narrowCellFilter(Container, CellFilter)
+         */
+        public boolean calculateNarrowed(Container container, Insets insets, int hgap) {
+            narrowing = false;
+            if (container != measuredContainer || container.getComponentCount() != measuredComponents
+                    || zoom != measuredZoom || geometryIndex != null || !unmeasuredCells.isEmpty()) {
+                return false;
+            }
+
+            int previousCount = componentsCount;
+            boolean[] included = evaluateFilter(Arrays.copyOf(cells, previousCount));
+            componentsCount = 0;
+            spannedCount = 0;
+            for (int i = 0; i < previousCount; i++) {
+                Component c = cells[i];
+                if (!included[i] || c.getParent() != container) {
+                    continue;
+                }
+                if (!c.isValid()) {
+                    Dimension size = measureComponent(i, c);
+                    baseWidths[i] = transposed ? size.height : size.width;
+                    baseHeights[i] = transposed ? size.width : size.height;
+                    cellWidths[i] = zoomed(baseWidths[i]);
+                    cellHeights[i] = zoomed(baseHeights[i]);
+                }
+                cells[componentsCount] = c;
+                baseWidths[componentsCount] = baseWidths[i];
+                baseHeights[componentsCount] = baseHeights[i];
+                cellWidths[componentsCount] = cellWidths[i];
+                cellHeights[componentsCount] = cellHeights[i];
+                cellSpans[componentsCount] = cellSpans[i];
+                if (cellSpans[i] != 0) {
+                    spannedCount++;
+                }
+                componentsCount += 1;
+            }
+            Arrays.fill(cells, componentsCount, previousCount, null);
+            zoomLevels = null;
+
+            measuredWidth = getAvailableLength(container);
+            measuredHgap = hgap;
+            measuredLeft = insets.left;
+            measuredRight = insets.right;
+            stableCells = 0;
+            widthLimited = false;
+            resolve();
+            return true;
+        }
+
+        /**
+         * Calculates the cell size, the number of the grid rows and
+         * columns, and the horizontal gaps from the preferred sizes
+         * taken by the last {@link #measure(Container, Insets, int)}
+         * call. This method does not access the components, so it may
+         * be called on any thread, provided that the calls are
+         * properly synchronized with the measuring.
+         *
+         * @see #calculate(Container, Insets, int)
+         */
+        public void resolve() {
+            // Calculate the actual grid cell size.
+            cellSize.width = 0;
+            cellSize.height = 0;
+            for (int i = 0; i < componentsCount; i++) {
+                cellSize.width = Math.max(cellSize.width, getUnitWidth(i, cellWidths[i]));
+                cellSize.height = Math.max(cellSize.height, getUnitHeight(i, cellHeights[i]));
+            }
+            if (masonryGap >= 0) {
+                // The masonry cells have their own heights, so there are no uniform rows.
+                cellSize.height = 0;
+            }
+            resolveGrid();
+            packCells(0);
+        }
+
+        /**
+         * Returns the span of the component, encoded as the
+         * {@link #cellSpans}.
+         *
+         * @param component the component of the container
+         *
+         * @return the encoded span
+         */
+        private int getSpan(Component component) {
+            if (spans == null || spans.isEmpty() || masonryGap >= 0) {
+                return 0;
+            }
+            GridSpan span = spans.get(component);
+            return span != null ? span.encode() : 0;
+        }
+
+        /**
+         * Returns the width of a single grid cell the specified cell
+         * needs to fit its preferred <code>width</code> into its span.
+         *
+         * @param index the index of the cell
+         * @param width the preferred width of the cell component
+         *
+         * @return the required width of the grid cell
+         */
+        private int getUnitWidth(int index, int width) {
+            int span = cellSpans[index];
+            if (span == 0) {
+                return width;
+            }
+            int cols = GridSpan.decodeColumns(span);
+            return (width + cols - 1) / cols;
+        }
+
+        /**
+         * Returns the height of a single grid cell the specified cell
+         * needs to fit its preferred <code>height</code> into its span.
+         *
+         * @param index  the index of the cell
+         * @param height the preferred height of the cell component
+         *
+         * @return the required height of the grid cell
+         */
+        private int getUnitHeight(int index, int height) {
+            int span = cellSpans[index];
+            if (span == 0) {
+                return height;
+            }
+            int rows = GridSpan.decodeRows(span);
+            return (height + rows - 1) / rows;
+        }
+
+        /**
+         * Packs the cells into the grid, if any of them has a span or
+         * the masonry mode is enabled, and updates the number of the
+         * grid rows or the height of the masonry columns. Only the cells
+         * starting from the first one that differs from the previous
+         * packing are packed again.
+         *
+         * @param stable the number of the leading cells known to be the
+         *               same as in the previous packing
+         */
+        private void packCells(int stable) {
+            if (masonryGap >= 0) {
+                cellSlots = null;
+                packer = null;
+                if (masonryPacker == null) {
+                    masonryPacker = new MasonryPacker();
+                }
+                masonryHeight = masonryPacker.pack(this, stable);
+                cellTops = masonryPacker.tops;
+                cellColumns = masonryPacker.columns;
+                return;
+            }
+            masonryPacker = null;
+            cellTops = null;
+            cellColumns = null;
+            if (spannedCount == 0 || cols == 0) {
+                cellSlots = null;
+                packer = null;
+                return;
+            }
+            if (packer == null) {
+                packer = new SpanPacker();
+            }
+            rows = packer.pack(this, stable);
+            cellSlots = packer.slots;
+        }
+
+        /**
+         * Returns whether the cells flow in the columns, so that the
+         * widths and the heights of the cells are swapped.
+         *
+         * @return <code>true</code> if the metrics are transposed
+         */
+        public boolean isTransposed() {
+            return transposed;
+        }
+
+        /**
+         * Returns the height of the cells stacked into a single masonry
+         * column.
+         *
+         * @return the height of the single column
+         */
+        public long getStackedHeight() {
+            long height = 0;
+            for (int i = 0; i < componentsCount; i++) {
+                height += cellHeights[i] + masonryGap;
+            }
+            return componentsCount > 0 ? height - masonryGap : 0;
+        }
+
+        /**
+         * Forgets the measured components, so that the following
+         * calculation measures all of them again.
+         */
+        private void discardMeasurements() {
+            measuredContainer = null;
+            stableCells = 0;
+            unmeasuredCells.clear();
+        }
+
+        /**
+         * Calculates the grid metrics for the <code>count</code> cells
+         * of the known <code>size</code>, without taking any
+         * components. Only the cell size, the number of the grid rows
+         * and columns, and the horizontal gaps are calculated; the
+         * {@link #cells} are left empty.
+         *
+         * @param count  the number of the cells
+         * @param size   the size of the cell
+         * @param width  the width available for the grid
+         * @param insets the instance of the {@link Insets} class that
+         *               specifies the top, the left, the bottom and the
+         *               right insets values
+         * @param hgap   the initial value of the space between the grid
+         *               columns
+         */
+        public void calculate(int count, Dimension size, int width, Insets insets, int hgap) {
+            if (componentsCount > 0) {
+                Arrays.fill(cells, 0, Math.min(componentsCount, cells.length), null);
+            }
+            componentsCount = count;
+            spannedCount = 0;
+            cellSlots = null;
+            packer = null;
+            cellTops = null;
+            cellColumns = null;
+            masonryPacker = null;
+            cellSize.width = size.width;
+            cellSize.height = size.height;
+            measuredContainer = null;
+            measuredComponents = 0;
+            validatedComponents = 0;
+            measuredWidth = width;
+            measuredHgap = hgap;
+            measuredLeft = insets.left;
+            measuredRight = insets.right;
+            stableCells = 0;
+            widthLimited = false;
+            resolveGrid();
+        }
+
+        /**
+         * Calculates the number of the grid rows and columns, and the
+         * horizontal gaps for the current cell size and number of the
+         * cells.
+         */
+        private void resolveGrid() {
+            // If there is no components to be laying out.
+            if (componentsCount == 0) {
+                rows = 0;
+                cols = 0;
+                innerHgap = 0;
+                leadingHgap = 0;
+                trailingHgap = 0;
+                return;
+            }
+
+            int parentWidth = measuredWidth;
+            int hgap = measuredHgap;
+
+            // Leave the space for the insets.
+            parentWidth -= measuredLeft + measuredRight;
+
+            // We need to calculate the dynamic horizontal gap if the initial horizontal gap is negative.
+            if (hgap < 0) {
+                // Minimum columns is 1, maximum columns is equals to the components count.
+                int maxCols = parentWidth / cellSize.width;
+                int cols = normalizeValue(maxCols, 1, componentsCount);
+                widthCols = maxCols;
+                int restSpace = Math.max(parentWidth - cellSize.width * cols, 0);
+                hgap = restSpace / (cols + 1);
+                restSpace = Math.max(restSpace - hgap * (cols - 1), 0);
+
+                innerHgap = hgap;
+                leadingHgap = restSpace / 2;
+                trailingHgap = restSpace - leadingHgap;
+            } else {
+                innerHgap = hgap;
+                leadingHgap = 0;
+                trailingHgap = 0;
+            }
+
+            // Leave the space for the leading and the trailing horizontal gaps.
+            parentWidth -= leadingHgap + trailingHgap;
+
+            // We need to calculate columns count (cols variable). We know if we layout cols cells with width is
+            // cellSize.width, and (cols - 1) horizontal gaps (innerHgap) between cells, we will get exactly
+            // parentWidth. Lets calculate cols value:
+            // cols * cellSize.width + (cols - 1) * innerHgap == parentWidth,
+            // cols * cellSize.width + cols * innerHgap - innerHgap == parentWidth,
+            // cols * (cellSize.width + innerHgap) == parentWidth + innerHgap,
+            // cols == (parentWidth + innerHgap) / (cellSize.width + innerHgap).
+            int maxCols = (parentWidth + innerHgap) / (cellSize.width + innerHgap);
+            cols = normalizeValue(maxCols, 1, componentsCount);
+            widthCols = measuredHgap < 0 ? Math.max(widthCols, maxCols) : maxCols;
+            widthLimited = widthCols <= componentsCount;
+            // We get the components count and append to it (cols - 1) imaginary components to handle wrapping. Then we
+            // divide this sum to the columns count to get the finally rows count.
+            rows = (componentsCount + cols - 1) / cols;
+        }
+
+        /**
+         * Tries to update the grid metrics after the zoom factor has
+         * been changed, scaling the measured preferred sizes of the
+         * components rather than measuring them again.
+         * <p>
+         * The measured components are only checked to be the same, to
+         * keep their visibility, and to be still valid if they have
+         * already been laid out. The sizes scaled by the previous zoom
+         * factor are kept, and if the sizes scaled by the new zoom
+         * factor have been kept, they are taken instead of scaling.
+         *
+         * @param container the container whose components are taken
+         *                  into account when calculating grid
+         *                  metrics
          * @param insets    the instance of the {@link Insets} class
          *                  that specifies the top, the left, the
          *                  bottom and the right insets values
          * @param hgap      the initial value of the space between
-         *                  the grid columns. Negative value of the
-         *                  hgap indicates that real hgap will be
-         *                  calculated automatically; the free space
-         *                  is uniformly distributed between the grid
-         *                  columns ({@link #innerHgap}), and the
-         *                  remaining space is distributed between
-         *                  the {@link #leadingHgap} and the
-         *                  {@link #trailingHgap}.
-         *                  Positive value indicates the fixed hgap;
-         *                  this value will be copied to the
-         *                  {@link #innerHgap} filed, and the
-         *                  {@link #leadingHgap} and the
-         *                  {@link #trailingHgap} fields will be set
-         *                  to zero.
+         *                  the grid columns
+         *
+         * @return <code>true</code> if the grid metrics have been
+         *         updated; <code>false</code> if the zoom factor has
+         *         not been changed, or the full calculation is required
+         *
+         * @see UniformGridLayout#setZoom(Container, double, boolean)
+         */
+        public boolean calculateZoomed(Container container, Insets insets, int hgap) {
+            int count = container.getComponentCount();
+            if (zoom == measuredZoom || container != measuredContainer || count != measuredComponents
+                    || transposed != measuredTransposed || (order != null && (order.length != count
+                    || geometryIndex != null))) {
+                return false;
+            }
+
+            // Make sure the measured components are the same.
+            int cell = 0;
+            for (int j = 0; j < count; j++) {
+                int item = j;
+                Component c = order != null ? order[j] : container.getComponent(j);
+                if (cell < componentsCount && cells[cell] == c) {
+                    if (!c.isVisible() || c.getParent() != container || (j < validatedComponents && !c.isValid())) {
+                        return false;
+                    }
+                    cell++;
+                } else if (c.isVisible() && (filter == null || filter.include(c)) && isItemVisible(item)) {
+                    return false;
+                }
+            }
+            if (cell != componentsCount) {
+                return false;
+            }
+            componentsChanged = false;
+
+            // Keep the current sizes, and take the sizes of the new zoom factor.
+            ZoomLevel level = takeZoomLevel(zoom);
+            if (FLIGHT_RECORDER) {
+                UniformGridEvents.commitCacheLookup(container, UniformGridEvents.ZOOM_LEVELS, level != null);
+            }
+            keepZoomLevel(new ZoomLevel(measuredZoom, cellWidths, cellHeights));
+            if (level != null) {
+                cellWidths = level.widths;
+                cellHeights = level.heights;
+            } else {
+                cellWidths = new int[cells.length];
+                cellHeights = new int[cells.length];
+                for (int i = 0; i < componentsCount; i++) {
+                    cellWidths[i] = zoomed(baseWidths[i]);
+                    cellHeights[i] = zoomed(baseHeights[i]);
+                }
+            }
+
+            measuredZoom = zoom;
+            measuredWidth = getAvailableLength(container);
+            measuredHgap = hgap;
+            measuredLeft = insets.left;
+            measuredRight = insets.right;
+            stableCells = 0;
+            widthLimited = false;
+            resolve();
+            return true;
+        }
+
+        /**
+         * Removes the sizes scaled by the <code>zoom</code> factor from
+         * the kept ones.
+         *
+         * @param zoom the zoom factor
+         *
+         * @return the kept sizes, or <code>null</code> if they have not
+         *         been kept
+         */
+        private ZoomLevel takeZoomLevel(double zoom) {
+            if (zoomLevels != null) {
+                for (int i = 0; i < zoomLevels.size(); i++) {
+                    ZoomLevel level = zoomLevels.get(i);
+                    if (level.zoom == zoom && level.widths.length == cells.length) {
+                        return zoomLevels.remove(i);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Keeps the sizes scaled by a zoom factor as the most recently
+         * used ones, forgetting the least recently used sizes if there
+         * are too many of them.
+         *
+         * @param level the scaled sizes
+         */
+        private void keepZoomLevel(ZoomLevel level) {
+            if (zoomLevels == null) {
+                zoomLevels = new ArrayList<ZoomLevel>(MAX_ZOOM_LEVELS);
+            }
+            if (zoomLevels.size() == MAX_ZOOM_LEVELS) {
+                zoomLevels.remove(MAX_ZOOM_LEVELS - 1);
+            }
+            zoomLevels.add(0, level);
+        }
+
+        /**
+         * Tries to update the grid metrics, accounting only the
+         * components appended to the end of the <code>container</code>
+         * since the last calculation.
+         * <p>
+         * The previously measured components are not measured again;
+         * if they may have been changed (see
+         * {@link #markChanged(Container)}), they are only checked to be
+         * the same, to keep their visibility, and to be still valid if
+         * they have already been laid out. The appended components must
+         * fit into the current cell size, and the number of the grid
+         * columns must not depend on the number of the components.
+         *
+         * @param container the container whose components are taken
+         *                  into account when calculating grid
+         *                  metrics
+         * @param insets    the instance of the {@link Insets} class
+         *                  that specifies the top, the left, the
+         *                  bottom and the right insets values
+         * @param hgap      the initial value of the space between
+         *                  the grid columns
+         *
+         * @return <code>true</code> if the grid metrics have been
+         *         updated; <code>false</code> if the full calculation
+         *         is required
+         *
+         * @see #calculate(Container, Insets, int)
+         */
+        public boolean calculateAppended(Container container, Insets insets, int hgap) {
+            // The masonry cells are not aligned into the rows, so they are only packed again if the grid is changed.
+            boolean masonry = masonryGap >= 0;
+            if (container != measuredContainer || componentsCount == 0 || (!widthLimited && !masonry)
+                    || (order != null && !isOrderAppendable()) || zoom != measuredZoom
+                    || hgap != measuredHgap || insets.left != measuredLeft || insets.right != measuredRight
+                    || (getAvailableLength(container) != measuredWidth && !masonry)) {
+                return false;
+            }
+
+            int count = container.getComponentCount();
+            if (count < measuredComponents || count == 0) {
+                return false;
+            }
+
+            // Make sure the measured components are the same, unless only appends have been noticed since.
+            if (componentsChanged) {
+                int cell = 0;
+                for (int j = 0; j < measuredComponents; j++) {
+                    Component c = container.getComponent(j);
+                    if (cell == j && unmeasuredCells.get(cell)) {
+                        // The replacement of the cell component is measured below.
+                        cell++;
+                    } else if (cell < componentsCount && cells[cell] == c) {
+                        if (!c.isVisible() || (j < validatedComponents && !c.isValid())) {
+                            return false;
+                        }
+                        cell++;
+                    } else if (c.isVisible() && (filter == null || filter.include(c)) && isItemVisible(j)) {
+                        return false;
+                    }
+                }
+                if (cell != componentsCount) {
+                    return false;
+                }
+                componentsChanged = false;
+            }
+
+            // Measure the components put into the cells of the replaced ones, which keep their places if they fit.
+            int stable = componentsCount;
+            for (int i = unmeasuredCells.nextSetBit(0); i >= 0; i = unmeasuredCells.nextSetBit(i + 1)) {
+                Component c = container.getComponent(i);
+                // A component of another span moves the following cells.
+                if (!c.isVisible() || (filter != null && !filter.include(c)) || !isItemVisible(i)
+                        || getSpan(c) != cellSpans[i]) {
+                    return false;
+                }
+                measureCell(i, c, i);
+                int width = zoomed(baseWidths[i]);
+                int height = zoomed(baseHeights[i]);
+                if (getUnitWidth(i, width) > cellSize.width
+                        || (!masonry && getUnitHeight(i, height) > cellSize.height)) {
+                    return false;
+                }
+                if (masonry && height != cellHeights[i]) {
+                    // The following masonry cells are stacked again, and placed again by the layout pass.
+                    stable = Math.min(stable, i);
+                    stableCells = Math.min(stableCells, i);
+                } else if (masonryPacker != null && i < masonryPacker.count) {
+                    masonryPacker.cells[i] = c;
+                } else if (packer != null && i < packer.count) {
+                    packer.cells[i] = c;
+                }
+                cells[i] = c;
+                cellWidths[i] = width;
+                cellHeights[i] = height;
+                replacedCells.set(i);
+                // The sizes kept for the other zoom factors are stale now.
+                zoomLevels = null;
+            }
+            unmeasuredCells.clear();
+
+            // Measure only the appended components.
+            ensureCapacity(componentsCount + count - measuredComponents);
+            int appendedCount = componentsCount;
+            for (int j = measuredComponents; j < count; j++) {
+                Component c = container.getComponent(j);
+                if (c.isVisible() && (filter == null || filter.include(c)) && isItemVisible(j)) {
+                    measureCell(appendedCount, c, j);
+                    int width = zoomed(baseWidths[appendedCount]);
+                    int height = zoomed(baseHeights[appendedCount]);
+                    cellSpans[appendedCount] = getSpan(c);
+                    if (!masonry && (getUnitWidth(appendedCount, width) > cellSize.width
+                            || getUnitHeight(appendedCount, height) > cellSize.height)) {
+                        return false;
+                    }
+                    cells[appendedCount] = c;
+                    cellWidths[appendedCount] = width;
+                    cellHeights[appendedCount] = height;
+                    appendedCount++;
+                }
+            }
+
+            if (appendedCount < widthCols && !masonry) {
+                return false;
+            }
+
+            for (int i = componentsCount; i < appendedCount; i++) {
+                if (cellSpans[i] != 0) {
+                    spannedCount++;
+                }
+            }
+            if (appendedCount > componentsCount) {
+                zoomLevels = null;
+            }
+            if (masonry) {
+                for (int i = componentsCount; i < appendedCount; i++) {
+                    cellSize.width = Math.max(cellSize.width, cellWidths[i]);
+                }
+                componentsCount = appendedCount;
+                measuredComponents = count;
+                noticedComponents = Math.max(noticedComponents, count);
+                measuredWidth = getAvailableLength(container);
+                appendToOrder(container);
+                resolveGrid();
+                packCells(stable);
+                return true;
+            }
+            componentsCount = appendedCount;
+            measuredComponents = count;
+            noticedComponents = Math.max(noticedComponents, count);
+            appendToOrder(container);
+            rows = (componentsCount + cols - 1) / cols;
+            packCells(stable);
+            return true;
+        }
+
+        /**
+         * Checks whether the components appended to the container could
+         * be placed after the cells of the explicit {@link #order}
+         * without the full calculation: the order is not sorted, the
+         * items of a geometry index are not mapped to the components
+         * through it, and neither it nor the measured components have
+         * been changed since the last calculation.
+         *
+         * @return <code>true</code> if the appended components could be
+         *         added to the end of the order
+         */
+        private boolean isOrderAppendable() {
+            return comparator == null && geometryIndex == null && !orderChanged && !componentsChanged
+                    && unmeasuredCells.isEmpty() && order.length == measuredComponents;
+        }
+
+        /**
+         * Adds the components appended to the <code>container</code>
+         * to the end of the explicit {@link #order}, if any, in the order
+         * of the container.
+         *
+         * @param container the container whose components are ordered
+         */
+        private void appendToOrder(Container container) {
+            if (order == null) {
+                return;
+            }
+            int ordered = order.length;
+            int count = container.getComponentCount();
+            if (count > ordered) {
+                order = Arrays.copyOf(order, count);
+                for (int j = ordered; j < count; j++) {
+                    order[j] = container.getComponent(j);
+                    if (orderIndices != null) {
+                        orderIndices.put(order[j], j);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Notes that the components of the <code>container</code> may
+         * have been changed otherwise than by appending, for example
+         * removed, hidden or invalidated, so that the following
+         * {@link #calculateAppended(Container, Insets, int)} call checks
+         * the measured components one by one.
+         *
+         * @param container the container whose components have been
+         *                  changed
+         */
+        public void markChanged(Container container) {
+            if (container == measuredContainer) {
+                componentsChanged = true;
+            }
+        }
+
+        /**
+         * Notes that a component has been appended to the end of the
+         * <code>container</code>.
+         *
+         * @param container the container the component has been
+         *                  appended to
+         */
+        public void markAppended(Container container) {
+            if (container == measuredContainer) {
+                noticedComponents = container.getComponentCount();
+                revalidationExpected = true;
+            }
+        }
+
+        /**
+         * Notes that the <code>container</code> has been invalidated. The
+         * measured components may have been changed, unless the
+         * container has been resized since the last layout pass, or
+         * components are being appended to it: the container is
+         * invalidated after a component is added, but before it is
+         * noticed, and is revalidated once the components have been
+         * appended. Hiding or showing a component always invalidates
+         * the container, so it is noticed, unless it happens between
+         * an append and the revalidation.
+         *
+         * @param container the container which is invalidated
+         *
+         * @see #markChanged(Container)
+         */
+        public void markInvalidated(Container container) {
+            if (container != measuredContainer || container.getWidth() != laidOutWidth
+                    || container.getHeight() != laidOutHeight || container.getComponentCount() > noticedComponents) {
+                return;
+            }
+            if (revalidationExpected) {
+                revalidationExpected = false;
+                return;
+            }
+            componentsChanged = true;
+        }
+
+        /**
+         * Notes that the <code>component</code> at the <code>index</code>
+         * of the <code>container</code> is about to be replaced by a new
+         * component at the same index. If the component occupies the
+         * cell of the same index, the following
+         * {@link #calculateAppended(Container, Insets, int)} call measures
+         * only the new component, and puts it into that cell; otherwise,
+         * the following calculation measures all the components.
+         * <p>
+         * The cell size is not recalculated, so it does not shrink
+         * even if the replaced component was the largest one.
+         *
+         * @param container the container the <code>component</code> is
+         *                  being removed from
+         * @param index     the index of the component within the
+         *                  container
+         * @param component the component being replaced
+         */
+        public void markReplaced(Container container, int index, Component component) {
+            if (container != measuredContainer) {
+                return;
+            }
+            if (order == null && index < componentsCount && cells[index] == component) {
+                unmeasuredCells.set(index);
+                revalidationExpected = true;
+            } else {
+                discardMeasurements();
+            }
+        }
+
+        /**
+         * Notes that the items of the {@link #geometryIndex} in the
+         * range [<code>from</code>, <code>to</code>) have been changed.
+         * If the components of these items occupy the cells of their
+         * indices, the following
+         * {@link #calculateAppended(Container, Insets, int)} call
+         * measures only these cells, as it does for the replaced
+         * components; otherwise, the following calculation measures all
+         * the components.
+         *
+         * @param container the container whose items have been changed
+         * @param from      the first changed item
+         * @param to        the item after the last changed item
+         *
+         * @see #markReplaced(Container, int, Component)
+         */
+        public void markItemsChanged(Container container, int from, int to) {
+            if (container != measuredContainer || from >= to) {
+                return;
+            }
+            if (order != null || to > componentsCount || to > container.getComponentCount()) {
+                discardMeasurements();
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                if (cells[i] != container.getComponent(i)) {
+                    discardMeasurements();
+                    return;
+                }
+            }
+            unmeasuredCells.set(from, to);
+            revalidationExpected = true;
+        }
+
+        /**
+         * Notes that items have been inserted into the
+         * {@link #geometryIndex} at the <code>index</code>. The items
+         * appended after the measured components are measured by the
+         * following {@link #calculateAppended(Container, Insets, int)}
+         * call; otherwise, the following calculation measures all the
+         * components.
+         *
+         * @param container the container whose items have been inserted
+         * @param index     the index of the first inserted item
+         */
+        public void markItemsInserted(Container container, int index) {
+            if (container == measuredContainer && index < measuredComponents) {
+                discardMeasurements();
+            }
+        }
+
+        /**
+         * Marks the currently measured cells as laid out. The
+         * following {@link #calculateAppended(Container, Insets, int)}
+         * calls require these components to stay valid.
+         *
+         * @param container the container in which the layout has
+         *                  been done
+         */
+        public void markLaidOut(Container container) {
+            if (container == measuredContainer) {
+                validatedComponents = measuredComponents;
+                stableCells = componentsCount;
+                revalidationExpected = false;
+                replacedCells.clear();
+                laidOutWidth = container.getWidth();
+                laidOutHeight = container.getHeight();
+            }
+        }
+
+        /**
+         * Checks the preferred sizes loaded from the snapshot against
+         * the actual preferred sizes of the cells, and discards the
+         * snapshot. If the sizes differ, the following calculation
+         * measures all the components again.
+         *
+         * @param container the container whose components have been
+         *                  measured
+         *
+         * @return <code>true</code> if the loaded sizes are the actual
+         *         ones
+         */
+        public boolean verifyPresetSizes(Container container) {
+            boolean used = presetSizes != null && presetUsed && container == measuredContainer;
+            presetSizes = null;
+            presetUsed = false;
+            if (!used) {
+                return true;
+            }
+
+            for (int i = 0; i < componentsCount; i++) {
+                Dimension size = measureComponent(i, cells[i]);
+                if ((transposed ? size.height : size.width) != baseWidths[i]
+                        || (transposed ? size.width : size.height) != baseHeights[i]) {
+                    measuredContainer = null;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the length available for the lines of the grid, which
+         * is the width of the <code>container</code>, or the width of
+         * its nearest ancestor with non-zero width. If the cells flow
+         * in the columns, the height is taken instead.
+         *
+         * @param container the container whose width is determined
+         *
+         * @return the available length, or {@link Integer#MAX_VALUE} if
+         *         it is not yet known
+         */
+        private int getAvailableLength(Container container) {
+            // Find the topmost container that provides the real width.
+            while (getLength(container) == 0 && container.getParent() != null) {
+                container = container.getParent();
+            }
+
+            int parentWidth = getLength(container);
+            // If the container width not yet been calculated, request the maximum width.
+            if (parentWidth == 0) {
+                parentWidth = Integer.MAX_VALUE;
+            }
+            return parentWidth;
+        }
+
+        /**
+         * Returns the size of the <code>container</code> along the flow
+         * of the cells.
+         */
+        private int getLength(Container container) {
+            return transposed ? container.getHeight() : container.getWidth();
+        }
+
+        /**
+         * Makes sure that the cell arrays can hold the specified
+         * number of cells.
+         *
+         * @param capacity the required number of cells
+         */
+        private void ensureCapacity(int capacity) {
+            if (cells.length < capacity) {
+                int length = Math.max(capacity, cells.length + (cells.length >> 1));
+                cells = Arrays.copyOf(cells, length);
+                cellWidths = Arrays.copyOf(cellWidths, length);
+                cellHeights = Arrays.copyOf(cellHeights, length);
+                baseWidths = Arrays.copyOf(baseWidths, length);
+                baseHeights = Arrays.copyOf(baseHeights, length);
+                cellSpans = Arrays.copyOf(cellSpans, length);
+                zoomLevels = null;
+            }
+        }
+
+        /**
+         * Scales the measured preferred <code>size</code> of a
+         * component by the zoom factor.
+         *
+         * @param size the width or the height of the component
+         *
+         * @return the scaled size
+         */
+        private int zoomed(int size) {
+            return zoom == 1 ? size : (int) Math.min(Math.round(size * zoom), Integer.MAX_VALUE);
+        }
+
+        /**
+         * Returns the <code>value</code>, if the <code>value</code>
+         * is in the range (<code>min</code>, <code>max</code>);
+         * returns the <code>min</code>, if the <code>value</code> is
+         * less than the <code>min</code>; returns the
+         * <code>max</code>, if the <code>value</code> is greater
+         * than the <code>max</code>.
+         *
+         * @param value the value to be normalized
+         * @param min   the lower bound of the normalization range
+         * @param max   the upper bound of the normalization range
+         *
+         * @return the normalized <code>value</code>
+         */
+        private static int normalizeValue(int value, int min, int max) {
+            return Math.min(Math.max(min, value), max);
+        }
+    }
+
+    /**
+     * The <code>LayoutState</code> class keeps the cells and the grid
+     * geometry as they have been laid out by a layout pass, so that
+     * the next pass could reshape only the cells that have actually
+     * been changed.
+     *
+     * @author Sergey Povstyanov
+     * @version 1.0
+     */
+    protected static class LayoutState {
+        /**
+         * Whether the state has been filled by a layout pass.
+         */
+        public boolean valid;
+
+        /**
+         * The laid out components in the order of the grid cells.
+         * Only the first {@link #cellsCount} elements are meaningful.
+         */
+        public Component[] cells;
+
+        /**
+         * The preferred widths of the {@link #cells}.
+         */
+        public int[] cellWidths;
+
+        /**
+         * The preferred heights of the {@link #cells}.
+         */
+        public int[] cellHeights;
+
+        /**
+         * The encoded spans of the {@link #cells}.
+         *
+         * @see GridMetrics#cellSpans
+         */
+        public int[] cellSpans;
+
+        /**
+         * The grid places of the {@link #cells}, or <code>null</code> if
+         * each cell takes the place of its index.
+         *
+         * @see GridMetrics#cellSlots
+         */
+        public int[] cellSlots;
+
+        /**
+         * The distances from the top of the grid to the {@link #cells}
+         * in the masonry mode, or <code>null</code>.
+         *
+         * @see GridMetrics#cellTops
+         */
+        public int[] cellTops;
+
+        /**
+         * The columns of the {@link #cells} in the masonry mode, or
+         * <code>null</code>.
+         *
+         * @see GridMetrics#cellColumns
+         */
+        public int[] cellColumns;
+
+        /**
+         * The cells by the grid slots they cover, row by row, with
+         * <code>-1</code> for the empty slots, if the cells have spans.
+         * The map is built by the first lookup after the places of the
+         * cells have been changed, or is <code>null</code>.
+         *
+         * @see #getSlotCells()
+         */
+        private int[] slotCells;
+
+        /**
+         * The cells of each masonry column from the top down, if the
+         * cells are placed in the masonry columns. The lists are built
+         * by the first lookup after the places of the cells have been
+         * changed, or are <code>null</code>.
+         *
+         * @see #getColumnCells()
+         */
+        private int[][] columnCells;
+
+        /**
+         * The number of the laid out cells.
+         */
+        public int cellsCount;
+
+        /**
+         * The x coordinate of the first grid column.
+         */
+        public int originX;
+
+        /**
+         * The y coordinate of the first grid row.
+         */
+        public int originY;
+
+        /**
+         * The width of the grid cell.
+         */
+        public int cellWidth;
+
+        /**
+         * The height of the grid cell.
+         */
+        public int cellHeight;
+
+        /**
+         * The distance between the left borders of the adjacent
+         * columns.
+         */
+        public int colStep;
+
+        /**
+         * The distance between the top borders of the adjacent rows.
+         */
+        public int rowStep;
+
+        /**
+         * The number of the grid columns.
+         */
+        public int cols;
+
+        /**
+         * The number of the grid rows.
+         */
+        public int rows;
+
+        /**
+         * Whether the cells flow in the columns. The geometry of this
+         * state is then kept along the flow, with the x and the y
+         * coordinates swapped, and is transposed only when the
+         * components are reshaped or the cells are looked up by the
+         * container coordinates.
+         */
+        public boolean transposed;
+
+        /**
+         * The height of the grid, including the insets.
+         */
+        public long gridHeight;
+
+        /**
+         * The difference between the y coordinate of a cell within the
+         * grid and the y coordinate of its component within the
+         * container. It is non-zero only if the virtual coordinates are
+         * enabled.
+         *
+         * @see #viewY
+         */
+        public long offsetY;
+
+        /**
+         * The y coordinate of the visible part of the container at the
+         * time the {@link #offsetY} has been calculated.
+         */
+        public int viewY;
+
+        /**
+         * The first cell that has been laid out.
+         *
+         * @see #windowTo
+         */
+        public int windowFrom;
+
+        /**
+         * The cell after the last cell that has been laid out.
+         *
+         * @see #windowFrom
+         */
+        public int windowTo;
+
+        /**
+         * The cells within the window that have not been laid out yet,
+         * or <code>null</code> if all of them have been laid out.
+         */
+        public BitSet pending;
+
+        /**
+         * The collector of the bounds of the moved cells, or
+         * <code>null</code> if they are not collected.
+         */
+        RepaintBands damage;
+
+        /**
+         * The profiler of the reshaped cells, or <code>null</code> if
+         * they are not profiled.
+         */
+        UniformGridProfiler profiler;
+
+        /**
+         * Creates an empty <code>LayoutState</code>.
+         */
+        public LayoutState() {
+            cells = new Component[0];
+            cellWidths = new int[0];
+            cellHeights = new int[0];
+            cellSpans = new int[0];
+        }
+
+        /**
+         * Copies the cells from the <code>metrics</code> and resolves
+         * the grid geometry.
+         *
+         * @param metrics the calculated grid metrics
+         * @param insets  the insets of the layout
+         * @param vgap    the vertical gap of the layout
+         */
+        public void update(GridMetrics metrics, Insets insets, int vgap) {
+            int count = metrics.componentsCount;
+            if (cells.length < count) {
+                cells = new Component[metrics.cells.length];
+                cellWidths = new int[metrics.cells.length];
+                cellHeights = new int[metrics.cells.length];
+                cellSpans = new int[metrics.cells.length];
+            }
+            System.arraycopy(metrics.cells, 0, cells, 0, count);
+            System.arraycopy(metrics.cellWidths, 0, cellWidths, 0, count);
+            System.arraycopy(metrics.cellHeights, 0, cellHeights, 0, count);
+            System.arraycopy(metrics.cellSpans, 0, cellSpans, 0, count);
+            copyPlaces(metrics, 0);
+            if (cellsCount > count) {
+                Arrays.fill(cells, count, cellsCount, null);
+            }
+            cellsCount = count;
+
+            originX = insets.left + metrics.leadingHgap;
+            originY = insets.top;
+            cellWidth = metrics.cellSize.width;
+            cellHeight = metrics.cellSize.height;
+            colStep = metrics.cellSize.width + metrics.innerHgap;
+            rowStep = metrics.cellSize.height + vgap;
+            cols = metrics.cols;
+            rows = metrics.rows;
+            transposed = metrics.transposed;
+            gridHeight = getGridHeight(metrics, vgap, insets);
+            valid = true;
+        }
+
+        /**
+         * Copies the places of the cells starting from the
+         * <code>from</code> one, if the cells of the
+         * <code>metrics</code> have the spans or are placed in the
+         * masonry columns.
+         *
+         * @param metrics the calculated grid metrics
+         * @param from    the first cell to copy
+         */
+        private void copyPlaces(GridMetrics metrics, int from) {
+            slotCells = null;
+            columnCells = null;
+            cellSlots = copyPlaces(metrics.cellSlots, cellSlots, from, metrics.componentsCount);
+            cellTops = copyPlaces(metrics.cellTops, cellTops, from, metrics.componentsCount);
+            cellColumns = copyPlaces(metrics.cellColumns, cellColumns, from, metrics.componentsCount);
+        }
+
+        /**
+         * Copies the elements of the <code>source</code> array in the
+         * range [<code>from</code>, <code>to</code>) into the
+         * <code>places</code> array, which is grown to the length of
+         * the {@link #cells} if needed.
+         *
+         * @param source the places of the calculated cells, or
+         *               <code>null</code>
+         * @param places the places of the laid out cells, or
+         *               <code>null</code>
+         * @param from   the first cell to copy
+         * @param to     the cell after the last cell to copy
+         *
+         * @return the updated places, or <code>null</code> if the
+         *         <code>source</code> is <code>null</code>
+         */
+        private int[] copyPlaces(int[] source, int[] places, int from, int to) {
+            if (source == null) {
+                return null;
+            }
+            if (places == null || places.length < cells.length) {
+                places = places == null ? new int[cells.length] : Arrays.copyOf(places, cells.length);
+                from = 0;
+            }
+            System.arraycopy(source, from, places, from, to - from);
+            return places;
+        }
+
+        /**
+         * Checks whether each cell takes the grid cell of its index,
+         * so that the cells of a range of the grid rows form a range of
+         * the indices. This is not the case if any of the cells has a
+         * span, or in the masonry mode.
+         *
+         * @return <code>true</code> if the cells are placed row by row
+         */
+        public boolean isRowMajor() {
+            return cellSlots == null && cellTops == null;
+        }
+
+        /**
+         * Checks whether the cells of this state are placed at the
+         * same positions as the cells of the <code>other</code> state.
+         *
+         * @param other the state to compare with
+         *
+         * @return <code>true</code> if the both states have the same
+         *         grid geometry
+         */
+        public boolean hasSameGeometry(LayoutState other) {
+            return valid && other.valid
+                    && originX == other.originX
+                    && originY == other.originY
+                    && cellWidth == other.cellWidth
+                    && cellHeight == other.cellHeight
+                    && colStep == other.colStep
+                    && rowStep == other.rowStep
+                    && cols == other.cols
+                    && transposed == other.transposed;
+        }
+
+        /**
+         * Checks whether the cells of this state are placed at the
+         * same positions as they would be placed according to the
+         * <code>metrics</code>.
+         *
+         * @param metrics the calculated grid metrics
+         * @param insets  the insets of the layout
+         * @param vgap    the vertical gap of the layout
+         *
+         * @return <code>true</code> if the grid geometry is the same
+         */
+        public boolean hasSameGeometry(GridMetrics metrics, Insets insets, int vgap) {
+            return valid
+                    && originX == insets.left + metrics.leadingHgap
+                    && originY == insets.top
+                    && cellWidth == metrics.cellSize.width
+                    && cellHeight == metrics.cellSize.height
+                    && colStep == metrics.cellSize.width + metrics.innerHgap
+                    && rowStep == metrics.cellSize.height + vgap
+                    && cols == metrics.cols
+                    && transposed == metrics.transposed;
+        }
+
+        /**
+         * Copies the <code>replaced</code> cells of the
+         * <code>metrics</code>, which keep the places of the cells of
+         * this state, into this state.
+         *
+         * @param metrics  the calculated grid metrics
+         * @param replaced the indices of the replaced cells
+         */
+        public void replaceCells(GridMetrics metrics, BitSet replaced) {
+            for (int i = replaced.nextSetBit(0); i >= 0 && i < cellsCount; i = replaced.nextSetBit(i + 1)) {
+                cells[i] = metrics.cells[i];
+                cellWidths[i] = metrics.cellWidths[i];
+                cellHeights[i] = metrics.cellHeights[i];
+                cellSpans[i] = metrics.cellSpans[i];
+            }
+        }
+
+        /**
+         * Copies the cells appended to the <code>metrics</code> after
+         * the cells of this state, keeping the grid geometry.
+         *
+         * @param metrics the calculated grid metrics
+         * @param insets  the insets of the layout
+         * @param vgap    the vertical gap of the layout
+         */
+        public void appendCells(GridMetrics metrics, Insets insets, int vgap) {
+            int count = metrics.componentsCount;
+            if (cells.length < count) {
+                cells = Arrays.copyOf(cells, metrics.cells.length);
+                cellWidths = Arrays.copyOf(cellWidths, metrics.cells.length);
+                cellHeights = Arrays.copyOf(cellHeights, metrics.cells.length);
+                cellSpans = Arrays.copyOf(cellSpans, metrics.cells.length);
+            }
+            System.arraycopy(metrics.cells, cellsCount, cells, cellsCount, count - cellsCount);
+            System.arraycopy(metrics.cellWidths, cellsCount, cellWidths, cellsCount, count - cellsCount);
+            System.arraycopy(metrics.cellHeights, cellsCount, cellHeights, cellsCount, count - cellsCount);
+            System.arraycopy(metrics.cellSpans, cellsCount, cellSpans, cellsCount, count - cellsCount);
+            copyPlaces(metrics, cellsCount);
+            cellsCount = count;
+            rows = metrics.rows;
+            gridHeight = getGridHeight(metrics, vgap, insets);
+        }
+
+        /**
+         * Finds the first cell that differs between this state and the
+         * <code>other</code> state: either the component or its
+         * preferred size has been changed.
+         *
+         * @param other the state to compare with
+         *
+         * @return the index of the first changed cell, or the number
+         *         of cells if there are no changes
+         */
+        public int firstChangedCell(LayoutState other) {
+            int count = Math.min(cellsCount, other.cellsCount);
+            for (int i = 0; i < count; i++) {
+                // The places of the cells with the same spans are the same, as long as the geometry is.
+                if (cells[i] != other.cells[i]
+                        || cellWidths[i] != other.cellWidths[i]
+                        || cellHeights[i] != other.cellHeights[i]
+                        || cellSpans[i] != other.cellSpans[i]) {
+                    return i;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns the bounds of the specified cell within the
+         * container, taking the {@link #offsetY} into account.
+         *
+         * @param index the index of the cell
+         *
+         * @return the bounds of the cell
+         */
+        public Rectangle getCellBounds(int index) {
+            int x;
+            long y;
+            int width;
+            int height;
+            if (cellTops != null) {
+                x = originX + cellColumns[index] * colStep;
+                y = originY + (long) cellTops[index] - offsetY;
+                width = cellWidth;
+                height = cellHeights[index];
+            } else {
+                int slot = cellSlots != null ? cellSlots[index] : index;
+                x = originX + (slot % cols) * colStep;
+                y = originY + (long) (slot / cols) * rowStep - offsetY;
+                width = getSpanWidth(index);
+                height = getSpanHeight(index);
+            }
+            return transposed ? new Rectangle((int) y, x, height, width) : new Rectangle(x, (int) y, width, height);
+        }
+
+        /**
+         * Returns the width of the area of the specified cell, which
+         * covers the columns of its span and the gaps between them.
+         *
+         * @param index the index of the cell
+         *
+         * @return the width of the cell area
+         */
+        private int getSpanWidth(int index) {
+            int span = cellSpans[index];
+            return span == 0 ? cellWidth : cellWidth + (Math.min(GridSpan.decodeColumns(span), cols) - 1) * colStep;
+        }
+
+        /**
+         * Returns the height of the area of the specified cell, which
+         * covers the rows of its span and the gaps between them.
+         *
+         * @param index the index of the cell
+         *
+         * @return the height of the cell area
+         */
+        private int getSpanHeight(int index) {
+            int span = cellSpans[index];
+            return span == 0 ? cellHeight : cellHeight + (GridSpan.decodeRows(span) - 1) * rowStep;
+        }
+
+        /**
+         * Returns the index of the cell that contains the specified
+         * point of the container.
+         *
+         * @param x the x coordinate within the container
+         * @param y the y coordinate within the container
+         *
+         * @return the index of the cell, or <code>-1</code> if the point
+         *         is outside of the cells
+         */
+        public int getCellIndexAt(int x, int y) {
+            return transposed ? findCellAt(y, x) : findCellAt(x, y);
+        }
+
+        /**
+         * Returns the index of the cell that contains the specified
+         * point along the flow of the cells.
+         *
+         * @param x the coordinate along the grid rows
+         * @param y the coordinate across the grid rows
+         *
+         * @return the index of the cell, or <code>-1</code> if the point
+         *         is outside of the cells
+         */
+        private int findCellAt(int x, int y) {
+            if (valid && cellTops != null) {
+                return getMasonryCellIndexAt(x, y);
+            }
+            if (!valid || cols == 0 || colStep <= 0 || rowStep <= 0) {
+                return -1;
+            }
+            int dx = x - originX;
+            long dy = y + offsetY - originY;
+            if (cellSlots != null && dx >= 0 && dy >= 0) {
+                // The gaps within the area of a spanned cell belong to the cell.
+                int cell = getCellAtSlot(dy / rowStep, dx / colStep);
+                if (cell >= 0 && dx < (cellSlots[cell] % cols) * colStep + getSpanWidth(cell)
+                        && dy < (long) (cellSlots[cell] / cols) * rowStep + getSpanHeight(cell)) {
+                    return cell;
+                }
+                return -1;
+            }
+            if (dx < 0 || dy < 0 || dx % colStep >= cellWidth || dy % rowStep >= cellHeight) {
+                return -1;
+            }
+            int col = dx / colStep;
+            long index = dy / rowStep * cols + col;
+            return col < cols && index < cellsCount ? (int) index : -1;
+        }
+
+        /**
+         * Returns the cells by the grid slots they cover, building the
+         * map if the places of the cells have been changed. The cells
+         * must have spans.
+         *
+         * @return the cell of each slot, or <code>-1</code> for the
+         *         empty slots
+         */
+        private int[] getSlotCells() {
+            if (slotCells == null) {
+                int[] map = new int[rows * cols];
+                Arrays.fill(map, -1);
+                for (int i = 0; i < cellsCount; i++) {
+                    int slot = cellSlots[i];
+                    int spanCols = Math.min(GridSpan.decodeColumns(cellSpans[i]), cols - slot % cols);
+                    int spanRows = GridSpan.decodeRows(cellSpans[i]);
+                    for (int r = 0; r < spanRows; r++) {
+                        int start = slot + r * cols;
+                        for (int c = 0; c < spanCols && start + c < map.length; c++) {
+                            map[start + c] = i;
+                        }
+                    }
+                }
+                slotCells = map;
+            }
+            return slotCells;
+        }
+
+        /**
+         * Returns the spanned cell that covers the specified grid slot.
+         *
+         * @param row the row of the slot
+         * @param col the column of the slot
+         *
+         * @return the index of the cell, or <code>-1</code> if the slot
+         *         is empty or outside of the grid
+         */
+        private int getCellAtSlot(long row, int col) {
+            if (row < 0 || col < 0 || col >= cols) {
+                return -1;
+            }
+            int[] map = getSlotCells();
+            long slot = row * cols + col;
+            return slot < map.length ? map[(int) slot] : -1;
+        }
+
+        /**
+         * Adds the cells that intersect the specified rectangle of the
+         * container to the <code>selection</code>, if the cells have
+         * spans or are placed in the masonry columns. The spanned cells
+         * are looked up by the grid slots within the rectangle; the
+         * masonry cells are searched by their tops within each column
+         * the rectangle intersects.
+         *
+         * @param rect      the rectangle within the container
+         * @param selection the indices of the selected cells
+         */
+        public void addCellsIn(Rectangle rect, BitSet selection) {
+            if (!valid || rect.isEmpty() || cols == 0 || colStep <= 0) {
+                return;
+            }
+            // The rows of the grid are the columns of the container, if the cells flow in the columns.
+            Rectangle flow = transposed ? new Rectangle(rect.y, rect.x, rect.height, rect.width) : rect;
+            if (cellTops != null) {
+                int[][] columns = getColumnCells();
+                long from = flow.y + offsetY - originY;
+                long to = from + flow.height;
+                for (int col = 0; col < cols; col++) {
+                    int left = originX + col * colStep;
+                    if (left >= flow.x + flow.width || left + cellWidth <= flow.x) {
+                        continue;
+                    }
+                    int[] column = columns[col];
+                    // The cell that starts above the rectangle may still reach into it.
+                    for (int k = Math.max(findInColumn(column, from), 0); k < column.length; k++) {
+                        int i = column[k];
+                        if (cellTops[i] >= to) {
+                            break;
+                        }
+                        if ((long) cellTops[i] + cellHeights[i] > from) {
+                            selection.set(i);
+                        }
+                    }
+                }
+                return;
+            }
+            if (cellSlots == null || rowStep <= 0) {
+                return;
+            }
+            int firstCol = (int) Math.max(Math.floorDiv((long) flow.x - originX, colStep), 0);
+            int lastCol = (int) Math.min(Math.floorDiv((long) flow.x + flow.width - 1 - originX, colStep), cols - 1);
+            long firstRow = Math.max(Math.floorDiv(flow.y + offsetY - originY, rowStep), 0);
+            long lastRow = Math.min(Math.floorDiv(flow.y + (long) flow.height - 1 + offsetY - originY, rowStep),
+                    rows - 1);
+            for (long row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    int i = getCellAtSlot(row, col);
+                    if (i < 0 || selection.get(i)) {
+                        continue;
+                    }
+                    // The slot may be only partially covered by the rectangle, or be within the gaps.
+                    int left = originX + (cellSlots[i] % cols) * colStep;
+                    long top = originY + (long) (cellSlots[i] / cols) * rowStep - offsetY;
+                    if (left < flow.x + flow.width && left + getSpanWidth(i) > flow.x
+                            && top < flow.y + (long) flow.height && top + getSpanHeight(i) > flow.y) {
+                        selection.set(i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the cell next to the specified one along the grid
+         * rows or across them, if the cells have spans: the nearest
+         * cell that covers the same row or column beyond the edge of
+         * the cell, skipping the empty slots. In the masonry mode, the
+         * cell above or below within the same column, or the cell
+         * nearest to the middle of the cell within the nearest
+         * non-empty column aside. Otherwise, the cells are taken in the
+         * order of their indices.
+         *
+         * @param index the index of the cell
+         * @param dcol  the direction along the rows: <code>-1</code>,
+         *              <code>0</code> or <code>1</code>
+         * @param drow  the direction across the rows, if the
+         *              <code>dcol</code> is zero
+         *
+         * @return the index of the adjacent cell, or <code>-1</code> if
+         *         there is none
+         */
+        public int getAdjacentCell(int index, int dcol, int drow) {
+            if (cellTops != null) {
+                int col = cellColumns[index];
+                if (dcol == 0) {
+                    int[] column = getColumnCells()[col];
+                    int k = Arrays.binarySearch(column, index) + drow;
+                    return k >= 0 && k < column.length ? column[k] : -1;
+                }
+                long middle = cellTops[index] + (long) cellHeights[index] / 2;
+                for (int c = col + dcol; c >= 0 && c < cols; c += dcol) {
+                    int cell = getNearestInColumn(c, middle);
+                    if (cell >= 0) {
+                        return cell;
+                    }
+                }
+                return -1;
+            }
+            if (cellSlots == null) {
+                int next = index + (dcol != 0 ? dcol : drow);
+                return next >= 0 && next < cellsCount ? next : -1;
+            }
+            int row = cellSlots[index] / cols;
+            int col = cellSlots[index] % cols;
+            int span = cellSpans[index];
+            if (dcol != 0) {
+                int from = dcol < 0 ? col - 1 : col + Math.min(GridSpan.decodeColumns(span), cols - col);
+                for (int c = from; c >= 0 && c < cols; c += dcol) {
+                    int cell = getCellAtSlot(row, c);
+                    if (cell >= 0) {
+                        return cell;
+                    }
+                }
+                return -1;
+            }
+            for (long r = drow < 0 ? row - 1 : row + GridSpan.decodeRows(span); r >= 0 && r < rows; r += drow) {
+                int cell = getCellAtSlot(r, col);
+                if (cell >= 0) {
+                    return cell;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the first or the last cell of the grid row of the
+         * specified cell, if the cells have spans. In the masonry mode,
+         * the cell nearest to the middle of the specified one within
+         * the first or the last non-empty column is returned.
+         * Otherwise, the cell itself is returned.
+         *
+         * @param index the index of the cell
+         * @param last  whether to return the last cell of the row
+         *
+         * @return the index of the cell at the edge of the row
          */
-        public void calculate(Container container, Insets insets, int hgap) {
-            // Calculate the actual grid cell size and the visible components count.
-            cellSize.width = 0;
-            cellSize.height = 0;
-            componentsCount = 0;
-            for (Component c : container.getComponents()) {
-                // Taking into account only the visible components.
-                if (c.isVisible()) {
-                    Dimension size = c.getPreferredSize();
-                    cellSize.width = Math.max(cellSize.width, size.width);
-                    cellSize.height = Math.max(cellSize.height, size.height);
-                    componentsCount += 1;
+        public int getLineEdgeCell(int index, boolean last) {
+            if (cellTops != null) {
+                long middle = cellTops[index] + (long) cellHeights[index] / 2;
+                for (int c = 0; c < cols; c++) {
+                    int cell = getNearestInColumn(last ? cols - 1 - c : c, middle);
+                    if (cell >= 0) {
+                        return cell;
+                    }
+                }
+                return index;
+            }
+            if (cellSlots == null) {
+                return index;
+            }
+            int row = cellSlots[index] / cols;
+            for (int c = 0; c < cols; c++) {
+                int cell = getCellAtSlot(row, last ? cols - 1 - c : c);
+                if (cell >= 0) {
+                    return cell;
                 }
             }
+            return index;
+        }
 
-            // If there is no components to be laying out.
-            if (componentsCount == 0) {
-                rows = 0;
-                cols = 0;
-                innerHgap = 0;
-                leadingHgap = 0;
-                trailingHgap = 0;
+        /**
+         * Returns the cell at the specified distance across the grid
+         * rows from the specified cell, if the cells have spans: the
+         * cell nearest to the same column within the row at that
+         * distance, or within the nearest row closer to the cell if
+         * that row is empty. In the masonry mode, the cell of the same
+         * column nearest to the point at that distance from the middle
+         * of the cell, or at least the cell above or below it.
+         * Otherwise, the adjacent cell in the order of the indices is
+         * returned.
+         *
+         * @param index    the index of the cell
+         * @param distance the distance across the rows, negative to
+         *                 move towards the first row
+         *
+         * @return the index of the found cell
+         */
+        public int getCellAcross(int index, int distance) {
+            if (cellTops != null) {
+                int col = cellColumns[index];
+                int cell = getNearestInColumn(col, cellTops[index] + (long) cellHeights[index] / 2 + distance);
+                if (cell == index) {
+                    int[] column = getColumnCells()[col];
+                    int k = Arrays.binarySearch(column, index) + (distance < 0 ? -1 : 1);
+                    cell = k >= 0 && k < column.length ? column[k] : index;
+                }
+                return cell;
+            }
+            if (cellSlots == null || rowStep <= 0) {
+                int next = index + Integer.signum(distance);
+                return next >= 0 && next < cellsCount ? next : index;
+            }
+            int row = cellSlots[index] / cols;
+            int col = cellSlots[index] % cols;
+            int step = distance < 0 ? -1 : 1;
+            long target = row + (long) step * Math.max(Math.abs((long) distance) / rowStep, 1);
+            target = Math.min(Math.max(target, 0), rows - 1);
+            for (long r = target; r != row; r -= step) {
+                for (int d = 0; d < cols; d++) {
+                    int cell = getCellAtSlot(r, col - d);
+                    if (cell < 0) {
+                        cell = getCellAtSlot(r, col + d);
+                    }
+                    if (cell >= 0 && cell != index) {
+                        return cell;
+                    }
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Returns the index of the masonry cell that contains the
+         * specified point of the container.
+         *
+         * @param x the x coordinate within the container
+         * @param y the y coordinate within the container
+         *
+         * @return the index of the cell, or <code>-1</code> if the point
+         *         is outside of the cells
+         */
+        private int getMasonryCellIndexAt(int x, int y) {
+            int dx = x - originX;
+            long dy = y + offsetY - originY;
+            if (colStep <= 0 || dx < 0 || dy < 0 || dx % colStep >= cellWidth || dx / colStep >= cols) {
+                return -1;
+            }
+            int[] column = getColumnCells()[dx / colStep];
+            int k = findInColumn(column, dy);
+            return k >= 0 && dy < (long) cellTops[column[k]] + cellHeights[column[k]] ? column[k] : -1;
+        }
+
+        /**
+         * Returns the cells of each masonry column, building the lists
+         * if the places of the cells have been changed. The cells must
+         * be placed in the masonry columns.
+         *
+         * @return the indices of the cells of each column from the top
+         *         down
+         */
+        private int[][] getColumnCells() {
+            if (columnCells == null) {
+                int[] counts = new int[cols];
+                for (int i = 0; i < cellsCount; i++) {
+                    counts[cellColumns[i]]++;
+                }
+                int[][] lists = new int[cols][];
+                for (int c = 0; c < cols; c++) {
+                    lists[c] = new int[counts[c]];
+                    counts[c] = 0;
+                }
+                // The cells of a column are stacked in order, so both the indices and the tops ascend.
+                for (int i = 0; i < cellsCount; i++) {
+                    int c = cellColumns[i];
+                    lists[c][counts[c]++] = i;
+                }
+                columnCells = lists;
+            }
+            return columnCells;
+        }
+
+        /**
+         * Finds the last cell of a masonry column whose top is not below
+         * the specified distance from the top of the grid.
+         *
+         * @param column the indices of the cells of the column
+         * @param y      the distance from the top of the grid
+         *
+         * @return the position of the cell within the column, or
+         *         <code>-1</code> if all of the cells are below
+         */
+        private int findInColumn(int[] column, long y) {
+            int low = 0;
+            int high = column.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (cellTops[column[mid]] <= y) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        /**
+         * Returns the cell of the specified masonry column nearest to
+         * the specified distance from the top of the grid.
+         *
+         * @param col the column
+         * @param y   the distance from the top of the grid
+         *
+         * @return the index of the cell, or <code>-1</code> if the
+         *         column is empty
+         */
+        private int getNearestInColumn(int col, long y) {
+            int[] column = getColumnCells()[col];
+            if (column.length == 0) {
+                return -1;
+            }
+            int k = Math.max(findInColumn(column, y), 0);
+            long bottom = (long) cellTops[column[k]] + cellHeights[column[k]];
+            if (bottom <= y && k + 1 < column.length && cellTops[column[k + 1]] - y < y - bottom) {
+                k++;
+            }
+            return column[k];
+        }
+
+        /**
+         * Returns the index at which a cell dropped at the specified
+         * point of the container would be inserted.
+         *
+         * @param x the x coordinate within the container
+         * @param y the y coordinate within the container
+         *
+         * @return the insertion index, or <code>-1</code> if the grid
+         *         geometry is not known
+         */
+        public int getDropIndex(int x, int y) {
+            if (transposed) {
+                int t = x;
+                x = y;
+                y = t;
+            }
+            if (valid && cellTops != null) {
+                if (cellsCount == 0 || cols == 0 || colStep <= 0) {
+                    return cellsCount == 0 ? 0 : -1;
+                }
+                // The masonry cells are dropped before the cell under the point or below it within the column.
+                int col = (int) Math.min(Math.max(Math.floorDiv((long) x - originX, colStep), 0), cols - 1);
+                int[] column = getColumnCells()[col];
+                long dy = y + offsetY - originY;
+                for (int k = Math.max(findInColumn(column, dy), 0); k < column.length; k++) {
+                    if ((long) cellTops[column[k]] + cellHeights[column[k]] > dy) {
+                        return column[k];
+                    }
+                }
+                return cellsCount;
+            }
+            if (!valid || cols == 0 || colStep <= 0 || rowStep <= 0) {
+                return valid && cellsCount == 0 ? 0 : -1;
+            }
+            if (cellSlots != null) {
+                // The spanned cells are dropped before the cell that covers the first occupied slot from the point.
+                int dx = x - originX;
+                long dy = y + offsetY - originY;
+                long row = dy < 0 ? 0 : dy / rowStep;
+                int col = dx < 0 || dy < 0 ? 0 : dx / colStep + (dx % colStep >= cellWidth ? 1 : 0);
+                int[] map = getSlotCells();
+                for (long slot = row * cols + Math.min(col, cols); slot < map.length; slot++) {
+                    if (map[(int) slot] >= 0) {
+                        return map[(int) slot];
+                    }
+                }
+                return cellsCount;
+            }
+            long dy = y + offsetY - originY;
+            long row = dy < 0 ? 0 : dy / rowStep;
+            // The cells whose centers are before the point are inserted before.
+            long col = Math.floorDiv((long) x - originX - cellWidth / 2, colStep) + 1;
+            long index = row * cols + Math.min(Math.max(col, 0), cols);
+            return (int) Math.min(index, cellsCount);
+        }
+
+        /**
+         * Reshapes the component of the specified cell, centering it
+         * within the cell. The cell is shifted by the {@link #offsetY}.
+         *
+         * @param index the index of the cell
+         */
+        public void placeCell(int index) {
+            if (cellTops != null) {
+                int width = cellWidths[index];
+                int x = originX + cellColumns[index] * colStep + (cellWidth - width) / 2;
+                long y = originY + (long) cellTops[index] - offsetY;
+                place(cells[index], x, (int) y, width, cellHeights[index]);
                 return;
             }
+            placeCell(index, cellSlots != null ? cellSlots[index] : index);
+        }
 
-            // Find the topmost container that provides the real width.
-            while (container.getSize().width == 0 && container.getParent() != null) {
-                container = container.getParent();
+        /**
+         * Returns the bounds of the component of the specified cell
+         * along the flow of the cells, where the
+         * {@link #placeCell(int)} method puts it, provided that each
+         * cell takes the place of its index.
+         *
+         * @param index  the index of the cell
+         * @param bounds the array to store the x, the y, the width and
+         *               the height of the component into
+         */
+        void getFlowBounds(int index, int[] bounds) {
+            int width = cellWidths[index];
+            int height = cellHeights[index];
+            bounds[0] = originX + (index % cols) * colStep + (cellWidth - width) / 2;
+            bounds[1] = (int) (originY + (long) (index / cols) * rowStep + (cellHeight - height) / 2 - offsetY);
+            bounds[2] = width;
+            bounds[3] = height;
+        }
+
+        /**
+         * Reshapes the component of the specified cell, centering it
+         * within the grid cell of the <code>slot</code> index.
+         *
+         * @param index the index of the cell
+         * @param slot  the index of the grid cell to place it into
+         */
+        public void placeCell(int index, int slot) {
+            int width = cellWidths[index];
+            int height = cellHeights[index];
+            int x = originX + (slot % cols) * colStep + (getSpanWidth(index) - width) / 2;
+            long y = originY + (long) (slot / cols) * rowStep + (getSpanHeight(index) - height) / 2 - offsetY;
+            place(cells[index], x, (int) y, width, height);
+        }
+
+        /**
+         * Reshapes the <code>component</code> to the bounds specified
+         * along the flow of the cells, transposing them if the cells
+         * flow in the columns.
+         *
+         * @param component the component to be reshaped
+         * @param x         the new coordinate along the grid rows
+         * @param y         the new coordinate across the grid rows
+         * @param width     the new size along the grid rows
+         * @param height    the new size across the grid rows
+         */
+        private void place(Component component, int x, int y, int width, int height) {
+            if (transposed) {
+                reshape(component, y, x, height, width);
+            } else {
+                reshape(component, x, y, width, height);
             }
+        }
 
-            int parentWidth = container.getSize().width;
-            // If the container width not yet been calculated, request the maximum width.
-            if (parentWidth == 0) {
-                parentWidth = Integer.MAX_VALUE;
+        /**
+         * Reshapes the <code>component</code>, collecting its old and
+         * new bounds if the {@link #damage} is being collected.
+         *
+         * @param component the component to be reshaped
+         * @param x         the new x coordinate of the component
+         * @param y         the new y coordinate of the component
+         * @param width     the new width of the component
+         * @param height    the new height of the component
+         */
+        public void reshape(Component component, int x, int y, int width, int height) {
+            if (damage != null && (x != component.getX() || y != component.getY()
+                    || width != component.getWidth() || height != component.getHeight())) {
+                damage.add(component, x, y, width, height);
+            }
+            if (profiler == null) {
+                component.setBounds(x, y, width, height);
+                return;
             }
+            long start = System.nanoTime();
+            component.setBounds(x, y, width, height);
+            profiler.reshaped(component, System.nanoTime() - start);
+        }
+    }
 
-            // Leave the space for the insets.
-            parentWidth -= insets.left + insets.right;
+    /**
+     * The <code>ZoomLevel</code> keeps the sizes of the cells scaled by
+     * a zoom factor.
+     */
+    private static class ZoomLevel {
+        private final double zoom;
+        private final int[] widths;
+        private final int[] heights;
 
-            // We need to calculate the dynamic horizontal gap if the initial horizontal gap is negative.
-            if (hgap < 0) {
-                // Minimum columns is 1, maximum columns is equals to the components count.
-                int cols = normalizeValue(parentWidth / cellSize.width, 1, componentsCount);
-                int restSpace = Math.max(parentWidth - cellSize.width * cols, 0);
-                hgap = restSpace / (cols + 1);
-                restSpace = Math.max(restSpace - hgap * (cols - 1), 0);
+        ZoomLevel(double zoom, int[] widths, int[] heights) {
+            this.zoom = zoom;
+            this.widths = widths;
+            this.heights = heights;
+        }
+    }
 
-                innerHgap = hgap;
-                leadingHgap = restSpace / 2;
-                trailingHgap = restSpace - leadingHgap;
+    /**
+     * The <code>SpanPacker</code> packs the cells with the spans into
+     * the grid, placing each cell at the first place where it fits.
+     * The occupied grid cells are tracked by a bit set in the row-major
+     * order, so a place is checked with a single search per row of the
+     * span, and the search starts from the first free grid cell.
+     * <p>
+     * The packer remembers the packed cells, so when the cells are
+     * changed, only the cells starting from the first changed one are
+     * packed again, and appending a cell usually takes constant time.
+     */
+    private static class SpanPacker {
+        private final BitSet occupied = new BitSet();
+        private int cols;
+        private int firstFree;
+        private int count;
+        private Component[] cells = new Component[0];
+        private int[] spans = new int[0];
+        private int[] slots = new int[0];
+
+        /**
+         * Packs the cells of the <code>metrics</code>.
+         *
+         * @param metrics the grid metrics with the resolved number of
+         *                the columns
+         * @param stable  the number of the leading cells known to be the
+         *                same as in the previous packing
+         *
+         * @return the number of the grid rows
+         */
+        int pack(GridMetrics metrics, int stable) {
+            int total = metrics.componentsCount;
+            int from = 0;
+            if (cols != metrics.cols) {
+                occupied.clear();
+                cols = metrics.cols;
+                firstFree = 0;
+                count = 0;
             } else {
-                innerHgap = hgap;
-                leadingHgap = 0;
-                trailingHgap = 0;
+                int same = Math.min(count, total);
+                from = Math.min(stable, same);
+                while (from < same && cells[from] == metrics.cells[from] && spans[from] == metrics.cellSpans[from]) {
+                    from++;
+                }
+                // Free the places of the changed cells.
+                for (int i = from; i < count; i++) {
+                    mark(slots[i], spans[i], false);
+                }
+                if (from < count) {
+                    firstFree = occupied.nextClearBit(0);
+                }
             }
 
-            // Leave the space for the leading and the trailing horizontal gaps.
-            parentWidth -= leadingHgap + trailingHgap;
+            if (cells.length < total) {
+                int length = Math.max(total, cells.length + (cells.length >> 1));
+                cells = Arrays.copyOf(cells, length);
+                spans = Arrays.copyOf(spans, length);
+                slots = Arrays.copyOf(slots, length);
+            }
+            for (int i = from; i < total; i++) {
+                cells[i] = metrics.cells[i];
+                spans[i] = metrics.cellSpans[i];
+                slots[i] = place(spans[i]);
+            }
+            if (count > total) {
+                Arrays.fill(cells, total, count, null);
+            }
+            count = total;
+            return (occupied.length() + cols - 1) / cols;
+        }
 
-            // We need to calculate columns count (cols variable). We know if we layout cols cells with width is
-            // cellSize.width, and (cols - 1) horizontal gaps (innerHgap) between cells, we will get exactly
-            // parentWidth. Lets calculate cols value:
-            // cols * cellSize.width + (cols - 1) * innerHgap == parentWidth,
-            // cols * cellSize.width + cols * innerHgap - innerHgap == parentWidth,
-            // cols * (cellSize.width + innerHgap) == parentWidth + innerHgap,
-            // cols == (parentWidth + innerHgap) / (cellSize.width + innerHgap).
-            cols = normalizeValue((parentWidth + innerHgap) / (cellSize.width + innerHgap), 1, componentsCount);
-            // We get the components count and append to it (cols - 1) imaginary components to handle wrapping. Then we
-            // divide this sum to the columns count to get the finally rows count.
-            rows = (componentsCount + cols - 1) / cols;
+        /**
+         * Finds the first place where the cell of the <code>span</code>
+         * fits, and occupies it.
+         *
+         * @param span the encoded span of the cell
+         *
+         * @return the index of the top left grid cell of the place
+         */
+        private int place(int span) {
+            int slot = occupied.nextClearBit(firstFree);
+            if (span != 0) {
+                int spanCols = Math.min(GridSpan.decodeColumns(span), cols);
+                int spanRows = GridSpan.decodeRows(span);
+                while (true) {
+                    int col = slot % cols;
+                    if (col + spanCols > cols) {
+                        // Wrap to the next row.
+                        slot = occupied.nextClearBit(slot - col + cols);
+                        continue;
+                    }
+                    int blocked = findOccupied(slot, spanCols, spanRows);
+                    if (blocked < 0) {
+                        break;
+                    }
+                    // Skip the columns up to the occupied one.
+                    slot = occupied.nextClearBit(slot + blocked % cols - col + 1);
+                }
+            }
+            mark(slot, span, true);
+            firstFree = occupied.nextClearBit(firstFree);
+            return slot;
         }
 
         /**
-         * Returns the <code>value</code>, if the <code>value</code>
-         * is in the range (<code>min</code>, <code>max</code>);
-         * returns the <code>min</code>, if the <code>value</code> is
-         * less than the <code>min</code>; returns the
-         * <code>max</code>, if the <code>value</code> is greater
-         * than the <code>max</code>.
+         * Returns the first occupied grid cell within the area of the
+         * <code>spanCols</code> columns and the <code>spanRows</code>
+         * rows starting from the <code>slot</code>, or <code>-1</code>
+         * if the area is free.
+         */
+        private int findOccupied(int slot, int spanCols, int spanRows) {
+            for (int r = 0; r < spanRows; r++) {
+                int start = slot + r * cols;
+                int bit = occupied.nextSetBit(start);
+                if (bit >= 0 && bit < start + spanCols) {
+                    return bit;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Occupies or frees the area of the cell of the
+         * <code>span</code> placed at the <code>slot</code>.
+         */
+        private void mark(int slot, int span, boolean value) {
+            int spanCols = Math.min(GridSpan.decodeColumns(span), cols);
+            int spanRows = GridSpan.decodeRows(span);
+            for (int r = 0; r < spanRows; r++) {
+                int start = slot + r * cols;
+                occupied.set(start, start + spanCols, value);
+            }
+        }
+    }
+
+    /**
+     * The <code>MasonryPacker</code> stacks the cells onto the masonry
+     * columns, placing each cell below the shortest column. The columns
+     * are kept in a binary min-heap by their heights, and by their
+     * indices if the heights are equal, so that the first cells fill
+     * the top row from left to right.
+     * <p>
+     * The packer remembers the placed cells, so the appended cells are
+     * stacked onto the current columns. If a cell is changed, the
+     * heights of the columns are restored from the places of the cells
+     * before it, and only the following cells are placed again.
+     */
+    private static class MasonryPacker {
+        private int cols;
+        private int gap;
+        private int count;
+        private long height;
+        private Component[] cells = new Component[0];
+        private int[] heights = new int[0];
+        private int[] tops = new int[0];
+        private int[] columns = new int[0];
+        private int[] heap = new int[0];
+        private long[] bottoms = new long[0];
+
+        /**
+         * Stacks the cells of the <code>metrics</code> onto the columns.
          *
-         * @param value the value to be normalized
-         * @param min   the lower bound of the normalization range
-         * @param max   the upper bound of the normalization range
+         * @param metrics the grid metrics with the resolved number of
+         *                the columns
+         * @param stable  the number of the leading cells known to be the
+         *                same as in the previous packing
          *
-         * @return the normalized <code>value</code>
+         * @return the height of the tallest column
          */
-        private static int normalizeValue(int value, int min, int max) {
-            return Math.min(Math.max(min, value), max);
+        long pack(GridMetrics metrics, int stable) {
+            int total = metrics.componentsCount;
+            int from = 0;
+            if (cols == metrics.cols && gap == metrics.masonryGap) {
+                int same = Math.min(count, total);
+                from = Math.min(stable, same);
+                while (from < same && cells[from] == metrics.cells[from]
+                        && heights[from] == metrics.cellHeights[from]) {
+                    from++;
+                }
+            } else {
+                cols = metrics.cols;
+                gap = metrics.masonryGap;
+                if (heap.length < cols) {
+                    heap = new int[cols];
+                    bottoms = new long[cols];
+                }
+            }
+
+            if (cells.length < total) {
+                int length = Math.max(total, cells.length + (cells.length >> 1));
+                cells = Arrays.copyOf(cells, length);
+                heights = Arrays.copyOf(heights, length);
+                tops = Arrays.copyOf(tops, length);
+                columns = Arrays.copyOf(columns, length);
+            }
+            if (cols > 0) {
+                if (from < count || count == 0) {
+                    restore(from);
+                }
+                for (int i = from; i < total; i++) {
+                    cells[i] = metrics.cells[i];
+                    heights[i] = metrics.cellHeights[i];
+                    place(i);
+                }
+            } else {
+                height = 0;
+            }
+            if (count > total) {
+                Arrays.fill(cells, total, count, null);
+            }
+            count = total;
+            return height;
+        }
+
+        /**
+         * Restores the heights of the columns as they were after the
+         * cells before the <code>from</code> one had been placed.
+         *
+         * @param from the first cell to be placed again
+         */
+        private void restore(int from) {
+            Arrays.fill(bottoms, 0, cols, 0L);
+            height = 0;
+            for (int i = 0; i < from; i++) {
+                // The cells of a column are stacked in order, so the last one is the bottom one.
+                long bottom = (long) tops[i] + heights[i];
+                bottoms[columns[i]] = bottom + gap;
+                height = Math.max(height, bottom);
+            }
+            for (int c = 0; c < cols; c++) {
+                heap[c] = c;
+            }
+            for (int k = cols / 2 - 1; k >= 0; k--) {
+                siftDown(k);
+            }
+        }
+
+        /**
+         * Places the specified cell below the shortest column.
+         *
+         * @param index the index of the cell
+         */
+        private void place(int index) {
+            int column = heap[0];
+            long top = bottoms[column];
+            tops[index] = (int) top;
+            columns[index] = column;
+            bottoms[column] = top + heights[index] + gap;
+            height = Math.max(height, top + heights[index]);
+            siftDown(0);
+        }
+
+        /**
+         * Moves the column at the <code>k</code> position of the heap
+         * down to its place.
+         *
+         * @param k the position within the heap
+         */
+        private void siftDown(int k) {
+            int column = heap[k];
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= cols) {
+                    break;
+                }
+                if (child + 1 < cols && isShorter(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!isShorter(heap[child], column)) {
+                    break;
+                }
+                heap[k] = heap[child];
+                k = child;
+            }
+            heap[k] = column;
+        }
+
+        /**
+         * Checks whether the cell should be placed below the column
+         * <code>a</code> rather than below the column <code>b</code>.
+         */
+        private boolean isShorter(int a, int b) {
+            return bottoms[a] < bottoms[b] || (bottoms[a] == bottoms[b] && a < b);
+        }
+    }
+
+    /**
+     * The <code>RepaintBands</code> collects the old and the new
+     * bounds of the cells moved by a layout pass, and merges them into
+     * the horizontal bands.
+     */
+    private static class RepaintBands {
+        /**
+         * The collected rectangles, four values per rectangle: x, y,
+         * width and height.
+         */
+        private int[] rects = new int[64];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        /**
+         * Collects the current bounds of the <code>component</code> and
+         * the bounds it is going to be moved to.
+         */
+        void add(Component component, int x, int y, int width, int height) {
+            addRect(component.getX(), component.getY(), component.getWidth(), component.getHeight());
+            addRect(x, y, width, height);
+        }
+
+        private void addRect(int x, int y, int width, int height) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            if (rects.length < (count + 1) * 4) {
+                rects = Arrays.copyOf(rects, rects.length * 2);
+            }
+            int i = count * 4;
+            rects[i] = x;
+            rects[i + 1] = y;
+            rects[i + 2] = width;
+            rects[i + 3] = height;
+            count++;
+        }
+
+        /**
+         * Merges the collected rectangles that overlap vertically, or
+         * are separated by no more than the <code>slack</code>, into
+         * the bands, clipping them to the <code>visible</code> part of
+         * the container.
+         *
+         * @param visible the visible part of the container
+         * @param slack   the maximum vertical distance between the
+         *                merged rectangles
+         *
+         * @return the bands sorted from top to bottom
+         */
+        List<Rectangle> merge(Rectangle visible, int slack) {
+            List<Rectangle> bands = new ArrayList<Rectangle>();
+            if (count == 0 || visible.isEmpty()) {
+                return bands;
+            }
+
+            // Sort the rectangles by the y coordinate, keeping the index in the lower bits.
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) rects[i * 4 + 1] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            Rectangle band = null;
+            for (long key : order) {
+                int i = (int) key * 4;
+                Rectangle rect = new Rectangle(rects[i], rects[i + 1], rects[i + 2], rects[i + 3]);
+                rect = rect.intersection(visible);
+                if (rect.isEmpty()) {
+                    continue;
+                }
+                if (band != null && rect.y <= band.y + band.height + slack) {
+                    band.add(rect);
+                } else {
+                    band = rect;
+                    bands.add(band);
+                }
+            }
+            return bands;
         }
     }
 }
@@ -0,0 +1,245 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The <code>UniformGridLoader</code> class fills a container managed
+ * by the {@link UniformGridLayout} with the items submitted from any
+ * thread.
+ * <p>
+ * The batches of items are put into a lock-free queue and are drained
+ * on the event dispatch thread at most once per frame. Each drain
+ * creates the components for the items with the
+ * {@link ComponentFactory}, adds all of them to the container, and
+ * revalidates the container once, so the layout manager performs a
+ * single layout pass for the whole drain. The loader does not change
+ * the configuration of the layout; enable its fast append (see
+ * {@link UniformGridLayout#setFastAppend(boolean)}) so that the pass
+ * measures and lays out only the new components rather than all of
+ * them. If the live feed mode of the
+ * layout is enabled, the components are added with the
+ * {@link UniformGridLayout#feed(Container, Component)} method.
+ * <p>
+ * To keep the user interface responsive, a drain creates at most
+ * {@link #getItemsPerFrame()} components; the rest of the items are
+ * left for the following frames.
+ *
+ * @param <T> the type of the items
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLoader<T> {
+    /**
+     * The minimum time in milliseconds between two drains.
+     */
+    public static final int FRAME_INTERVAL = 16;
+
+    /**
+     * The default maximum number of the components created by one
+     * drain.
+     */
+    public static final int DEFAULT_ITEMS_PER_FRAME = 2000;
+
+    /**
+     * The <code>ComponentFactory</code> creates the components for
+     * the items. It is called on the event dispatch thread.
+     *
+     * @param <T> the type of the items
+     */
+    public interface ComponentFactory<T> {
+        /**
+         * Creates the component that presents the <code>item</code>.
+         *
+         * @param item the item to be presented
+         *
+         * @return the component to be added to the container
+         */
+        Component createComponent(T item);
+    }
+
+    private final Container target;
+    private final UniformGridLayout layout;
+    private final ComponentFactory<? super T> factory;
+
+    /**
+     * The submitted batches that have not been taken by a drain yet.
+     */
+    private final Queue<List<T>> batches = new ConcurrentLinkedQueue<List<T>>();
+
+    /**
+     * Whether a drain has been scheduled and has not started yet.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The timer that delays the drain until the end of the frame.
+     */
+    private final Timer frameTimer;
+
+    /**
+     * The batch that has been partially drained, and the index of its
+     * first item that has not been drained. Accessed only on the event
+     * dispatch thread.
+     */
+    private List<T> currentBatch;
+    private int currentIndex;
+
+    /**
+     * Whether the queue has been drained at least once, and the time
+     * of the last drain, as returned by {@link System#nanoTime()}.
+     * Accessed only on the event dispatch thread.
+     */
+    private boolean drained;
+    private long lastDrainTime;
+
+    private volatile int itemsPerFrame = DEFAULT_ITEMS_PER_FRAME;
+
+    /**
+     * Creates a <code>UniformGridLoader</code> that fills the
+     * <code>target</code> container.
+     *
+     * @param target  the container managed by the
+     *                <code>UniformGridLayout</code>
+     * @param factory the factory that creates the components for the
+     *                items
+     *
+     * @throws IllegalArgumentException if the container is not managed
+     *                                  by the
+     *                                  <code>UniformGridLayout</code>
+     */
+    public UniformGridLoader(Container target, ComponentFactory<? super T> factory) {
+        if (!(target.getLayout() instanceof UniformGridLayout)) {
+            throw new IllegalArgumentException("The container is not managed by UniformGridLayout");
+        }
+        this.target = target;
+        this.layout = (UniformGridLayout) target.getLayout();
+        this.factory = factory;
+
+        this.frameTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                drain();
+            }
+        });
+        this.frameTimer.setRepeats(false);
+    }
+
+    /**
+     * Gets the maximum number of the components created by one drain.
+     *
+     * @return the maximum number of the components per frame
+     *
+     * @see #setItemsPerFrame(int)
+     */
+    public int getItemsPerFrame() {
+        return itemsPerFrame;
+    }
+
+    /**
+     * Sets the maximum number of the components created by one drain.
+     *
+     * @param itemsPerFrame the maximum number of the components per
+     *                      frame, at least one
+     *
+     * @see #getItemsPerFrame()
+     */
+    public void setItemsPerFrame(int itemsPerFrame) {
+        this.itemsPerFrame = Math.max(itemsPerFrame, 1);
+    }
+
+    /**
+     * Submits the <code>batch</code> of items to be added to the
+     * container. This method may be called on any thread; the items
+     * are copied, so the collection may be reused by the caller.
+     *
+     * @param batch the items to be added
+     */
+    public void submit(Collection<? extends T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batches.add(new ArrayList<T>(batch));
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleDrain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drains the queue immediately, if at least one frame has passed
+     * since the last drain, or starts the timer that drains it at the
+     * end of the frame.
+     */
+    private void scheduleDrain() {
+        long elapsed = (System.nanoTime() - lastDrainTime) / 1000000L;
+        if (!drained || elapsed >= FRAME_INTERVAL) {
+            drain();
+        } else if (!frameTimer.isRunning()) {
+            frameTimer.setInitialDelay((int) (FRAME_INTERVAL - elapsed));
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * Adds the components for the queued items to the container, up
+     * to the {@link #getItemsPerFrame()} limit, and revalidates the
+     * container once.
+     */
+    private void drain() {
+        // The batches submitted from now on need another drain.
+        scheduled.set(false);
+        drained = true;
+        lastDrainTime = System.nanoTime();
+
+        int limit = itemsPerFrame;
+        int added = 0;
+        while (added < limit) {
+            if (currentBatch == null) {
+                currentBatch = batches.poll();
+                currentIndex = 0;
+                if (currentBatch == null) {
+                    break;
+                }
+            }
+            int end = (int) Math.min(currentBatch.size(), (long) currentIndex + limit - added);
+            for (int i = currentIndex; i < end; i++) {
+                layout.feed(target, factory.createComponent(currentBatch.get(i)));
+            }
+            added += end - currentIndex;
+            currentIndex = end;
+            if (currentIndex == currentBatch.size()) {
+                currentBatch = null;
+            }
+        }
+
+        if (added > 0) {
+            if (target instanceof JComponent) {
+                ((JComponent) target).revalidate();
+            } else {
+                target.invalidate();
+                target.validate();
+            }
+            target.repaint();
+        }
+
+        // Continue with the rest of the items in the next frame.
+        if ((currentBatch != null || !batches.isEmpty()) && scheduled.compareAndSet(false, true)) {
+            frameTimer.setInitialDelay(FRAME_INTERVAL);
+            frameTimer.start();
+        }
+    }
+}
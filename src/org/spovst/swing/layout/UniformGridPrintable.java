@@ -0,0 +1,417 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.print.PageFormat;
+import java.awt.print.Pageable;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * The <code>UniformGridPrintable</code> class prints the cells of a
+ * container managed by the {@link UniformGridLayout}, or the items of a
+ * {@link UniformGridView}, splitting them into pages.
+ * <p>
+ * The cells and their preferred sizes are taken once, when the
+ * printable is created, and the grid of the page is calculated from
+ * the cell size and the imageable width of the page, so the number of
+ * the rows per page, the number of the pages and the page of a cell
+ * are known in constant time. Printing a page paints only the
+ * components of its cells.
+ * <p>
+ * The components of the container are not reshaped for printing, as
+ * they may be shown at the same time. A component that has been laid
+ * out at its preferred size is printed as it is. A component of
+ * another size, for example, because it has been collapsed by the
+ * viewport windowing or the container has not been laid out, is
+ * printed by the {@link CellRenderer}, if it is set, which provides a
+ * detached component that looks like the cell; otherwise, its cell is
+ * left blank. The items of a view are read from its model page by
+ * page and painted by its item renderer, so printing does not depend
+ * on the number of the items.
+ * <p>
+ * The cells are printed row by row in the order of the layout manager,
+ * taking the cell filter and the cell order into account, using the
+ * horizontal gap, the vertical gap and the insets of the layout
+ * manager, or the gaps and the insets of the view. The spans of the
+ * cells, the masonry mode and the orientation of the layout manager do
+ * not affect the printed grid.
+ * <p>
+ * The printable should be created on the event dispatch thread. The
+ * pages may be printed on any thread; the components are then painted
+ * on the event dispatch thread, as the {@link JTable#print()} does.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridPrintable implements Printable, Pageable {
+    /**
+     * The <code>CellRenderer</code> provides the components that print
+     * the cells whose components have not been laid out at their
+     * preferred sizes.
+     */
+    public interface CellRenderer {
+        /**
+         * Returns the component configured to look like the specified
+         * cell. The component must not belong to any container, and
+         * may be reused for all the cells.
+         *
+         * @param printable the printable that prints the cell
+         * @param cell      the component of the cell
+         * @param index     the index of the cell
+         *
+         * @return the component that prints the cell, or
+         *         <code>null</code> to leave the cell blank
+         */
+        Component getCellRendererComponent(UniformGridPrintable printable, Component cell, int index);
+    }
+
+    private final PageFormat format;
+    private final int count;
+    private final Component[] cells;
+    private final int[] cellWidths;
+    private final int[] cellHeights;
+    private final UniformGridView view;
+    private final Dimension cellSize;
+    private final int hgap;
+    private final int vgap;
+    private final Insets insets;
+
+    private final UniformGridLayout.GridMetrics metrics;
+    private final CellRendererPane rendererPane = new CellRendererPane();
+    private CellRenderer cellRenderer;
+    private double pageWidth = -1;
+    private double pageHeight = -1;
+    private int rowsPerPage;
+
+    /**
+     * Creates a <code>UniformGridPrintable</code> for the cells of the
+     * <code>target</code> container, which should be managed by the
+     * {@link UniformGridLayout}.
+     *
+     * @param target the container whose cells are printed
+     * @param format the format of the pages
+     *
+     * @throws IllegalArgumentException if the container is not managed
+     *                                  by the {@link UniformGridLayout}
+     */
+    public UniformGridPrintable(Container target, PageFormat format) {
+        LayoutManager layout = target.getLayout();
+        if (!(layout instanceof UniformGridLayout)) {
+            throw new IllegalArgumentException("Cannot print: the container is not managed by UniformGridLayout");
+        }
+        UniformGridLayout gridLayout = (UniformGridLayout) layout;
+        this.format = format;
+        this.hgap = gridLayout.getHgap();
+        this.vgap = Math.max(gridLayout.getVgap(), 0);
+        this.insets = (Insets) gridLayout.getInsets().clone();
+
+        this.view = null;
+        synchronized (target.getTreeLock()) {
+            UniformGridLayout.GridMetrics taken = gridLayout.takeMetrics(target);
+            int count = taken.componentsCount;
+            // The printed grid is not transposed, so the actual sizes are taken.
+            boolean transposed = taken.isTransposed();
+            this.cells = Arrays.copyOf(taken.cells, count);
+            this.cellWidths = Arrays.copyOf(transposed ? taken.cellHeights : taken.cellWidths, count);
+            this.cellHeights = Arrays.copyOf(transposed ? taken.cellWidths : taken.cellHeights, count);
+        }
+        this.count = cells.length;
+        this.cellSize = new Dimension(0, 0);
+        for (int i = 0; i < count; i++) {
+            cellSize.width = Math.max(cellSize.width, cellWidths[i]);
+            cellSize.height = Math.max(cellSize.height, cellHeights[i]);
+        }
+        this.metrics = new UniformGridLayout.GridMetrics();
+        updatePages(format);
+    }
+
+    /**
+     * Creates a <code>UniformGridPrintable</code> for the items of the
+     * <code>view</code>. The items are painted by the item renderer of
+     * the view, and their sizes are read from the model of the view
+     * only when their pages are printed.
+     *
+     * @param view   the view whose items are printed
+     * @param format the format of the pages
+     */
+    public UniformGridPrintable(UniformGridView view, PageFormat format) {
+        this.format = format;
+        this.view = view;
+        this.hgap = view.getHgap();
+        this.vgap = Math.max(view.getVgap(), 0);
+        this.insets = view.getGridInsets();
+        this.cells = null;
+        this.cellWidths = null;
+        this.cellHeights = null;
+        this.count = view.getModel().getItemCount();
+        this.cellSize = view.getModel().getCellSize();
+        this.metrics = new UniformGridLayout.GridMetrics();
+        updatePages(format);
+    }
+
+    /**
+     * Gets the number of the printed cells.
+     *
+     * @return the number of the cells
+     */
+    public int getCellCount() {
+        return count;
+    }
+
+    /**
+     * Gets the renderer that prints the cells whose components have
+     * not been laid out at their preferred sizes.
+     *
+     * @return the cell renderer, or <code>null</code> if such cells
+     *         are left blank
+     */
+    public CellRenderer getCellRenderer() {
+        return cellRenderer;
+    }
+
+    /**
+     * Sets the renderer that prints the cells whose components have
+     * not been laid out at their preferred sizes. The renderer is not
+     * used for the items of a view.
+     *
+     * @param cellRenderer the cell renderer, or <code>null</code> to
+     *                     leave such cells blank
+     */
+    public void setCellRenderer(CellRenderer cellRenderer) {
+        this.cellRenderer = cellRenderer;
+    }
+
+    /**
+     * Gets the number of the grid columns on a page.
+     *
+     * @return the number of the columns
+     */
+    public int getColumnCount() {
+        return metrics.cols;
+    }
+
+    /**
+     * Gets the number of the grid rows on a full page.
+     *
+     * @return the number of the rows per page
+     */
+    public int getRowsPerPage() {
+        return rowsPerPage;
+    }
+
+    @Override
+    public int getNumberOfPages() {
+        if (metrics.rows == 0) {
+            return 0;
+        }
+        return (metrics.rows + rowsPerPage - 1) / rowsPerPage;
+    }
+
+    @Override
+    public PageFormat getPageFormat(int pageIndex) {
+        checkPageIndex(pageIndex);
+        return format;
+    }
+
+    @Override
+    public Printable getPrintable(int pageIndex) {
+        checkPageIndex(pageIndex);
+        return this;
+    }
+
+    /**
+     * Returns the index of the page on which the specified cell is
+     * printed.
+     *
+     * @param index the index of the cell
+     *
+     * @return the index of the page, or <code>-1</code> if there is no
+     *         such cell
+     */
+    public int getPageIndex(int index) {
+        if (index < 0 || index >= count) {
+            return -1;
+        }
+        return index / metrics.cols / rowsPerPage;
+    }
+
+    /**
+     * Returns the index of the first cell printed on the specified
+     * page.
+     *
+     * @param pageIndex the index of the page
+     *
+     * @return the index of the cell, or <code>-1</code> if there is no
+     *         such page
+     */
+    public int getFirstCellIndex(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getNumberOfPages()) {
+            return -1;
+        }
+        return pageIndex * rowsPerPage * metrics.cols;
+    }
+
+    @Override
+    public int print(final Graphics graphics, final PageFormat pageFormat, final int pageIndex)
+            throws PrinterException {
+        if (SwingUtilities.isEventDispatchThread()) {
+            return printPage(graphics, pageFormat, pageIndex);
+        }
+
+        // The components should only be painted on the event dispatch thread.
+        final int[] result = new int[1];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    result[0] = printPage(graphics, pageFormat, pageIndex);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrinterException("Printing has been interrupted");
+        } catch (InvocationTargetException e) {
+            PrinterException exception = new PrinterException("Cannot print the page " + pageIndex);
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+        return result[0];
+    }
+
+    /**
+     * Prints the cells of the specified page.
+     *
+     * @param graphics   the context into which the page is drawn
+     * @param pageFormat the size and orientation of the page
+     * @param pageIndex  the index of the page
+     *
+     * @return {@link #PAGE_EXISTS} if the page has been printed, or
+     *         {@link #NO_SUCH_PAGE} if there is no such page
+     */
+    private int printPage(Graphics graphics, PageFormat pageFormat, int pageIndex) {
+        updatePages(pageFormat);
+        int from = getFirstCellIndex(pageIndex);
+        if (from < 0) {
+            return NO_SUCH_PAGE;
+        }
+        int to = (int) Math.min((long) from + (long) rowsPerPage * metrics.cols, count);
+
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.translate(pageFormat.getImageableX(), pageFormat.getImageableY());
+            int colStep = cellSize.width + metrics.innerHgap;
+            int rowStep = cellSize.height + vgap;
+            for (int i = from; i < to; i++) {
+                int cell = i - from;
+                int width = view != null ? view.getModel().getPreferredWidth(i) : cellWidths[i];
+                int height = view != null ? view.getModel().getPreferredHeight(i) : cellHeights[i];
+                int x = insets.left + metrics.leadingHgap + (cell % metrics.cols) * colStep;
+                int y = insets.top + (cell / metrics.cols) * rowStep;
+                printCell(g, i, x + (cellSize.width - width) / 2, y + (cellSize.height - height) / 2, width, height);
+            }
+        } finally {
+            g.dispose();
+            rendererPane.removeAll();
+        }
+        return PAGE_EXISTS;
+    }
+
+    /**
+     * Paints the specified cell at its preferred size. The component
+     * of a container cell is printed as it is if it has been laid out
+     * at that size; otherwise, and for the items of a view, the
+     * detached component provided by the renderer is reshaped and
+     * painted through the renderer pane.
+     *
+     * @param g      the graphics context of the page
+     * @param index  the index of the cell
+     * @param x      the x coordinate of the component on the page
+     * @param y      the y coordinate of the component on the page
+     * @param width  the preferred width of the cell
+     * @param height the preferred height of the cell
+     */
+    private void printCell(Graphics2D g, int index, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        Component component;
+        if (view != null) {
+            component = view.getItemRenderer().getItemRendererComponent(view, view.getModel(), index);
+        } else {
+            Component cell = cells[index];
+            if (cell.getWidth() == width && cell.getHeight() == height) {
+                if (!cell.isValid()) {
+                    layoutTree(cell);
+                }
+                Graphics cellGraphics = g.create(x, y, width, height);
+                try {
+                    cell.print(cellGraphics);
+                } finally {
+                    cellGraphics.dispose();
+                }
+                return;
+            }
+            component = cellRenderer != null ? cellRenderer.getCellRendererComponent(this, cell, index) : null;
+        }
+        if (component == null) {
+            return;
+        }
+        // The renderer pane does not lay out the components that have never been shown.
+        component.setSize(width, height);
+        layoutTree(component);
+        rendererPane.paintComponent(g, component, null, x, y, width, height, false);
+    }
+
+    /**
+     * Lays out the <code>component</code> and its descendants. Unlike
+     * the {@link Container#validate()}, this works for the components
+     * that have never been shown.
+     *
+     * @param component the component to be laid out
+     */
+    private static void layoutTree(Component component) {
+        if (component instanceof Container) {
+            Container container = (Container) component;
+            container.doLayout();
+            for (Component child : container.getComponents()) {
+                layoutTree(child);
+            }
+        }
+    }
+
+    /**
+     * Calculates the grid of a page for the imageable area of the
+     * <code>pageFormat</code>, unless it has already been calculated
+     * for the same area.
+     *
+     * @param pageFormat the size and orientation of the page
+     */
+    private void updatePages(PageFormat pageFormat) {
+        if (pageFormat.getImageableWidth() == pageWidth && pageFormat.getImageableHeight() == pageHeight) {
+            return;
+        }
+        pageWidth = pageFormat.getImageableWidth();
+        pageHeight = pageFormat.getImageableHeight();
+        metrics.calculate(count, cellSize, Math.max((int) pageWidth, 1), insets, hgap);
+        // A page holds at least one row, even if the row does not fit into it.
+        int height = (int) pageHeight - insets.top - insets.bottom;
+        rowsPerPage = Math.max((height + vgap) / Math.max(cellSize.height + vgap, 1), 1);
+    }
+
+    /**
+     * Checks that the page exists.
+     *
+     * @param pageIndex the index of the page
+     *
+     * @throws IndexOutOfBoundsException if there is no such page
+     */
+    private void checkPageIndex(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getNumberOfPages()) {
+            throw new IndexOutOfBoundsException("No such page: " + pageIndex);
+        }
+    }
+}
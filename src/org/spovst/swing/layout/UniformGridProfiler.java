@@ -0,0 +1,289 @@
+package org.spovst.swing.layout;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The <code>UniformGridProfiler</code> class finds the cells which make
+ * the layout passes of the {@link UniformGridLayout} slow. Once the
+ * profiler is installed (see
+ * {@link UniformGridLayout#setProfiler(UniformGridProfiler)}), the
+ * layout manager times each <code>getPreferredSize()</code> and each
+ * <code>setBounds()</code> call it makes, and the profiler sums the
+ * times by the class of the component. The sums are kept per class
+ * rather than per component, and the preferred sizes measured within
+ * a pass are kept by the layout manager in a primitive array indexed
+ * by the cell, so the profiling does not create an object per cell.
+ * <p>
+ * When a layout pass takes longer than the budget, the classes that
+ * have taken the most time are reported by the
+ * {@link #report(Container, long, List, List)} method. A pass includes
+ * the components measured since the previous pass, for example, when
+ * the preferred size of the container has been calculated. The
+ * components whose preferred sizes have differed between two
+ * measurements within the same pass are reported as well, since they
+ * make the layout manager measure them again. By default, the report
+ * is logged as a warning by the logger named after this class.
+ * <p>
+ * The profiler should be used on the event dispatch thread, and may
+ * be shared by several layout managers.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridProfiler {
+    /**
+     * The maximum number of the classes, and of the components of the
+     * inconsistent preferred size, printed per pass.
+     */
+    private static final int MAX_OFFENDERS = 5;
+
+    /**
+     * The logger of the reports.
+     */
+    private static final Logger LOGGER = Logger.getLogger(UniformGridProfiler.class.getName());
+
+    private final Map<Class<?>, ClassStats> stats = new IdentityHashMap<Class<?>, ClassStats>();
+    private final List<ClassStats> touched = new ArrayList<ClassStats>();
+    private final List<Component> inconsistent = new ArrayList<Component>();
+    private ClassStats lastStats;
+    private long pendingTime;
+    private long outsideTime;
+    private int budget;
+
+    /**
+     * Creates a <code>UniformGridProfiler</code> which reports the
+     * layout passes that take longer than the <code>budget</code>.
+     *
+     * @param budget the time budget of a layout pass, in milliseconds
+     */
+    public UniformGridProfiler(int budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Gets the time budget of a layout pass.
+     *
+     * @return the budget in milliseconds
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the time budget of a layout pass. The passes that take
+     * longer are reported.
+     *
+     * @param budget the budget in milliseconds, or zero to report
+     *               every pass
+     */
+    public void setBudget(int budget) {
+        this.budget = Math.max(budget, 0);
+    }
+
+    /**
+     * Accounts a <code>getPreferredSize()</code> call.
+     *
+     * @param component    the measured component
+     * @param time         the time the call has taken, in nanoseconds
+     * @param inconsistent whether the preferred size of the component
+     *                     has differed from the one measured earlier
+     *                     within the pass for the first time
+     */
+    void measured(Component component, long time, boolean inconsistent) {
+        ClassStats classStats = getStats(component);
+        classStats.measureCount++;
+        classStats.measureTime += time;
+        pendingTime += time;
+        if (inconsistent) {
+            this.inconsistent.add(component);
+        }
+    }
+
+    /**
+     * Accounts a <code>setBounds()</code> call.
+     *
+     * @param component the reshaped component
+     * @param time      the time the call has taken, in nanoseconds
+     */
+    void reshaped(Component component, long time) {
+        ClassStats classStats = getStats(component);
+        classStats.reshapeCount++;
+        classStats.reshapeTime += time;
+        pendingTime += time;
+    }
+
+    /**
+     * Marks the start of a layout pass. The time accounted since the
+     * previous pass is added to the time of this pass.
+     */
+    void passStarted() {
+        outsideTime = pendingTime;
+    }
+
+    /**
+     * Marks the end of a layout pass, reports it if it has exceeded
+     * the budget, and starts accounting the next one.
+     *
+     * @param target the container which has been laid out
+     * @param time   the time the layout pass has taken, in nanoseconds
+     */
+    void passFinished(Container target, long time) {
+        long passTime = time + outsideTime;
+        if (passTime > budget * 1000000L) {
+            List<ClassStats> offenders = new ArrayList<ClassStats>(touched);
+            Collections.sort(offenders, new Comparator<ClassStats>() {
+                @Override
+                public int compare(ClassStats o1, ClassStats o2) {
+                    return Long.compare(o2.getTotalTime(), o1.getTotalTime());
+                }
+            });
+            if (offenders.size() > MAX_OFFENDERS) {
+                offenders = offenders.subList(0, MAX_OFFENDERS);
+            }
+            report(target, passTime, offenders, new ArrayList<Component>(inconsistent));
+        }
+
+        stats.clear();
+        touched.clear();
+        inconsistent.clear();
+        lastStats = null;
+        pendingTime = 0;
+        outsideTime = 0;
+    }
+
+    /**
+     * Reports a layout pass that has exceeded the budget. The default
+     * implementation logs the report as a warning, if the warnings of
+     * the logger named after this class are enabled.
+     *
+     * @param target       the container which has been laid out
+     * @param passTime     the time the pass has taken, in nanoseconds
+     * @param offenders    the classes of the components which have
+     *                     taken the most time, the slowest first
+     * @param inconsistent the components whose preferred sizes have
+     *                     differed within the pass
+     */
+    protected void report(Container target, long passTime, List<ClassStats> offenders,
+                          List<Component> inconsistent) {
+        if (!LOGGER.isLoggable(Level.WARNING)) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(String.format("Layout pass of %s took %.1f ms (budget %d ms)",
+                target.getClass().getName(), passTime / 1e6, budget));
+        for (ClassStats classStats : offenders) {
+            message.append(String.format("%n  %s: %d getPreferredSize() in %.1f ms, %d setBounds() in %.1f ms",
+                    classStats.getComponentClass().getName(),
+                    classStats.getMeasureCount(), classStats.getMeasureTime() / 1e6,
+                    classStats.getReshapeCount(), classStats.getReshapeTime() / 1e6));
+        }
+        for (int i = 0; i < inconsistent.size() && i < MAX_OFFENDERS; i++) {
+            Component component = inconsistent.get(i);
+            message.append(String.format("%n  inconsistent preferred size: %s at (%d, %d)",
+                    component.getClass().getName(), component.getX(), component.getY()));
+        }
+        if (inconsistent.size() > MAX_OFFENDERS) {
+            message.append(String.format("%n  and %d more components of inconsistent preferred size",
+                    inconsistent.size() - MAX_OFFENDERS));
+        }
+        LOGGER.warning(message.toString());
+    }
+
+    /**
+     * Returns the times of the class of the <code>component</code>,
+     * reusing the times of the previous component, since the cells are
+     * usually of the same class.
+     */
+    private ClassStats getStats(Component component) {
+        Class<?> componentClass = component.getClass();
+        ClassStats classStats = lastStats;
+        if (classStats == null || classStats.componentClass != componentClass) {
+            classStats = stats.get(componentClass);
+            if (classStats == null) {
+                classStats = new ClassStats(componentClass);
+                stats.put(componentClass, classStats);
+                touched.add(classStats);
+            }
+            lastStats = classStats;
+        }
+        return classStats;
+    }
+
+    /**
+     * The <code>ClassStats</code> class keeps the times the components
+     * of a class have taken within a layout pass.
+     */
+    public static class ClassStats {
+        private final Class<?> componentClass;
+        private int measureCount;
+        private long measureTime;
+        private int reshapeCount;
+        private long reshapeTime;
+
+        ClassStats(Class<?> componentClass) {
+            this.componentClass = componentClass;
+        }
+
+        /**
+         * Gets the class of the components.
+         *
+         * @return the class of the components
+         */
+        public Class<?> getComponentClass() {
+            return componentClass;
+        }
+
+        /**
+         * Gets the number of the <code>getPreferredSize()</code> calls.
+         *
+         * @return the number of the calls
+         */
+        public int getMeasureCount() {
+            return measureCount;
+        }
+
+        /**
+         * Gets the time the <code>getPreferredSize()</code> calls have
+         * taken.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getMeasureTime() {
+            return measureTime;
+        }
+
+        /**
+         * Gets the number of the <code>setBounds()</code> calls.
+         *
+         * @return the number of the calls
+         */
+        public int getReshapeCount() {
+            return reshapeCount;
+        }
+
+        /**
+         * Gets the time the <code>setBounds()</code> calls have taken.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getReshapeTime() {
+            return reshapeTime;
+        }
+
+        /**
+         * Gets the time all the calls have taken.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getTotalTime() {
+            return measureTime + reshapeTime;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
+import java.awt.*;
+import java.util.BitSet;
+
+/**
+ * The <code>UniformGridSelectionModel</code> class keeps the selected
+ * cells of a container managed by the {@link UniformGridLayout} as a
+ * bit set over the cell indices, so the selection does not create an
+ * object per selected cell.
+ * <p>
+ * A rectangle, for example, dragged by the mouse, is turned into the
+ * spans of the grid rows and columns it intersects, using the cell
+ * geometry of the layout manager, and each of the rows is selected
+ * with a single range operation. So selecting a rectangle takes time
+ * proportional to the number of its rows rather than to the number of
+ * its cells. If the cells flow in the columns (see
+ * {@link UniformGridLayout#setLayoutOrientation(int)}), the same is
+ * done for the columns of the rectangle.
+ * <p>
+ * If the cells have spans (see {@link GridSpan}), they do not take the
+ * grid cells of their indices, so the cells of the rectangle are
+ * looked up by the grid slots it covers instead. In the masonry mode,
+ * the cells are searched by their tops within each column the
+ * rectangle intersects.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridSelectionModel {
+    private final BitSet selected = new BitSet();
+    private final EventListenerList listenerList = new EventListenerList();
+    private final ChangeEvent changeEvent = new ChangeEvent(this);
+
+    /**
+     * Checks whether the specified cell is selected.
+     *
+     * @param index the index of the cell
+     *
+     * @return <code>true</code> if the cell is selected
+     */
+    public boolean isSelected(int index) {
+        return index >= 0 && selected.get(index);
+    }
+
+    /**
+     * Checks whether no cells are selected.
+     *
+     * @return <code>true</code> if the selection is empty
+     */
+    public boolean isSelectionEmpty() {
+        return selected.isEmpty();
+    }
+
+    /**
+     * Gets the number of the selected cells.
+     *
+     * @return the number of the selected cells
+     */
+    public int getSelectedCount() {
+        return selected.cardinality();
+    }
+
+    /**
+     * Returns the index of the first selected cell that is at or after
+     * the specified one.
+     *
+     * @param from the index to start the search from
+     *
+     * @return the index of the selected cell, or <code>-1</code> if
+     *         there is no such cell
+     */
+    public int nextSelected(int from) {
+        return selected.nextSetBit(from);
+    }
+
+    /**
+     * Returns a copy of the selected cell indices.
+     *
+     * @return the selected cells
+     */
+    public BitSet getSelection() {
+        return (BitSet) selected.clone();
+    }
+
+    /**
+     * Replaces the selection with the specified cell indices.
+     *
+     * @param selection the cells to be selected
+     */
+    public void setSelection(BitSet selection) {
+        selected.clear();
+        selected.or(selection);
+        fireStateChanged();
+    }
+
+    /**
+     * Selects the cells in the range [<code>from</code>,
+     * <code>to</code>).
+     *
+     * @param from the first cell to be selected
+     * @param to   the cell after the last cell to be selected
+     */
+    public void addSelectionRange(int from, int to) {
+        if (from < to) {
+            selected.set(Math.max(from, 0), to);
+            fireStateChanged();
+        }
+    }
+
+    /**
+     * Deselects the cells in the range [<code>from</code>,
+     * <code>to</code>).
+     *
+     * @param from the first cell to be deselected
+     * @param to   the cell after the last cell to be deselected
+     */
+    public void removeSelectionRange(int from, int to) {
+        if (from < to) {
+            selected.clear(Math.max(from, 0), to);
+            fireStateChanged();
+        }
+    }
+
+    /**
+     * Deselects all the cells.
+     */
+    public void clearSelection() {
+        if (!selected.isEmpty()) {
+            selected.clear();
+            fireStateChanged();
+        }
+    }
+
+    /**
+     * Replaces the selection with the <code>base</code> cells, plus
+     * the cells that intersect the <code>rect</code>, as they have been
+     * laid out by the last layout pass of the <code>layout</code>. To
+     * update the selection while the rectangle is dragged, pass the
+     * selection taken when the drag has been started as the
+     * <code>base</code>.
+     *
+     * @param layout the layout manager of the container
+     * @param rect   the rectangle within the container
+     * @param base   the cells to be kept selected, or <code>null</code>
+     */
+    public void selectRectangle(UniformGridLayout layout, Rectangle rect, BitSet base) {
+        selected.clear();
+        if (base != null) {
+            selected.or(base);
+        }
+        if (!layout.isRowMajor()) {
+            layout.addCellsIn(rect, selected);
+            fireStateChanged();
+            return;
+        }
+
+        // The rows are the columns of the grid, if the cells flow in the columns.
+        boolean columns = layout.getLayoutOrientation() == JList.VERTICAL_WRAP;
+        int count = layout.getCellCount();
+        int cols = columns ? layout.getRowCount() : layout.getColumnCount();
+        Rectangle first = transpose(layout.getCellBounds(0), columns);
+        rect = transpose(rect, columns);
+        if (first != null && cols > 0 && !rect.isEmpty()) {
+            Rectangle nextCol = transpose(layout.getCellBounds(1), columns);
+            Rectangle nextRow = transpose(layout.getCellBounds(cols), columns);
+            int colStep = cols > 1 && nextCol != null ? nextCol.x - first.x : first.width;
+            int rowStep = nextRow != null ? nextRow.y - first.y : first.height;
+
+            int firstCol = spanStart(rect.x - first.x, colStep, first.width);
+            int lastCol = Math.min(spanEnd(rect.x + rect.width - first.x, colStep), cols - 1);
+            int firstRow = spanStart(rect.y - first.y, rowStep, first.height);
+            int lastRow = spanEnd(rect.y + rect.height - first.y, rowStep);
+            if (firstCol <= lastCol && firstRow <= lastRow) {
+                for (long rowStart = (long) firstRow * cols; rowStart < count && rowStart <= (long) lastRow * cols;
+                     rowStart += cols) {
+                    int from = (int) rowStart + firstCol;
+                    int to = (int) Math.min(rowStart + lastCol + 1, count);
+                    if (from < to) {
+                        selected.set(from, to);
+                    }
+                }
+            }
+        }
+        fireStateChanged();
+    }
+
+    /**
+     * Swaps the x and the y coordinates of the <code>rect</code>, if
+     * the cells flow in the <code>columns</code>.
+     *
+     * @return the transposed rectangle, or <code>null</code> if the
+     *         <code>rect</code> is <code>null</code>
+     */
+    private static Rectangle transpose(Rectangle rect, boolean columns) {
+        if (rect == null || !columns) {
+            return rect;
+        }
+        return new Rectangle(rect.y, rect.x, rect.height, rect.width);
+    }
+
+    /**
+     * Returns the first row or column that ends after the
+     * <code>offset</code>.
+     *
+     * @param offset the offset from the first cell
+     * @param step   the distance between the adjacent rows or columns
+     * @param size   the size of the cell
+     */
+    private static int spanStart(int offset, int step, int size) {
+        if (offset <= 0 || step <= 0) {
+            return 0;
+        }
+        // Skip the cell if the offset is within the gap after it.
+        int index = offset / step;
+        return offset % step >= size ? index + 1 : index;
+    }
+
+    /**
+     * Returns the last row or column that starts before the
+     * <code>offset</code>, or <code>-1</code>.
+     *
+     * @param offset the offset from the first cell
+     * @param step   the distance between the adjacent rows or columns
+     */
+    private static int spanEnd(int offset, int step) {
+        if (offset <= 0) {
+            return -1;
+        }
+        return step > 0 ? (offset - 1) / step : 0;
+    }
+
+    /**
+     * Adds a listener that is notified each time the selection
+     * changes.
+     *
+     * @param listener the listener to be added
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listenerList.add(ChangeListener.class, listener);
+    }
+
+    /**
+     * Removes a listener of the selection changes.
+     *
+     * @param listener the listener to be removed
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        listenerList.remove(ChangeListener.class, listener);
+    }
+
+    /**
+     * Notifies the listeners that the selection has been changed.
+     */
+    protected void fireStateChanged() {
+        Object[] listeners = listenerList.getListenerList();
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ChangeListener.class) {
+                ((ChangeListener) listeners[i + 1]).stateChanged(changeEvent);
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * The <code>UniformGridView</code> class shows the items of the
+ * {@link MappedGridModel} in a uniform grid, arranging them the same
+ * way the {@link UniformGridLayout} arranges components.
+ * <p>
+ * The view does not create a component for each item. Instead, the
+ * {@link ItemRenderer} configures a component for an item, and the
+ * view paints it as a rubber stamp, the same way the {@link JList}
+ * does. Only the visible items are read from the model, so the memory
+ * used by the view depends on the number of the visible cells rather
+ * than on the number of the items.
+ * <p>
+ * The view is intended to be placed in a {@link JScrollPane}; it
+ * tracks the width of the viewport and grows vertically.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridView extends JComponent implements Scrollable {
+    /**
+     * Used for serialization.
+     */
+    private static final long serialVersionUID = 2817364022511856047L;
+
+    /**
+     * The <code>ItemRenderer</code> provides the components that paint
+     * the items of the grid.
+     */
+    public interface ItemRenderer {
+        /**
+         * Returns the component configured to paint the specified
+         * item. The component may be reused for all the items.
+         *
+         * @param view  the view that paints the item
+         * @param model the model of the view
+         * @param index the index of the item
+         *
+         * @return the component that paints the item
+         */
+        Component getItemRendererComponent(UniformGridView view, MappedGridModel model, int index);
+    }
+
+    private final MappedGridModel model;
+    private final ItemRenderer renderer;
+    private final CellRendererPane rendererPane;
+
+    private int hgap;
+    private int vgap;
+    private final Insets gridInsets;
+
+    private final transient UniformGridLayout.GridMetrics metrics;
+
+    /**
+     * Creates a <code>UniformGridView</code> with the dynamic
+     * horizontal gap, zero vertical gap, and zero insets.
+     *
+     * @param model    the items to be shown
+     * @param renderer the renderer that paints the items
+     */
+    public UniformGridView(MappedGridModel model, ItemRenderer renderer) {
+        this.model = model;
+        this.renderer = renderer;
+        this.rendererPane = new CellRendererPane();
+        this.hgap = UniformGridLayout.DYNAMIC_HGAP;
+        this.vgap = 0;
+        this.gridInsets = new Insets(0, 0, 0, 0);
+        this.metrics = new UniformGridLayout.GridMetrics();
+        add(rendererPane);
+        setOpaque(true);
+    }
+
+    /**
+     * Gets the model of the view.
+     *
+     * @return the items shown by the view
+     */
+    public MappedGridModel getModel() {
+        return model;
+    }
+
+    /**
+     * Gets the renderer that paints the items of the view.
+     *
+     * @return the item renderer
+     */
+    public ItemRenderer getItemRenderer() {
+        return renderer;
+    }
+
+    /**
+     * Gets the space between the columns of the grid. Negative value
+     * indicates that real hgap will be calculated automatically.
+     *
+     * @return the space between the columns of the grid
+     *
+     * @see UniformGridLayout#getHgap()
+     */
+    public int getHgap() {
+        return hgap;
+    }
+
+    /**
+     * Sets the space between the columns of the grid. Negative value
+     * indicates that real hgap will be calculated automatically.
+     *
+     * @param hgap the space between the columns of the grid
+     *
+     * @see UniformGridLayout#setHgap(int)
+     */
+    public void setHgap(int hgap) {
+        this.hgap = hgap;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Gets the space between the rows of the grid.
+     *
+     * @return the space between the rows of the grid
+     */
+    public int getVgap() {
+        return vgap;
+    }
+
+    /**
+     * Sets the space between the rows of the grid.
+     *
+     * @param vgap the space between the rows of the grid
+     */
+    public void setVgap(int vgap) {
+        this.vgap = vgap;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Gets the insets between the first/last row/column of the grid
+     * and the borders of the view.
+     *
+     * @return the insets of the grid
+     */
+    public Insets getGridInsets() {
+        return (Insets) gridInsets.clone();
+    }
+
+    /**
+     * Sets the insets between the first/last row/column of the grid
+     * and the borders of the view.
+     *
+     * @param insets the insets of the grid
+     */
+    public void setGridInsets(Insets insets) {
+        gridInsets.set(insets.top, insets.left, insets.bottom, insets.right);
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Returns the bounds of the specified cell.
+     *
+     * @param index the index of the item
+     *
+     * @return the bounds of the cell, or <code>null</code> if there is
+     *         no such item
+     */
+    public Rectangle getCellBounds(int index) {
+        if (!updateMetrics(getWidth()) || index < 0 || index >= model.getItemCount()) {
+            return null;
+        }
+        long y = gridInsets.top + (long) (index / metrics.cols) * (metrics.cellSize.height + vgap);
+        return new Rectangle(getCellX(index % metrics.cols), (int) Math.min(y, Integer.MAX_VALUE),
+                metrics.cellSize.width, metrics.cellSize.height);
+    }
+
+    /**
+     * Returns the index of the item whose cell contains the
+     * <code>point</code>.
+     *
+     * @param point the point in the view coordinates
+     *
+     * @return the index of the item, or <code>-1</code> if the point
+     *         is not within a cell
+     */
+    public int locationToIndex(Point point) {
+        if (!updateMetrics(getWidth())) {
+            return -1;
+        }
+        int colStep = metrics.cellSize.width + metrics.innerHgap;
+        int rowStep = metrics.cellSize.height + vgap;
+        int x = point.x - gridInsets.left - metrics.leadingHgap;
+        int y = point.y - gridInsets.top;
+        if (x < 0 || y < 0 || x % colStep >= metrics.cellSize.width || y % rowStep >= metrics.cellSize.height) {
+            return -1;
+        }
+        int col = x / colStep;
+        long index = (long) (y / rowStep) * metrics.cols + col;
+        return col < metrics.cols && index < model.getItemCount() ? (int) index : -1;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        if (!updateMetrics(getAvailableWidth())) {
+            return new Dimension(gridInsets.left + gridInsets.right, gridInsets.top + gridInsets.bottom);
+        }
+        int width = gridInsets.left + metrics.leadingHgap
+                + ((metrics.cellSize.width + metrics.innerHgap) * metrics.cols - metrics.innerHgap)
+                + metrics.trailingHgap + gridInsets.right;
+        long height = gridInsets.top
+                + ((long) (metrics.cellSize.height + vgap) * metrics.rows - vgap)
+                + gridInsets.bottom;
+        return new Dimension(width, (int) Math.min(height, Integer.MAX_VALUE));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        if (clip.isEmpty() || !updateMetrics(getWidth())) {
+            return;
+        }
+
+        int count = model.getItemCount();
+        int rowStep = metrics.cellSize.height + vgap;
+        long firstRow = Math.max(0, Math.floorDiv(clip.y - gridInsets.top, rowStep));
+        long lastRow = Math.floorDiv(clip.y + clip.height - 1 - gridInsets.top, rowStep);
+        int from = (int) Math.min(firstRow * metrics.cols, count);
+        int to = (int) Math.min((lastRow + 1) * metrics.cols, count);
+        for (int i = from; i < to; i++) {
+            int width = model.getPreferredWidth(i);
+            int height = model.getPreferredHeight(i);
+            int x = getCellX(i % metrics.cols) + (metrics.cellSize.width - width) / 2;
+            long y = gridInsets.top + (long) (i / metrics.cols) * rowStep + (metrics.cellSize.height - height) / 2;
+            Component component = renderer.getItemRendererComponent(this, model, i);
+            rendererPane.paintComponent(g, component, this, x, (int) y, width, height, true);
+        }
+        rendererPane.removeAll();
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return Math.max(model.getCellSize().height + vgap, 1);
+        }
+        return Math.max(model.getCellSize().width, 1);
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        // Track the viewport unless it is narrower than a single column.
+        Container parent = getParent();
+        return !(parent instanceof JViewport) || parent.getWidth() >= getMinimumGridWidth();
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
+    /**
+     * Calculates the grid metrics for the specified width of the view.
+     *
+     * @param width the width available for the grid
+     *
+     * @return <code>false</code> if there are no cells to show
+     */
+    private boolean updateMetrics(int width) {
+        Dimension cellSize = model.getCellSize();
+        if (model.getItemCount() == 0 || cellSize.width <= 0 || cellSize.height <= 0) {
+            return false;
+        }
+        metrics.calculate(model.getItemCount(), cellSize, width > 0 ? width : Integer.MAX_VALUE, gridInsets, hgap);
+        return true;
+    }
+
+    /**
+     * Returns the x coordinate of the specified grid column.
+     *
+     * @param col the index of the column
+     *
+     * @return the x coordinate of the column
+     */
+    private int getCellX(int col) {
+        return gridInsets.left + metrics.leadingHgap + col * (metrics.cellSize.width + metrics.innerHgap);
+    }
+
+    /**
+     * Returns the width available for the grid, which is the width of
+     * the viewport if the view is placed in one.
+     *
+     * @return the available width
+     */
+    private int getAvailableWidth() {
+        Container parent = getParent();
+        if (parent instanceof JViewport && parent.getWidth() > 0) {
+            return parent.getWidth();
+        }
+        return getWidth();
+    }
+
+    /**
+     * Returns the width of a single column, plus the insets.
+     *
+     * @return the minimum width of the grid
+     */
+    private int getMinimumGridWidth() {
+        return gridInsets.left + model.getCellSize().width + gridInsets.right;
+    }
+}
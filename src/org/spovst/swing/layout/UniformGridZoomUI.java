@@ -0,0 +1,80 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import javax.swing.plaf.LayerUI;
+import java.awt.*;
+
+/**
+ * The <code>UniformGridZoomUI</code> class paints a container managed
+ * by the {@link UniformGridLayout} scaled to the zoom factor which is
+ * being adjusted (see
+ * {@link UniformGridLayout#setZoom(Container, double, boolean)}), so
+ * that the intermediate zoom levels are shown without laying out the
+ * container. The container should be decorated with a {@link JLayer}:
+ * <pre>
+ * JLayer&lt;JComponent&gt; layer = new JLayer&lt;JComponent&gt;(grid, new UniformGridZoomUI());
+ * JScrollPane scrollPane = new JScrollPane(layer);
+ * </pre>
+ * The current cells are scaled by the ratio of the adjusted zoom factor
+ * to the one they have been laid out for, relative to the top left
+ * corner of the visible part of the layer. So the number of the grid
+ * columns is the same until the adjustment is finished, and the cells
+ * which have not been laid out, for example, because they are outside
+ * of the viewport window, are not shown when the cells are scaled
+ * down.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridZoomUI extends LayerUI<JComponent> {
+    private static final long serialVersionUID = 4626071598214533370L;
+
+    @Override
+    public void paint(Graphics g, JComponent c) {
+        double scale = getScale(c);
+        if (scale == 1) {
+            super.paint(g, c);
+            return;
+        }
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            Rectangle clip = g2.getClipBounds();
+            if (clip != null) {
+                // The scaled down cells do not cover the whole layer.
+                g2.setColor(c.getBackground());
+                g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+            }
+            Rectangle visible = c.getVisibleRect();
+            g2.translate(visible.x, visible.y);
+            g2.scale(scale, scale);
+            g2.translate(-visible.x, -visible.y);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            super.paint(g2, c);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Returns the ratio of the adjusted zoom factor to the current one
+     * of the layout manager of the decorated container.
+     *
+     * @param c the layer
+     *
+     * @return the scale of the cells, or <code>1</code> if the zoom is
+     *         not being adjusted
+     */
+    private static double getScale(JComponent c) {
+        if (!(c instanceof JLayer)) {
+            return 1;
+        }
+        Component view = ((JLayer<?>) c).getView();
+        LayoutManager layout = view instanceof Container ? ((Container) view).getLayout() : null;
+        if (!(layout instanceof UniformGridLayout)) {
+            return 1;
+        }
+        UniformGridLayout grid = (UniformGridLayout) layout;
+        return grid.getInterimZoom() / grid.getZoom();
+    }
+}
@@ -0,0 +1,107 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The <code>UniformGridLayoutFeedTest</code> class checks that the
+ * live feed of the {@link UniformGridLayout} replaces the oldest
+ * component in its cell, so that the other components keep both their
+ * indices within the container and their bounds.
+ * <p>
+ * The test is run by the <code>test</code> target of the build, and
+ * fails with an {@link AssertionError}.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLayoutFeedTest {
+    private static final int CAPACITY = 50;
+    private static final int FEEDS = 3 * CAPACITY + 7;
+
+    /**
+     * The <code>Cell</code> counts the measurements of its preferred
+     * size.
+     */
+    private static class Cell extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        static int measurements;
+
+        Cell() {
+            setPreferredSize(new Dimension(40, 30));
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            measurements++;
+            return super.getPreferredSize();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                testFeed(false);
+                testFeed(true);
+            }
+        });
+        System.out.println("UniformGridLayoutFeedTest passed");
+    }
+
+    private static void testFeed(boolean windowed) {
+        UniformGridLayout layout = new UniformGridLayout(5, 5);
+        layout.setFeedCapacity(CAPACITY);
+        layout.setViewportWindowing(windowed);
+        JPanel grid = new JPanel(layout);
+        JScrollPane scrollPane = new JScrollPane(grid);
+        scrollPane.setSize(300, 200);
+        scrollPane.addNotify();
+
+        for (int i = 0; i < CAPACITY; i++) {
+            check(layout.feed(grid, new Cell()) == null, "a component is evicted before the feed is full");
+        }
+        scrollPane.validate();
+
+        for (int i = 0; i < FEEDS; i++) {
+            Component[] components = grid.getComponents();
+            Rectangle[] bounds = new Rectangle[components.length];
+            for (int j = 0; j < components.length; j++) {
+                bounds[j] = components[j].getBounds();
+            }
+            int head = i % CAPACITY;
+
+            Cell cell = new Cell();
+            Cell.measurements = 0;
+            Component evicted = layout.feed(grid, cell);
+            grid.revalidate();
+            scrollPane.validate();
+
+            check(evicted == components[head], "the oldest component is not evicted");
+            check(grid.getComponentCount() == CAPACITY, "the feed exceeds its capacity");
+            check(Cell.measurements == 1, "the feed has measured " + Cell.measurements + " components");
+            check(layout.getCellIndex(cell) == head, "the new component is not found in the evicted cell");
+            check(layout.getCellIndex(evicted) == -1, "the evicted component is still found in a cell");
+            for (int j = 0; j < CAPACITY; j++) {
+                if (j == head) {
+                    check(grid.getComponent(j) == cell,
+                            "the new component does not take the index of the evicted one");
+                    check(cell.getBounds().equals(bounds[j]),
+                            "the new component does not take the cell of the evicted one");
+                } else {
+                    check(grid.getComponent(j) == components[j],
+                            "the component " + j + " has been moved in the container");
+                    check(components[j].getBounds().equals(bounds[j]), "the component " + j + " has been reshaped");
+                }
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The <code>UniformGridLayoutMasonryTest</code> class checks the
+ * masonry mode of the {@link UniformGridLayout}: that each cell is
+ * stacked below the shortest column, the leftmost one of the equally
+ * short columns, that the appended cells do not move the placed ones,
+ * and that the cells are stacked again after a change of a height or
+ * of the number of the columns. A change of the width of the container
+ * must not measure the components again.
+ * <p>
+ * The test is run by the <code>test</code> target of the build, and
+ * fails with an {@link AssertionError}.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLayoutMasonryTest {
+    private static final int HGAP = 8;
+    private static final int VGAP = 5;
+    private static final int CELL_WIDTH = 40;
+
+    /**
+     * The <code>Cell</code> counts the calls of its
+     * {@link #getPreferredSize()} method.
+     */
+    private static class Cell extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        int measures;
+
+        Cell(int height) {
+            setPreferredSize(new Dimension(CELL_WIDTH, height));
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            measures++;
+            return super.getPreferredSize();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                testPlacement();
+                testWidthChange();
+            }
+        });
+        System.out.println("UniformGridLayoutMasonryTest passed");
+    }
+
+    private static void testPlacement() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        layout.setMasonry(true);
+        JPanel grid = new JPanel(layout);
+        grid.setSize(getWidth(4), 3000);
+        // The container is validated only if it is displayable.
+        grid.addNotify();
+        for (int i = 0; i < 40; i++) {
+            grid.add(new Cell(20 + i * 37 % 90));
+        }
+        grid.validate();
+        checkStacking(grid, layout, 4);
+        check(!layout.isRowMajor(), "the masonry cells are placed row by row");
+
+        // The appended cells are stacked onto the columns without moving the placed ones.
+        Rectangle[] placed = getBounds(grid);
+        for (int i = 0; i < 7; i++) {
+            grid.add(new Cell(15 + i * 23 % 70));
+        }
+        grid.validate();
+        checkStacking(grid, layout, 4);
+        for (int i = 0; i < placed.length; i++) {
+            check(grid.getComponent(i).getBounds().equals(placed[i]), "the placed cell " + i + " has been moved");
+        }
+
+        // A changed height moves the following cells of the columns.
+        Component changed = grid.getComponent(12);
+        changed.setPreferredSize(new Dimension(CELL_WIDTH, 150));
+        changed.invalidate();
+        grid.validate();
+        checkStacking(grid, layout, 4);
+
+        // The cells fill the columns of the removed ones.
+        grid.remove(3);
+        grid.remove(20);
+        grid.validate();
+        checkStacking(grid, layout, 4);
+        grid.add(new Cell(44), 5);
+        grid.validate();
+        checkStacking(grid, layout, 4);
+    }
+
+    private static void testWidthChange() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        layout.setMasonry(true);
+        JPanel grid = new JPanel(layout);
+        grid.setSize(getWidth(5), 3000);
+        grid.addNotify();
+        for (int i = 0; i < 60; i++) {
+            grid.add(new Cell(25 + i * 53 % 80));
+        }
+        grid.validate();
+        checkStacking(grid, layout, 5);
+
+        // The cells are stacked again into the other number of the columns by their measured heights.
+        int[] widths = {getWidth(3), getWidth(7), getWidth(7) + CELL_WIDTH / 2, getWidth(1), getWidth(5)};
+        int[] cols = {3, 7, 7, 1, 5};
+        for (int k = 0; k < widths.length; k++) {
+            resetMeasures(grid);
+            grid.setSize(widths[k], grid.getHeight());
+            grid.validate();
+            for (int i = 0; i < grid.getComponentCount(); i++) {
+                check(((Cell) grid.getComponent(i)).measures == 0, "the cell " + i + " has been measured again"
+                        + " after the width has been changed to " + widths[k]);
+            }
+            checkStacking(grid, layout, cols[k]);
+        }
+    }
+
+    /**
+     * Checks that each cell is placed below the column that has been
+     * the shortest one when the cells before it have been stacked, and
+     * that the components take the bounds of their cells.
+     */
+    private static void checkStacking(JPanel grid, UniformGridLayout layout, int cols) {
+        check(layout.getColumnCount() == cols, "the grid has " + layout.getColumnCount() + " columns instead of "
+                + cols);
+        Rectangle[] columns = getColumnBounds(grid, cols);
+        int[] bottoms = new int[cols];
+        for (int i = 0; i < grid.getComponentCount(); i++) {
+            Cell cell = (Cell) grid.getComponent(i);
+            int column = 0;
+            for (int c = 1; c < cols; c++) {
+                if (bottoms[c] < bottoms[column]) {
+                    column = c;
+                }
+            }
+            int height = cell.getPreferredSize().height;
+            Rectangle expected = new Rectangle(columns[column].x, columns[column].y + bottoms[column],
+                    columns[column].width, height);
+            bottoms[column] += height + VGAP;
+            check(layout.getCellBounds(i).equals(expected), "the cell " + i + " is at " + layout.getCellBounds(i)
+                    + " instead of " + expected);
+            check(cell.getBounds().equals(expected), "the component " + i + " is at " + cell.getBounds()
+                    + " instead of " + expected);
+            check(layout.getCellIndexAt(new Point(expected.x + 1, expected.y + height - 1)) == i,
+                    "the cell " + i + " is not found at its bottom");
+        }
+    }
+
+    /**
+     * Lays out a row of the single cells of the grid of the
+     * <code>cols</code> columns, and returns their bounds.
+     */
+    private static Rectangle[] getColumnBounds(JPanel grid, int cols) {
+        JPanel copy = new JPanel(new UniformGridLayout(HGAP, VGAP));
+        for (int c = 0; c < cols; c++) {
+            copy.add(new Cell(10));
+        }
+        copy.setSize(grid.getSize());
+        copy.doLayout();
+        return getBounds(copy);
+    }
+
+    private static Rectangle[] getBounds(JPanel grid) {
+        Rectangle[] bounds = new Rectangle[grid.getComponentCount()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = grid.getComponent(i).getBounds();
+        }
+        return bounds;
+    }
+
+    private static void resetMeasures(JPanel grid) {
+        for (Component component : grid.getComponents()) {
+            ((Cell) component).measures = 0;
+        }
+    }
+
+    private static int getWidth(int cols) {
+        return cols * (CELL_WIDTH + HGAP) - HGAP;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>UniformGridLayoutOrderTest</code> class checks the
+ * explicit cell order of the {@link UniformGridLayout}: that the cells
+ * are placed in the order set by a permutation or changed by a move,
+ * that the move preview shifts only the cells between the two indices
+ * and puts them back, and that the drop index is calculated correctly
+ * within the cells, within the gaps and at the edges of the rows.
+ * <p>
+ * The test is run by the <code>test</code> target of the build, and
+ * fails with an {@link AssertionError}.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLayoutOrderTest {
+    private static final int HGAP = 10;
+    private static final int VGAP = 6;
+    private static final int CELL_WIDTH = 40;
+    private static final int CELL_HEIGHT = 30;
+    private static final int COLS = 4;
+    private static final int COUNT = 14;
+
+    /**
+     * The <code>Cell</code> has the preferred size of the grid cell.
+     */
+    private static class Cell extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        Cell() {
+            setPreferredSize(new Dimension(CELL_WIDTH, CELL_HEIGHT));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                testCellOrder();
+                testMoveCell();
+                testPreviewMove();
+                testDropIndex();
+            }
+        });
+        System.out.println("UniformGridLayoutOrderTest passed");
+    }
+
+    private static void testCellOrder() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout);
+
+        int[] permutation = new int[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            permutation[k] = (k * 5 + 3) % COUNT;
+        }
+        layout.setCellOrder(grid, permutation);
+        grid.doLayout();
+        List<Component> expected = new ArrayList<Component>();
+        for (int k = 0; k < COUNT; k++) {
+            expected.add(grid.getComponent(permutation[k]));
+        }
+        checkOrder(grid, layout, expected);
+        for (int k = 0; k < COUNT; k++) {
+            check(layout.convertIndexToModel(grid, k) == permutation[k], "the cell " + k + " maps to the component "
+                    + layout.convertIndexToModel(grid, k) + " instead of " + permutation[k]);
+            check(layout.convertIndexToView(grid, permutation[k]) == k, "the component " + permutation[k]
+                    + " maps to the cell " + layout.convertIndexToView(grid, permutation[k]) + " instead of " + k);
+        }
+
+        // The components are placed in their own order again.
+        layout.setCellOrder(grid, null);
+        grid.doLayout();
+        checkOrder(grid, layout, components(grid));
+
+        checkRejected(layout, grid, new int[COUNT - 1]);
+        int[] repeated = new int[COUNT];
+        for (int k = 0; k < COUNT; k++) {
+            repeated[k] = k == COUNT - 1 ? 0 : k;
+        }
+        checkRejected(layout, grid, repeated);
+    }
+
+    private static void testMoveCell() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout);
+        grid.doLayout();
+        List<Component> expected = components(grid);
+
+        // Forward within the row, forward to the next rows, backward, and to the end.
+        int[][] moves = {{1, 3}, {2, 11}, {12, 0}, {5, COUNT}, {COUNT - 1, 4}, {6, 7}};
+        for (int[] move : moves) {
+            layout.moveCell(grid, move[0], move[1]);
+            grid.doLayout();
+            Component moved = expected.remove(move[0]);
+            expected.add(move[1] > move[0] ? move[1] - 1 : move[1], moved);
+            checkOrder(grid, layout, expected);
+        }
+
+        // A move to the same place or out of the cells changes nothing.
+        layout.moveCell(grid, 3, 3);
+        layout.moveCell(grid, 3, 4);
+        layout.moveCell(grid, COUNT, 0);
+        layout.moveCell(grid, 0, COUNT + 1);
+        grid.doLayout();
+        checkOrder(grid, layout, expected);
+
+        // The components appended after the moves are placed after the ordered cells.
+        grid.add(new Cell());
+        grid.doLayout();
+        expected.add(grid.getComponent(COUNT));
+        checkOrder(grid, layout, expected);
+    }
+
+    private static void testPreviewMove() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout);
+        grid.doLayout();
+
+        // The dragged cell takes the slot before the insertion index, the cells between shift backward.
+        layout.previewMove(grid, 2, 9);
+        checkPreview(grid, layout, 2, 8);
+        // A shorter preview puts the cells beyond it back.
+        layout.previewMove(grid, 2, 5);
+        checkPreview(grid, layout, 2, 4);
+        // The cells between shift forward for a backward move.
+        layout.previewMove(grid, 10, 1);
+        checkPreview(grid, layout, 10, 1);
+        layout.previewMove(grid, 10, -1);
+        checkPreview(grid, layout, 10, 10);
+
+        // The move shown by the preview is the same as the move itself.
+        layout.previewMove(grid, 3, 12);
+        Rectangle[] previewed = bounds(grid);
+        layout.moveCell(grid, 3, 12);
+        grid.doLayout();
+        Rectangle[] moved = bounds(grid);
+        for (int j = 0; j < COUNT; j++) {
+            check(moved[j].equals(previewed[j]), "the component " + j + " is at " + moved[j]
+                    + " after the move, but has been at " + previewed[j] + " in the preview");
+        }
+    }
+
+    private static void testDropIndex() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout);
+        check(layout.getDropIndex(new Point(0, 0)) == -1, "the drop index is known before the layout");
+        grid.doLayout();
+
+        for (int i = 0; i < COUNT; i++) {
+            Rectangle cell = layout.getCellBounds(i);
+            int row = i / COLS;
+            int centerX = cell.x + cell.width / 2;
+            int centerY = cell.y + cell.height / 2;
+            checkDrop(layout, cell.x, centerY, i, "the left edge of the cell " + i);
+            checkDrop(layout, centerX - 1, cell.y, i, "the left half of the cell " + i);
+            checkDrop(layout, centerX + 1, centerY, i + 1, "the right half of the cell " + i);
+            checkDrop(layout, cell.x + cell.width - 1, cell.y + cell.height - 1, i + 1,
+                    "the right edge of the cell " + i);
+            // The gap below the row belongs to the row.
+            checkDrop(layout, centerX - 1, cell.y + cell.height + VGAP / 2, i, "the gap below the cell " + i);
+            if (i % COLS < COLS - 1) {
+                // The gap between the columns is before the center of the next cell.
+                checkDrop(layout, cell.x + cell.width + HGAP / 2, centerY, i + 1, "the gap after the cell " + i);
+            }
+            if (i % COLS == 0) {
+                checkDrop(layout, cell.x - HGAP, centerY, i, "the left of the row " + row);
+            }
+            if (i % COLS == COLS - 1) {
+                checkDrop(layout, grid.getWidth() + 100, centerY, i + 1, "the right of the row " + row);
+            }
+        }
+        checkDrop(layout, 0, -50, 0, "the space above the grid");
+        Rectangle last = layout.getCellBounds(COUNT - 1);
+        checkDrop(layout, last.x + last.width + HGAP + 1, last.y + last.height / 2, COUNT,
+                "the empty place after the last cell");
+        checkDrop(layout, 0, grid.getHeight() + 100, COUNT, "the space below the grid");
+    }
+
+    /**
+     * Checks that the cells of the last layout pass are the
+     * <code>expected</code> components, and that they are placed in
+     * the order of the cells.
+     */
+    private static void checkOrder(JPanel grid, UniformGridLayout layout, List<Component> expected) {
+        check(grid.getComponentCount() == expected.size(), "the components count is " + grid.getComponentCount());
+        for (int i = 0; i < expected.size(); i++) {
+            Component component = expected.get(i);
+            check(layout.getCellComponent(i) == component, "the cell " + i + " has a wrong component");
+            check(layout.getCellIndex(component) == i, "the component of the cell " + i + " is found at "
+                    + layout.getCellIndex(component));
+            check(component.getBounds().equals(layout.getCellBounds(i)), "the component of the cell " + i + " is at "
+                    + component.getBounds() + " instead of " + layout.getCellBounds(i));
+        }
+    }
+
+    /**
+     * Checks that the cell at the <code>from</code> index is previewed
+     * in the <code>slot</code>, the cells between are shifted by one,
+     * and the other cells keep their places.
+     */
+    private static void checkPreview(JPanel grid, UniformGridLayout layout, int from, int slot) {
+        for (int i = 0; i < COUNT; i++) {
+            int expected = i;
+            if (i == from) {
+                expected = slot;
+            } else if (from < slot && i > from && i <= slot) {
+                expected = i - 1;
+            } else if (slot < from && i >= slot && i < from) {
+                expected = i + 1;
+            }
+            Rectangle bounds = grid.getComponent(i).getBounds();
+            check(bounds.equals(layout.getCellBounds(expected)), "the cell " + i + " is previewed at " + bounds
+                    + " instead of the slot " + expected);
+        }
+    }
+
+    private static void checkDrop(UniformGridLayout layout, int x, int y, int expected, String place) {
+        int index = layout.getDropIndex(new Point(x, y));
+        check(index == expected, "the drop index at " + place + " (" + x + ", " + y + ") is " + index
+                + " instead of " + expected);
+    }
+
+    private static void checkRejected(UniformGridLayout layout, JPanel grid, int[] permutation) {
+        try {
+            layout.setCellOrder(grid, permutation);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("a wrong permutation is accepted");
+    }
+
+    /**
+     * Creates a grid of {@link #COUNT} cells which is wide enough for
+     * {@link #COLS} columns.
+     */
+    private static JPanel createGrid(UniformGridLayout layout) {
+        JPanel grid = new JPanel(layout);
+        for (int i = 0; i < COUNT; i++) {
+            grid.add(new Cell());
+        }
+        grid.setSize(COLS * (CELL_WIDTH + HGAP) - HGAP, 1000);
+        return grid;
+    }
+
+    private static List<Component> components(JPanel grid) {
+        List<Component> components = new ArrayList<Component>();
+        for (Component component : grid.getComponents()) {
+            components.add(component);
+        }
+        return components;
+    }
+
+    private static Rectangle[] bounds(JPanel grid) {
+        Rectangle[] bounds = new Rectangle[grid.getComponentCount()];
+        for (int j = 0; j < bounds.length; j++) {
+            bounds[j] = grid.getComponent(j).getBounds();
+        }
+        return bounds;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The <code>UniformGridLayoutReflowTest</code> class checks that the
+ * {@link UniformGridLayout} reflows only the cells starting from the
+ * first changed one, and that the viewport windowing lays out exactly
+ * the visible cells. After the middle insertions, the removals and
+ * the scrolls the bounds of the cells are compared with the bounds
+ * given by a full layout of the same cells.
+ * <p>
+ * The test is run by the <code>test</code> target of the build, and
+ * fails with an {@link AssertionError}.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLayoutReflowTest {
+    private static final int HGAP = 5;
+    private static final int VGAP = 5;
+    private static final int CELL_WIDTH = 40;
+    private static final int CELL_HEIGHT = 30;
+    private static final int ROW_STEP = CELL_HEIGHT + VGAP;
+
+    /**
+     * The <code>Cell</code> counts the changes of its bounds.
+     */
+    private static class Cell extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        int reshapes;
+
+        Cell(int width, int height) {
+            setPreferredSize(new Dimension(width, height));
+        }
+
+        @Override
+        public void setBounds(int x, int y, int width, int height) {
+            reshapes++;
+            super.setBounds(x, y, width, height);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                testReflow();
+                testWindowing();
+                testStaleWindow();
+            }
+        });
+        System.out.println("UniformGridLayoutReflowTest passed");
+    }
+
+    private static void testReflow() {
+        JPanel grid = new JPanel(new UniformGridLayout(HGAP, VGAP));
+        grid.setSize(420, 1000);
+        for (int i = 0; i < 60; i++) {
+            grid.add(new Cell(CELL_WIDTH - i % 3 * 4, CELL_HEIGHT - i % 5 * 2));
+        }
+        grid.doLayout();
+        checkLayout(grid);
+
+        // A middle insertion reflows the cells from the inserted one.
+        resetReshapes(grid);
+        grid.add(new Cell(CELL_WIDTH - 6, CELL_HEIGHT), 25);
+        grid.doLayout();
+        checkUntouched(grid, 25);
+        checkLayout(grid);
+
+        // A middle removal reflows the cells from the removed one.
+        resetReshapes(grid);
+        grid.remove(10);
+        grid.doLayout();
+        checkUntouched(grid, 10);
+        checkLayout(grid);
+
+        // A change of a preferred size within the cell size reflows the cells from the changed one.
+        resetReshapes(grid);
+        grid.getComponent(40).setPreferredSize(new Dimension(CELL_WIDTH - 10, CELL_HEIGHT - 10));
+        grid.doLayout();
+        checkUntouched(grid, 40);
+        checkLayout(grid);
+
+        // A change of the cell size moves all the cells.
+        grid.getComponent(50).setPreferredSize(new Dimension(CELL_WIDTH + 20, CELL_HEIGHT));
+        grid.doLayout();
+        checkLayout(grid);
+    }
+
+    private static void testWindowing() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        layout.setViewportWindowing(true);
+        JPanel grid = new JPanel(layout);
+        for (int i = 0; i < 200; i++) {
+            grid.add(new Cell(CELL_WIDTH, CELL_HEIGHT));
+        }
+        JScrollPane scrollPane = new JScrollPane(grid);
+        scrollPane.setSize(300, 200);
+        scrollPane.addNotify();
+        scrollPane.validate();
+        JViewport viewport = scrollPane.getViewport();
+        checkWindow(grid, viewport);
+
+        // Scrolling places the exposed cells and parks the hidden ones.
+        viewport.setViewPosition(new Point(0, 20 * ROW_STEP + 7));
+        checkWindow(grid, viewport);
+
+        // A middle insertion above the window shifts all the visible cells.
+        grid.add(new Cell(CELL_WIDTH, CELL_HEIGHT), 30);
+        scrollPane.validate();
+        checkWindow(grid, viewport);
+
+        // A middle removal within the window shifts the visible cells after it.
+        grid.remove(firstVisible(grid, viewport) + 1);
+        scrollPane.validate();
+        checkWindow(grid, viewport);
+
+        viewport.setViewPosition(new Point(0, 0));
+        checkWindow(grid, viewport);
+        viewport.setViewPosition(new Point(0, grid.getHeight() - viewport.getHeight()));
+        checkWindow(grid, viewport);
+    }
+
+    private static void testStaleWindow() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        layout.setViewportWindowing(true);
+        JPanel grid = new JPanel(layout);
+        for (int i = 0; i < 200; i++) {
+            grid.add(new Cell(CELL_WIDTH, CELL_HEIGHT));
+        }
+        JScrollPane scrollPane = new JScrollPane(grid);
+        scrollPane.setSize(300, 200);
+        scrollPane.addNotify();
+        scrollPane.validate();
+        JViewport viewport = scrollPane.getViewport();
+        viewport.setViewPosition(new Point(0, 10 * ROW_STEP));
+        checkWindow(grid, viewport);
+
+        // The scroll before the revalidation must not lay out the stale cells of the last layout pass.
+        Cell removed = (Cell) grid.getComponent(60);
+        Rectangle removedBounds = removed.getBounds();
+        grid.remove(removed);
+        grid.add(new Cell(CELL_WIDTH, CELL_HEIGHT), 0);
+        resetReshapes(grid);
+        viewport.setViewPosition(new Point(0, 12 * ROW_STEP));
+        check(removed.getBounds().equals(removedBounds), "the removed component has been reshaped");
+        checkUntouched(grid, grid.getComponentCount());
+
+        scrollPane.validate();
+        check(removed.getBounds().equals(removedBounds), "the removed component has been reshaped");
+        checkWindow(grid, viewport);
+
+        // The window of the last layout pass may extend beyond the removed cells.
+        viewport.setViewPosition(new Point(0, grid.getHeight() - viewport.getHeight()));
+        while (grid.getComponentCount() > 100) {
+            grid.remove(grid.getComponentCount() - 1);
+        }
+        scrollPane.validate();
+        checkWindow(grid, viewport);
+    }
+
+    /**
+     * Checks that the cells that intersect the visible part of the
+     * grid are laid out as by the full layout, and the cells which are
+     * far from it are parked.
+     */
+    private static void checkWindow(JPanel grid, JViewport viewport) {
+        Rectangle[] expected = layOut(grid);
+        Rectangle view = viewport.getViewRect();
+        for (int i = 0; i < expected.length; i++) {
+            Rectangle bounds = grid.getComponent(i).getBounds();
+            if (expected[i].intersects(view)) {
+                check(bounds.equals(expected[i]), "the visible cell " + i + " is at " + bounds
+                        + " instead of " + expected[i]);
+            } else if (expected[i].y >= view.y + view.height + 2 * ROW_STEP
+                    || expected[i].y + expected[i].height <= view.y - 2 * ROW_STEP) {
+                check(bounds.isEmpty(), "the hidden cell " + i + " is not parked");
+            } else if (!bounds.isEmpty()) {
+                check(bounds.equals(expected[i]), "the overscan cell " + i + " is at " + bounds
+                        + " instead of " + expected[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks that the cells are laid out as by the full layout.
+     */
+    private static void checkLayout(JPanel grid) {
+        Rectangle[] expected = layOut(grid);
+        for (int i = 0; i < expected.length; i++) {
+            Rectangle bounds = grid.getComponent(i).getBounds();
+            check(bounds.equals(expected[i]), "the cell " + i + " is at " + bounds + " instead of " + expected[i]);
+        }
+    }
+
+    /**
+     * Checks that the cells before the <code>changed</code> one have
+     * not been reshaped.
+     */
+    private static void checkUntouched(JPanel grid, int changed) {
+        for (int i = 0; i < changed; i++) {
+            check(((Cell) grid.getComponent(i)).reshapes == 0, "the unchanged cell " + i + " has been reshaped");
+        }
+    }
+
+    /**
+     * Lays out the copies of the cells of the <code>grid</code> by a
+     * new layout, and returns their bounds.
+     */
+    private static Rectangle[] layOut(JPanel grid) {
+        JPanel copy = new JPanel(new UniformGridLayout(HGAP, VGAP));
+        for (Component component : grid.getComponents()) {
+            Dimension size = component.getPreferredSize();
+            copy.add(new Cell(size.width, size.height));
+        }
+        copy.setSize(grid.getSize());
+        copy.doLayout();
+        Rectangle[] bounds = new Rectangle[copy.getComponentCount()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = copy.getComponent(i).getBounds();
+        }
+        return bounds;
+    }
+
+    private static void resetReshapes(JPanel grid) {
+        for (Component component : grid.getComponents()) {
+            ((Cell) component).reshapes = 0;
+        }
+    }
+
+    private static int firstVisible(JPanel grid, JViewport viewport) {
+        Rectangle view = viewport.getViewRect();
+        for (int i = 0; i < grid.getComponentCount(); i++) {
+            if (grid.getComponent(i).getBounds().intersects(view)) {
+                return i;
+            }
+        }
+        throw new AssertionError("no cell is visible");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
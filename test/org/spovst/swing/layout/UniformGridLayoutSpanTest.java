@@ -0,0 +1,281 @@
+package org.spovst.swing.layout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * The <code>UniformGridLayoutSpanTest</code> class checks the packing
+ * of the cells with the {@link GridSpan} constraints: that each cell
+ * takes the first place where its span fits, that the spanned cells
+ * never overlap, that a span wider than the grid is limited to the
+ * grid columns, and that the cells are packed again after a removal,
+ * an insertion or a change of a span. The places are compared with
+ * the places given by a plain first fit search over a grid of the
+ * occupied cells.
+ * <p>
+ * The test is run by the <code>test</code> target of the build, and
+ * fails with an {@link AssertionError}.
+ *
+ * @author Sergey Povstyanov
+ * @version 1.0
+ */
+public class UniformGridLayoutSpanTest {
+    private static final int HGAP = 6;
+    private static final int VGAP = 4;
+    private static final int CELL_WIDTH = 40;
+    private static final int CELL_HEIGHT = 30;
+
+    /**
+     * The <code>Cell</code> takes the area of its span.
+     */
+    private static class Cell extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        Cell(int cols, int rows) {
+            setPreferredSize(new Dimension(cols * CELL_WIDTH, rows * CELL_HEIGHT));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                testOverlappingSpans();
+                testWideSpans();
+                testRepacking();
+                testOtherConstraints();
+            }
+        });
+        System.out.println("UniformGridLayoutSpanTest passed");
+    }
+
+    private static void testOverlappingSpans() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout, 4);
+        int[][] spans = {{1, 1}, {2, 2}, {3, 1}, {1, 3}, {2, 1}, {1, 1}, {1, 1}, {4, 2}, {1, 2}, {3, 3}, {1, 1},
+                {2, 2}, {1, 1}, {1, 1}, {2, 1}, {1, 1}};
+        for (int[] span : spans) {
+            grid.add(new Cell(span[0], span[1]), new GridSpan(span[0], span[1]));
+        }
+        grid.doLayout();
+        checkPacking(grid, layout, 4);
+
+        // The same cells are packed in the other way into the other number of the columns.
+        grid.setSize(getWidth(6), grid.getHeight());
+        grid.doLayout();
+        checkPacking(grid, layout, 6);
+        grid.setSize(getWidth(3), grid.getHeight());
+        grid.doLayout();
+        checkPacking(grid, layout, 3);
+    }
+
+    private static void testWideSpans() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout, 4);
+        grid.add(new Cell(1, 1));
+        grid.add(new Cell(4, 1), new GridSpan(10, 1));
+        grid.add(new Cell(1, 1));
+        grid.add(new Cell(4, 2), new GridSpan(6, 2));
+        grid.add(new Cell(1, 1));
+        grid.doLayout();
+        checkPacking(grid, layout, 4);
+
+        // The wide spans take the whole rows.
+        int rowWidth = getWidth(4);
+        check(layout.getCellBounds(1).width == rowWidth, "the wide span is " + layout.getCellBounds(1).width
+                + " pixels wide instead of " + rowWidth);
+        check(layout.getCellBounds(3).width == rowWidth, "the wide span is " + layout.getCellBounds(3).width
+                + " pixels wide instead of " + rowWidth);
+        check(layout.getCellBounds(1).y > layout.getCellBounds(0).y, "the wide span is not wrapped to the next row");
+        // The single cells fill the first row before the wide spans.
+        check(layout.getCellBounds(4).y == layout.getCellBounds(0).y, "the single cell is not packed densely");
+        check(layout.getRowCount() == 4, "the grid has " + layout.getRowCount() + " rows instead of 4");
+    }
+
+    private static void testRepacking() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout, 5);
+        for (int i = 0; i < 30; i++) {
+            int cols = i % 7 == 2 ? 3 : i % 5 == 1 ? 2 : 1;
+            int rows = i % 4 == 3 ? 2 : 1;
+            grid.add(new Cell(cols, rows), new GridSpan(cols, rows));
+        }
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+
+        // The following cells fill the places of the removed ones.
+        grid.remove(2);
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+        grid.remove(grid.getComponentCount() - 1);
+        grid.remove(15);
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+
+        // An inserted cell moves the following cells, and an appended one fits into the first free place.
+        grid.add(new Cell(2, 2), new GridSpan(2, 2), 6);
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+        grid.add(new Cell(1, 1));
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+
+        // A changed span moves the following cells.
+        layout.setSpan(grid, grid.getComponent(4), new GridSpan(4, 2));
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+        layout.setSpan(grid, grid.getComponent(4), null);
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+
+        // A replaced cell of another span moves the following cells too.
+        grid.remove(10);
+        grid.add(new Cell(3, 1), new GridSpan(3, 1), 10);
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+
+        // Without the spans, the cells take the grid cells of their indices again.
+        for (Component component : grid.getComponents()) {
+            component.setPreferredSize(new Dimension(CELL_WIDTH, CELL_HEIGHT));
+            layout.setSpan(grid, component, GridSpan.SINGLE);
+        }
+        grid.doLayout();
+        checkPacking(grid, layout, 5);
+        check(layout.isRowMajor(), "the cells without the spans are not placed row by row");
+    }
+
+    private static void testOtherConstraints() {
+        UniformGridLayout layout = new UniformGridLayout(HGAP, VGAP);
+        JPanel grid = createGrid(layout, 4);
+        grid.add(new Cell(1, 1), BorderLayout.NORTH);
+        grid.add(new Cell(1, 1), Integer.valueOf(3));
+        grid.add(new Cell(2, 1), new GridSpan(2, 1));
+        grid.add(new Cell(1, 1), BorderLayout.CENTER);
+        grid.doLayout();
+        checkPacking(grid, layout, 4);
+        check(layout.getSpan(grid.getComponent(0)).equals(GridSpan.SINGLE), "the other constraints give a span");
+        check(layout.getSpan(grid.getComponent(1)).equals(GridSpan.SINGLE), "the other constraints give a span");
+    }
+
+    /**
+     * Checks that the cells are placed at the first places where
+     * their spans fit, that the components are placed within the
+     * areas of their spans, and that the areas do not overlap.
+     */
+    private static void checkPacking(JPanel grid, UniformGridLayout layout, int cols) {
+        check(layout.getColumnCount() == cols, "the grid has " + layout.getColumnCount() + " columns instead of "
+                + cols);
+        int count = grid.getComponentCount();
+        int[] slots = pack(grid, layout, cols);
+        Rectangle[] slotBounds = getSlotBounds(grid, layout, cols, slots);
+        Rectangle[] areas = new Rectangle[count];
+        for (int i = 0; i < count; i++) {
+            Component component = grid.getComponent(i);
+            GridSpan span = layout.getSpan(component);
+            Rectangle first = slotBounds[slots[i]];
+            Rectangle last = slotBounds[slots[i] + (span.getRows() - 1) * cols
+                    + Math.min(span.getColumns(), cols) - 1];
+            Rectangle expected = first.union(last);
+            areas[i] = layout.getCellBounds(i);
+            check(areas[i].equals(expected), "the cell " + i + " of the span " + span + " is at " + areas[i]
+                    + " instead of " + expected);
+            // The component wider than the grid does not fit into its limited span.
+            check(span.getColumns() > cols || areas[i].contains(component.getBounds()), "the component " + i
+                    + " is at " + component.getBounds() + " out of its cell " + areas[i]);
+            check(layout.getCellIndexAt(new Point(expected.x + expected.width - 1, expected.y + expected.height - 1))
+                    == i, "the last grid cell of the cell " + i + " is not found");
+            for (int j = 0; j < i; j++) {
+                check(!areas[i].intersects(areas[j]), "the cells " + j + " and " + i + " overlap");
+            }
+        }
+    }
+
+    /**
+     * Places the cells of the <code>grid</code> into the grid of the
+     * <code>cols</code> columns at the first places where their spans
+     * fit, row by row, and returns the first grid slots of the cells.
+     */
+    private static int[] pack(JPanel grid, UniformGridLayout layout, int cols) {
+        int count = grid.getComponentCount();
+        int[] slots = new int[count];
+        boolean[] occupied = new boolean[0];
+        for (int i = 0; i < count; i++) {
+            GridSpan span = layout.getSpan(grid.getComponent(i));
+            int spanCols = Math.min(span.getColumns(), cols);
+            int spanRows = span.getRows();
+            for (int slot = 0; ; slot++) {
+                int last = slot + (spanRows - 1) * cols + spanCols;
+                if (occupied.length < last) {
+                    occupied = Arrays.copyOf(occupied, Math.max(last, occupied.length * 2));
+                }
+                if (slot % cols + spanCols <= cols && isFree(occupied, slot, spanCols, spanRows, cols)) {
+                    for (int r = 0; r < spanRows; r++) {
+                        for (int c = 0; c < spanCols; c++) {
+                            occupied[slot + r * cols + c] = true;
+                        }
+                    }
+                    slots[i] = slot;
+                    break;
+                }
+            }
+        }
+        return slots;
+    }
+
+    private static boolean isFree(boolean[] occupied, int slot, int spanCols, int spanRows, int cols) {
+        for (int r = 0; r < spanRows; r++) {
+            for (int c = 0; c < spanCols; c++) {
+                if (occupied[slot + r * cols + c]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lays out the single cells of the grid of the <code>cols</code>
+     * columns, which covers the areas of all the cells placed at the
+     * <code>slots</code>, and returns the bounds of the grid cells.
+     */
+    private static Rectangle[] getSlotBounds(JPanel grid, UniformGridLayout layout, int cols, int[] slots) {
+        int count = cols;
+        for (int i = 0; i < slots.length; i++) {
+            int rows = layout.getSpan(grid.getComponent(i)).getRows();
+            count = Math.max(count, (slots[i] / cols + rows) * cols);
+        }
+        JPanel copy = new JPanel(new UniformGridLayout(HGAP, VGAP));
+        for (int i = 0; i < count; i++) {
+            copy.add(new Cell(1, 1));
+        }
+        copy.setSize(grid.getSize());
+        copy.doLayout();
+        Rectangle[] bounds = new Rectangle[count];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = copy.getComponent(i).getBounds();
+        }
+        return bounds;
+    }
+
+    /**
+     * Creates an empty grid which is wide enough for the
+     * <code>cols</code> columns of the cells.
+     */
+    private static JPanel createGrid(UniformGridLayout layout, int cols) {
+        JPanel grid = new JPanel(layout);
+        grid.setSize(getWidth(cols), 2000);
+        return grid;
+    }
+
+    private static int getWidth(int cols) {
+        return cols * (CELL_WIDTH + HGAP) - HGAP;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}